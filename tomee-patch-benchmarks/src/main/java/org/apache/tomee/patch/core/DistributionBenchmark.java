@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * End-to-end {@link Transformation#transformArchive} over a synthetic
+ * distribution.  Besides the time per archive, JMH reports the
+ * {@code megabytes} and {@code entries} counters as rates, which are the
+ * MB/s and entries/s of the transformation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DistributionBenchmark {
+
+    @Param({"20"})
+    public int jars;
+
+    @Param({"200"})
+    public int classes;
+
+    @Param({"0.5"})
+    public double javaxConstants;
+
+    private File zip;
+    private double megabytes;
+    private long entries;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Throughput {
+        public double megabytes;
+        public long entries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            entries = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        zip = SyntheticDistribution.distribution()
+                .jars(jars)
+                .classes(classes)
+                .javaxConstants(javaxConstants)
+                .toZip();
+
+        megabytes = zip.length() / (1024.0 * 1024.0);
+        try (InputStream in = IO.read(zip)) {
+            entries = count(in);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(zip.toPath());
+    }
+
+    @Benchmark
+    public long transformArchive(final Throughput throughput) throws IOException {
+        final File transformed = new Transformation().transformArchive(zip);
+        try {
+            throughput.megabytes += megabytes;
+            throughput.entries += entries;
+            return transformed.length();
+        } finally {
+            Files.delete(transformed.toPath());
+        }
+    }
+
+    /**
+     * Entries of the archive and of every nested archive
+     */
+    private static long count(final InputStream in) throws IOException {
+        final ZipInputStream zin = new ZipInputStream(in);
+        long count = 0;
+
+        ZipEntry entry;
+        while ((entry = zin.getNextEntry()) != null) {
+            count++;
+            if (Is.Zip.accept(entry.getName())) {
+                count += count(new ByteArrayInputStream(IO.readBytes(zin)));
+            }
+        }
+        return count;
+    }
+}
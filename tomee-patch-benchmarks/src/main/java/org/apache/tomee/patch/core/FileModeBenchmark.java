@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileMode#overrideModeFor} is called for every entry of every
+ * archive, so this measures a distribution's worth of paths against a
+ * typical set of rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileModeBenchmark {
+
+    private List<FileMode.ModeOverride> modeOverrides;
+    private String[] paths;
+
+    @Setup
+    public void setup() {
+        final List<FileMode> rules = new ArrayList<>();
+        rules.add(mode("^apache-tomee-[^/]+/bin/[^/]+\\.sh$", "0755"));
+        rules.add(mode("^apache-tomee-[^/]+/bin/.*", "0750"));
+        rules.add(mode("^apache-tomee-[^/]+/conf/.*\\.xml$", "0640"));
+        rules.add(mode(".*/native/.*\\.so$", "0755"));
+        modeOverrides = FileMode.compileModeOverrides(rules);
+
+        paths = new String[1000];
+        for (int i = 0; i < paths.length; i++) {
+            switch (i % 5) {
+                case 0:
+                    paths[i] = "apache-tomee-plume-10.0.0/bin/script" + i + ".sh";
+                    break;
+                case 1:
+                    paths[i] = "apache-tomee-plume-10.0.0/conf/config" + i + ".xml";
+                    break;
+                default:
+                    paths[i] = "apache-tomee-plume-10.0.0/lib/library" + i + ".jar";
+            }
+        }
+    }
+
+    @Benchmark
+    public void overrideModeFor(final Blackhole blackhole) {
+        for (final String path : paths) {
+            blackhole.consume(FileMode.overrideModeFor(path, false, modeOverrides));
+        }
+    }
+
+    private static FileMode mode(final String pattern, final String mode) {
+        final FileMode fileMode = new FileMode();
+        fileMode.setPattern(pattern);
+        fileMode.setMode(mode);
+        return fileMode;
+    }
+}
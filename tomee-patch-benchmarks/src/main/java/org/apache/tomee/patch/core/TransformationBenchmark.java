@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.tomee.patch.core.Transform.TestArchive.entries;
+import static org.apache.tomee.patch.core.Transform.TestArchive.entry;
+
+/**
+ * The per-entry work done by {@link Transformation#transformArchive}.
+ * Each benchmark returns the transformed bytes so JMH cannot discard
+ * the work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformationBenchmark {
+
+    private Transformation transformation;
+
+    private byte[] javaxClass;
+    private byte[] plainClass;
+    private byte[] xml;
+    private byte[] properties;
+    private byte[] jar;
+    private byte[] war;
+
+    @Setup
+    public void setup() throws IOException {
+        transformation = new Transformation();
+
+        javaxClass = clazz(SyntheticDistribution.distribution().javaxConstants(1).annotations(1));
+        plainClass = clazz(SyntheticDistribution.distribution().javaxConstants(0).annotations(0));
+
+        final Map<String, byte[]> distribution = entries(SyntheticDistribution.distribution().toZip());
+        xml = distribution.get("apache-tomee/conf/server.xml");
+        properties = distribution.get("apache-tomee/conf/system.properties");
+        war = distribution.get("apache-tomee/webapps/tomee.war");
+        jar = entries(war).get("WEB-INF/lib/library-0.jar");
+    }
+
+    private static byte[] clazz(final SyntheticDistribution distribution) throws IOException {
+        final byte[] war = entry(distribution.jars(1).classes(1).toZip(), "apache-tomee/webapps/tomee.war");
+        final byte[] jar = entries(war).get("WEB-INF/lib/library-0.jar");
+        return entries(jar).get("org/example/library0/Class0.class");
+    }
+
+    @Benchmark
+    public byte[] scanClassJavax() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(javaxClass.length);
+        transformation.scanClass(new ByteArrayInputStream(javaxClass), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] scanClassPlain() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(plainClass.length);
+        transformation.scanClass(new ByteArrayInputStream(plainClass), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] scanResourceXml() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length);
+        transformation.scanResource("WEB-INF/web.xml", new ByteArrayInputStream(xml), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] scanResourceProperties() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(properties.length);
+        transformation.scanResource("META-INF/services.properties", new ByteArrayInputStream(properties), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] scanJar() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(jar.length);
+        transformation.scanJar("library.jar", new ByteArrayInputStream(jar), out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] scanJarNested() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(war.length);
+        transformation.scanJar("application.war", new ByteArrayInputStream(war), out);
+        return out.toByteArray();
+    }
+}
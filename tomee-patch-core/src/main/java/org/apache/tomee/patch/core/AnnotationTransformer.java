@@ -18,20 +18,38 @@ package org.apache.tomee.patch.core;
 
 import org.objectweb.asm.AnnotationVisitor;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class AnnotationTransformer extends AnnotationVisitor {
 
+    private final ConstantRewriters rewriters;
+    private final AtomicInteger rewrites;
+
     public AnnotationTransformer(final int api, final AnnotationVisitor annotationVisitor) {
+        this(api, annotationVisitor, new ConstantRewriters());
+    }
+
+    public AnnotationTransformer(final int api, final AnnotationVisitor annotationVisitor, final ConstantRewriters rewriters) {
+        this(api, annotationVisitor, rewriters, new AtomicInteger());
+    }
+
+    /**
+     * @param rewrites counts the constants a rule changed
+     */
+    public AnnotationTransformer(final int api, final AnnotationVisitor annotationVisitor, final ConstantRewriters rewriters, final AtomicInteger rewrites) {
         super(api, annotationVisitor);
+        this.rewriters = rewriters;
+        this.rewrites = rewrites;
     }
 
     @Override
     public AnnotationVisitor visitAnnotation(final String name, final String descriptor) {
-        return new AnnotationTransformer(this.api, super.visitAnnotation(name, descriptor));
+        return new AnnotationTransformer(this.api, super.visitAnnotation(name, descriptor), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitArray(final String name) {
-        return new AnnotationTransformer(this.api, super.visitArray(name));
+        return new AnnotationTransformer(this.api, super.visitArray(name), rewriters, rewrites);
     }
 
     @Override
@@ -41,11 +59,7 @@ public class AnnotationTransformer extends AnnotationVisitor {
             return;
         }
 
-        final String updated = new Replace((String) value)
-                .prefix("{javax.validation.", "{jakarta.validation.")
-                .prefix("javax.persistence.", "jakarta.persistence.")
-                .prefix("javax.xml.ws.", "jakarta.xml.ws.")
-                .get();
+        final String updated = ConstantRewriters.rewrite(rewriters.getAnnotation(), (String) value, rewrites);
 
         super.visit(name, updated);
     }
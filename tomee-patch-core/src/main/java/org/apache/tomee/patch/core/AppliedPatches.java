@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How many times each patch class was added to an archive.  A build or
+ * daemon job keeps its own and passes it to every Transformation call it
+ * makes, so jobs sharing a Transformation do not see each other's patches.
+ */
+public class AppliedPatches {
+
+    private final ConcurrentHashMap<String, AtomicInteger> applied = new ConcurrentHashMap<>();
+
+    public void applied(final Clazz clazz) {
+        applied.computeIfAbsent(clazz.getName(), name -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public boolean isApplied(final Clazz clazz) {
+        return getApplied(clazz) > 0;
+    }
+
+    public int getApplied(final Clazz clazz) {
+        final AtomicInteger count = applied.get(clazz.getName());
+        return count == null ? 0 : count.get();
+    }
+}
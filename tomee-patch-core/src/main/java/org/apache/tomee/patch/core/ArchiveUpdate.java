@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Puts changed patch classes and resources into an archive that was
+ * already patched, without transforming it again.
+ *
+ * Entries that are not affected, including whole nested archives, are
+ * copied raw: their compressed bytes go to the new archive as they are.
+ * A class goes into every archive, at any depth, that holds the class or
+ * its outer class.  A resource goes into the archives with the name it
+ * was added to, as with {@link Additions}.
+ *
+ * Entries of inner classes and resources whose patch file was deleted are
+ * removed.  A top level patch class replaced a class of the archive, and
+ * the patched archive no longer has that original, so its entry is kept
+ * until the archive is patched again.
+ */
+public class ArchiveUpdate {
+
+    private final Map<String, File> classes = new LinkedHashMap<>();
+    private final Map<String, Map<String, File>> resources = new HashMap<>();
+    private final Set<String> removedClasses = new LinkedHashSet<>();
+    private final Map<String, Set<String>> removedResources = new HashMap<>();
+    private final Log log;
+
+    public ArchiveUpdate(final Log log) {
+        this.log = log;
+    }
+
+    /**
+     * @param name the entry name, such as org/example/Red$1.class
+     */
+    public ArchiveUpdate clazz(final String name, final File file) {
+        classes.put(name, file);
+        return this;
+    }
+
+    /**
+     * @param jar the file name of the archive the resource belongs in
+     */
+    public ArchiveUpdate resource(final String jar, final String path, final File file) {
+        resources.computeIfAbsent(jar, k -> new LinkedHashMap<>()).put(path, file);
+        return this;
+    }
+
+    /**
+     * Removes the entry of an inner class whose patch file was deleted
+     *
+     * @param name the entry name, such as org/example/Red$1.class
+     */
+    public ArchiveUpdate removeClass(final String name) {
+        if (outer(name).equals(name)) {
+            log.warn("Patch class %s was deleted, patch the archives again to restore the original", name);
+        } else {
+            removedClasses.add(name);
+        }
+        return this;
+    }
+
+    /**
+     * @param jar the file name of the archive the resource was added to
+     */
+    public ArchiveUpdate removeResource(final String jar, final String path) {
+        removedResources.computeIfAbsent(jar, k -> new LinkedHashSet<>()).add(path);
+        return this;
+    }
+
+    /**
+     * Adds the class files among the given files, named by their path
+     * relative to the root of the patch classes.  Those that no longer
+     * exist are removed.
+     */
+    public ArchiveUpdate classes(final File root, final Collection<File> files) {
+        for (final File file : files) {
+            if (!file.getName().endsWith(".class")) continue;
+
+            if (file.isFile()) {
+                clazz(relative(root, file), file);
+            } else if (!file.exists()) {
+                removeClass(relative(root, file));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the files among the given ones that the additions put in an
+     * archive, named by their path relative to the patch resources.  Those
+     * that no longer exist are removed.
+     */
+    public ArchiveUpdate resources(final File root, final Collection<File> files, final Additions additions) {
+        for (final File file : files) {
+            final boolean deleted = !file.exists();
+            if (!deleted && !file.isFile()) continue;
+
+            final String path = relative(root, file);
+            additions.getResources().forEach((jar, regex) -> {
+                if (!Pattern.compile(regex).matcher(path).matches()) return;
+
+                if (deleted) {
+                    removeResource(jar, path);
+                } else {
+                    resource(jar, path, file);
+                }
+            });
+        }
+        return this;
+    }
+
+    private static String relative(final File root, final File file) {
+        return root.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    public boolean isEmpty() {
+        return classes.isEmpty() && resources.isEmpty() && removedClasses.isEmpty() && removedResources.isEmpty();
+    }
+
+    /**
+     * Rewrites the archive in place if anything in it changed
+     *
+     * @return the number of entries written or removed
+     */
+    public int apply(final File archive) throws IOException {
+        if (isEmpty()) return 0;
+
+        final File tmp = new File(archive.getAbsoluteFile().getParentFile(), archive.getName() + ".update");
+        final int updated;
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get();
+             ZipArchiveOutputStream out = new ZipArchiveOutputStream(tmp)) {
+            updated = update(zip, archive.getName(), archive.getName(), out);
+            out.finish();
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+
+        if (updated == 0) {
+            Files.delete(tmp.toPath());
+        } else {
+            Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return updated;
+    }
+
+    private int update(final ZipFile zip, final String jar, final String path, final ZipArchiveOutputStream out) throws IOException {
+        final Set<String> names = new HashSet<>();
+        for (final ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+            names.add(entry.getName());
+        }
+
+        final Map<String, File> updates = new LinkedHashMap<>();
+        classes.forEach((name, file) -> {
+            if (names.contains(name) || names.contains(outer(name))) updates.put(name, file);
+        });
+        updates.putAll(resources.getOrDefault(jar, Collections.emptyMap()));
+
+        final Set<String> removals = new HashSet<>(removedClasses);
+        removals.addAll(removedResources.getOrDefault(jar, Collections.emptySet()));
+
+        int updated = 0;
+        for (final ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+            final File file = updates.remove(entry.getName());
+            if (file == null && removals.contains(entry.getName())) {
+                log.info("Removed %s!/%s", path, entry.getName());
+                updated++;
+
+            } else if (file != null) {
+                write(out, entry.getName(), entry.getMethod(), IO.readBytes(file), file.lastModified());
+                log.info("Updated %s!/%s", path, entry.getName());
+                updated++;
+
+            } else if (!entry.isDirectory() && Is.Zip.accept(entry.getName())) {
+                final byte[] bytes;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    bytes = IO.readBytes(in);
+                }
+
+                final ByteArrayOutputStream nested = new ByteArrayOutputStream(bytes.length);
+                final int count;
+                try (ZipFile inner = ZipFile.builder().setSeekableByteChannel(new SeekableInMemoryByteChannel(bytes)).get()) {
+                    final ZipArchiveOutputStream innerOut = new ZipArchiveOutputStream(nested);
+                    count = update(inner, new File(entry.getName()).getName(), path + "!/" + entry.getName(), innerOut);
+                    innerOut.finish();
+                }
+
+                if (count > 0) {
+                    write(out, entry.getName(), entry.getMethod(), nested.toByteArray(), entry.getTime());
+                    updated += count;
+                } else {
+                    out.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+                }
+
+            } else {
+                out.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+            }
+        }
+
+        // New inner classes and resources
+        for (final Map.Entry<String, File> added : updates.entrySet()) {
+            write(out, added.getKey(), ZipArchiveEntry.DEFLATED, IO.readBytes(added.getValue()), added.getValue().lastModified());
+            log.info("Added %s!/%s", path, added.getKey());
+            updated++;
+        }
+
+        return updated;
+    }
+
+    private static void write(final ZipArchiveOutputStream out, final String name, final int method,
+                              final byte[] bytes, final long time) throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(time);
+        entry.setMethod(method == ZipArchiveEntry.STORED ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED);
+        if (entry.getMethod() == ZipArchiveEntry.STORED) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putArchiveEntry(entry);
+        out.write(bytes);
+        out.closeArchiveEntry();
+    }
+
+    /**
+     * org/example/Red.class for org/example/Red$1.class
+     */
+    private static String outer(final String name) {
+        final int dollar = name.indexOf('$', name.lastIndexOf('/') + 1);
+        return dollar < 0 ? name : name.substring(0, dollar) + ".class";
+    }
+}
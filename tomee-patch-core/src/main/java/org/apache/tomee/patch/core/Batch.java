@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Transforms many archives in one JVM with a single {@link Transformation}.
+ *
+ * Archives are submitted to a work-stealing pool largest first, so the
+ * biggest wars start early and the small jars fill in the gaps at the end
+ * instead of leaving one thread busy with a large archive after the rest
+ * are done.
+ */
+public class Batch {
+
+    private final Transformation transformation;
+    private final int threads;
+    private final Log log;
+    private final AppliedPatches applied = new AppliedPatches();
+    private boolean exploded;
+    private boolean directories;
+
+    /**
+     * @param threads the parallelism of the pool, 0 for one per processor
+     */
+    public Batch(final Transformation transformation, final int threads, final Log log) {
+        this.transformation = transformation;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.log = log;
+    }
+
+    /**
+     * Write each archive as a directory tree named after it, without its
+     * extension, instead of as an archive
+     */
+    public void setExploded(final boolean exploded) {
+        this.exploded = exploded;
+    }
+
+    /**
+     * Transform directory inputs as exploded distributions, each into the
+     * directory of the same name in the output, instead of transforming the
+     * archives found in them.  When that is the input itself, the input is
+     * transformed in place.
+     */
+    public void setDirectories(final boolean directories) {
+        this.directories = directories;
+    }
+
+    /**
+     * The patches added to the archives of this batch, to pass to
+     * {@link Transformation#complete(AppliedPatches)}
+     */
+    public AppliedPatches getApplied() {
+        return applied;
+    }
+
+    /**
+     * Writes the transformed version of every archive to the output
+     * directory.  Archives found inside a directory keep their path
+     * relative to it.
+     *
+     * @return the transformed archives
+     */
+    public List<File> transform(final List<File> inputs, final File output) throws IOException {
+        final List<Job> jobs = new ArrayList<>();
+        for (final File input : inputs) {
+            if (input.isDirectory() && directories) {
+                jobs.add(new Job(input, new File(output, input.getName())));
+            } else if (input.isDirectory()) {
+                try (Stream<Path> paths = Files.walk(input.toPath())) {
+                    paths.map(Path::toFile)
+                            .filter(new Is.Zip()::accept)
+                            .forEach(file -> jobs.add(new Job(file, new File(output, relative(input, file)))));
+                }
+            } else if (input.isFile()) {
+                jobs.add(new Job(input, new File(output, input.getName())));
+            } else {
+                throw new IOException("Not found " + input.getAbsolutePath());
+            }
+        }
+
+        jobs.sort(Comparator.comparingLong((Job job) -> job.size).reversed());
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final List<ForkJoinTask<File>> tasks = jobs.stream()
+                    .map(job -> pool.submit(job::run))
+                    .collect(Collectors.toList());
+
+            final List<File> transformed = new ArrayList<>();
+            for (final ForkJoinTask<File> task : tasks) {
+                transformed.add(join(task));
+            }
+            return transformed;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static File join(final ForkJoinTask<File> task) throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static File exploded(final File archive) {
+        final String name = archive.getName();
+        final int dot = name.lastIndexOf('.');
+        return new File(archive.getParentFile(), dot > 0 ? name.substring(0, dot) : name + ".d");
+    }
+
+    /**
+     * Clears what an earlier run exploded, so no stale entries remain
+     */
+    private static void delete(final Path directory) throws IOException {
+        if (!Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String relative(final File dir, final File file) {
+        return dir.toPath().relativize(file.toPath()).toString();
+    }
+
+    /**
+     * The compiled patch classes found under the given directories
+     */
+    public static List<Clazz> classes(final List<File> directories) throws IOException {
+        final List<Clazz> classes = new ArrayList<>();
+        for (final File directory : directories) {
+            try (Stream<Path> paths = Files.walk(directory.toPath())) {
+                paths.map(Path::toFile)
+                        .filter(File::isFile)
+                        .filter(file -> file.getName().endsWith(".class"))
+                        .forEach(file -> classes.add(new Clazz(relative(directory, file), file)));
+            }
+        }
+        return classes;
+    }
+
+    private class Job {
+        private final File source;
+        private final File destination;
+        private final long size;
+
+        private Job(final File source, final File destination) {
+            this.source = source;
+            this.destination = destination;
+            this.size = source.length();
+        }
+
+        private File run() {
+            final long start = System.nanoTime();
+            try {
+                if (source.isDirectory()) {
+                    final boolean inPlace = source.getCanonicalFile().equals(destination.getCanonicalFile());
+                    if (!inPlace) delete(destination.toPath());
+                    transformation.transformDirectory(source, destination, applied);
+                    log.info("Transformed %s in %s ms", source.getPath(), (System.nanoTime() - start) / 1_000_000);
+                    return destination;
+                }
+
+                if (exploded) {
+                    final File directory = exploded(destination);
+                    delete(directory.toPath());
+                    transformation.explodeArchive(source, directory, applied);
+                    log.info("Transformed %s to %s in %s ms", source.getPath(), directory.getPath(), (System.nanoTime() - start) / 1_000_000);
+                    return directory;
+                }
+
+                final File transformed = transformation.transformArchive(source, applied);
+                Files.createDirectories(destination.getAbsoluteFile().getParentFile().toPath());
+                Files.move(transformed.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log.info("Transformed %s in %s ms", source.getPath(), (System.nanoTime() - start) / 1_000_000);
+            return destination;
+        }
+    }
+}
@@ -25,47 +25,57 @@ import org.objectweb.asm.ModuleVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.TypePath;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class ClassTransformer extends ClassVisitor {
 
-    private String className;
+    private final ConstantRewriters rewriters;
+    private final AtomicInteger rewrites = new AtomicInteger();
 
     public ClassTransformer(final ClassWriter classVisitor) {
+        this(classVisitor, new ConstantRewriters());
+    }
+
+    public ClassTransformer(final ClassWriter classVisitor, final ConstantRewriters rewriters) {
         super(Opcodes.ASM9, classVisitor);
+        this.rewriters = rewriters;
     }
 
     @Override
     public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitAnnotation(descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitAnnotation(descriptor, visible), rewriters, rewrites);
     }
 
     @Override
     public FieldVisitor visitField(final int access, final String name, final String descriptor, final String signature, Object value) {
 
         if (value instanceof String) {
-            value = new Replace((String) value)
-                    .replace("javax.faces", "jakarta.faces")
-                    .replace("javax_faces", "jakarta_faces")
-                    .replace("javax.persistence.", "jakarta.persistence.")
-                    .get();
+            value = ConstantRewriters.rewrite(rewriters.getField(), (String) value, rewrites);
         }
 
-        return new FieldTransformer(this.api, super.visitField(access, name, descriptor, signature, value));
+        return new FieldTransformer(this.api, super.visitField(access, name, descriptor, signature, value), rewriters, rewrites);
     }
 
     @Override
     public MethodVisitor visitMethod(final int access, final String name, final String descriptor, final String signature, final String[] exceptions) {
-        return new MethodTransformer(this.api, super.visitMethod(access, name, descriptor, signature, exceptions));
+        return new MethodTransformer(this.api, super.visitMethod(access, name, descriptor, signature, exceptions), rewriters, rewrites);
     }
 
     @Override
     public ModuleVisitor visitModule(final String name, final int access, final String version) {
-        return new ModuleTransformer(this.api, super.visitModule(name, access, version));
+        return new ModuleTransformer(this.api, super.visitModule(name, access, version), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible), rewriters, rewrites);
     }
 
-
+    /**
+     * How many constants a rule changed, zero when the class is the same
+     * apart from the order of its constant pool
+     */
+    public int getRewrites() {
+        return rewrites.get();
+    }
 }
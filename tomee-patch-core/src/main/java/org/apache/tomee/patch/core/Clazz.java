@@ -24,7 +24,6 @@ public class Clazz {
     private final String prefix;
     private final String packge;
     private final File file;
-    private int applied;
 
     public Clazz(final String name, final File file) {
         this.name = name.replace("\\", "/");
@@ -37,18 +36,6 @@ public class Clazz {
         return path.replaceAll("[^/]+\\.class$", "");
     }
 
-    public void applied() {
-        this.applied++;
-    }
-
-    public boolean isApplied() {
-        return applied > 0;
-    }
-
-    public int getApplied() {
-        return applied;
-    }
-
     public String getPrefix() {
         return prefix;
     }
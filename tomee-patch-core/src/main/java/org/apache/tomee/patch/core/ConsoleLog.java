@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.PrintStream;
+
+/**
+ * Logs info to standard out and warnings and errors to standard error,
+ * for use from the command line.
+ */
+public class ConsoleLog implements Log {
+
+    private final boolean debug;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public ConsoleLog(final boolean debug) {
+        this(debug, System.out, System.err);
+    }
+
+    public ConsoleLog(final boolean debug, final PrintStream out, final PrintStream err) {
+        this.debug = debug;
+        this.out = out;
+        this.err = err;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return debug;
+    }
+
+    @Override
+    public void debug(final CharSequence var1) {
+        if (debug) print(out, "DEBUG", var1, null);
+    }
+
+    @Override
+    public void debug(final CharSequence var1, final Throwable var2) {
+        if (debug) print(out, "DEBUG", var1, var2);
+    }
+
+    @Override
+    public void debug(final Throwable var1) {
+        if (debug) print(out, "DEBUG", null, var1);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return true;
+    }
+
+    @Override
+    public void info(final CharSequence var1) {
+        print(out, "INFO", var1, null);
+    }
+
+    @Override
+    public void info(final CharSequence var1, final Throwable var2) {
+        print(out, "INFO", var1, var2);
+    }
+
+    @Override
+    public void info(final Throwable var1) {
+        print(out, "INFO", null, var1);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return true;
+    }
+
+    @Override
+    public void warn(final CharSequence var1) {
+        print(err, "WARNING", var1, null);
+    }
+
+    @Override
+    public void warn(final CharSequence var1, final Throwable var2) {
+        print(err, "WARNING", var1, var2);
+    }
+
+    @Override
+    public void warn(final Throwable var1) {
+        print(err, "WARNING", null, var1);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return true;
+    }
+
+    @Override
+    public void error(final CharSequence var1) {
+        print(err, "ERROR", var1, null);
+    }
+
+    @Override
+    public void error(final CharSequence var1, final Throwable var2) {
+        print(err, "ERROR", var1, var2);
+    }
+
+    @Override
+    public void error(final Throwable var1) {
+        print(err, "ERROR", null, var1);
+    }
+
+    private static void print(final PrintStream stream, final String level, final CharSequence message, final Throwable throwable) {
+        synchronized (stream) {
+            stream.printf("[%s] %s%n", level, message != null ? message : throwable);
+            if (throwable != null) throwable.printStackTrace(stream);
+        }
+    }
+}
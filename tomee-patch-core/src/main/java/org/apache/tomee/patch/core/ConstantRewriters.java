@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The string constant rules applied by the class visitors.  One instance
+ * is shared by every class of a {@link Transformation}, so the memo caches
+ * of its rewriters fill up across the whole run.
+ */
+public class ConstantRewriters {
+
+    private final StringRewriter ldc = new StringRewriter()
+            .replace("javax.faces", "jakarta.faces")
+            .replace("javax_faces", "jakarta_faces")
+            .replace("javax.persistence.", "jakarta.persistence.")
+            .replace("javax.transaction.TransactionManager", "jakarta.transaction.TransactionManager")
+            .replace("javax.transaction.global.timeout", "jakarta.transaction.global.timeout")
+            .replace("org.apache.webbeans.proxy.mapping.javax.enterprise", "org.apache.webbeans.proxy.mapping.jakarta.enterprise")
+            .replace("javax.xml.ws.", "jakarta.xml.ws.")
+            .replace("Ljavax/persistence", "Ljakarta/persistence");
+
+    private final StringRewriter field = new StringRewriter()
+            .replace("javax.faces", "jakarta.faces")
+            .replace("javax_faces", "jakarta_faces")
+            .replace("javax.persistence.", "jakarta.persistence.");
+
+    private final StringRewriter annotation = new StringRewriter()
+            .prefix("{javax.validation.", "{jakarta.validation.")
+            .prefix("javax.persistence.", "jakarta.persistence.")
+            .prefix("javax.xml.ws.", "jakarta.xml.ws.");
+
+    private final StringRewriter export = new StringRewriter()
+            .replace("javax/xml/bind", "jakarta/xml/bind");
+
+    private final StringRewriter service = new StringRewriter()
+            .replace("javax/xml/bind", "jakarta/xml/bind")
+            .replace("javax/xml/soap", "jakarta/xml/soap");
+
+    /**
+     * The text every rule of every rewriter contains, as it appears in the
+     * constant pool.  The rules only match ASCII, which modified UTF-8
+     * encodes as is.
+     */
+    private final byte[] needle = getAll().stream()
+            .map(StringRewriter::getNeedle)
+            .reduce(StringRewriter::common)
+            .orElse("")
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Whether any rule could apply to the given class file.  When false the
+     * class can be copied as is, without parsing it.
+     */
+    public boolean mayRewrite(final byte[] classFile) {
+        return contains(classFile, needle);
+    }
+
+    /**
+     * Whether the bytes hold the needle, always true for an empty needle
+     */
+    static boolean contains(final byte[] bytes, final byte[] needle) {
+        if (needle.length == 0) return true;
+
+        final int last = bytes.length - needle.length;
+        final byte first = needle[0];
+
+        outer:
+        for (int i = 0; i <= last; i++) {
+            if (bytes[i] != first) continue;
+            for (int j = 1; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the text in rewrites when a rule changed it
+     */
+    static String rewrite(final StringRewriter rewriter, final String text, final AtomicInteger rewrites) {
+        final String updated = rewriter.rewrite(text);
+        // The memoized result may be an equal string from another class
+        if (updated != text && !updated.equals(text)) rewrites.incrementAndGet();
+        return updated;
+    }
+
+    /**
+     * String operands of ldc instructions
+     */
+    public StringRewriter getLdc() {
+        return ldc;
+    }
+
+    /**
+     * Constant values of static final String fields
+     */
+    public StringRewriter getField() {
+        return field;
+    }
+
+    /**
+     * String values of annotations
+     */
+    public StringRewriter getAnnotation() {
+        return annotation;
+    }
+
+    /**
+     * Packages exported by module-info
+     */
+    public StringRewriter getExport() {
+        return export;
+    }
+
+    /**
+     * Services used or provided by module-info
+     */
+    public StringRewriter getService() {
+        return service;
+    }
+
+    /**
+     * The SHA-256 of every rule, which changes whenever a rule does
+     */
+    public String fingerprint() {
+        final StringBuilder sb = new StringBuilder();
+        for (final StringRewriter rewriter : getAll()) {
+            sb.append(rewriter.describe()).append('\n');
+        }
+        return Hashes.sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public List<StringRewriter> getAll() {
+        return Arrays.asList(ldc, field, annotation, export, service);
+    }
+
+    public long getHits() {
+        return getAll().stream().mapToLong(StringRewriter::getHits).sum();
+    }
+
+    public long getMisses() {
+        return getAll().stream().mapToLong(StringRewriter::getMisses).sum();
+    }
+
+    public long getFiltered() {
+        return getAll().stream().mapToLong(StringRewriter::getFiltered).sum();
+    }
+
+    public double getHitRate() {
+        final long hits = getHits();
+        final long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+}
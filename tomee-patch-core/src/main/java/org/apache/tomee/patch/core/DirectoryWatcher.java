@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches directory trees with a {@link WatchService} and reports the files
+ * created, modified or deleted.  Directories created later are watched too.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private final WatchService service;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    public DirectoryWatcher(final List<File> roots) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        for (final File root : roots) {
+            if (root != null && root.isDirectory()) register(root.toPath());
+        }
+    }
+
+    private void register(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                keys.put(dir.register(service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Blocks until something changes, then keeps collecting changes until
+     * none arrive for the quiet period, so that saving several files or a
+     * compiler writing many classes is reported once.
+     *
+     * @return the changed files, directories excluded
+     */
+    public Set<Path> await(final long quietMillis) throws IOException, InterruptedException {
+        final Set<Path> changed = new TreeSet<>();
+
+        WatchKey key = service.take();
+        while (key != null) {
+            final Path dir = keys.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) continue;
+
+                final Path path = dir.resolve((Path) event.context());
+                if (Files.isDirectory(path)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        register(path);
+                        try (Stream<Path> files = Files.walk(path)) {
+                            files.filter(Files::isRegularFile).forEach(changed::add);
+                        }
+                    }
+                } else {
+                    changed.add(path);
+                }
+            }
+
+            if (!key.reset()) keys.remove(key);
+            key = service.poll(quietMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return changed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
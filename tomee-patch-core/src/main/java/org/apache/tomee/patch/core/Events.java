@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+/**
+ * Java Flight Recorder events emitted by {@link Transformation}.
+ *
+ * This is the Java 8 version, which records nothing.  The jar carries a
+ * Java 11 version of this class under META-INF/versions/11 that emits the
+ * ArchiveTransform, EntryTransform, ClassRewrite and ResourceRewrite
+ * events whenever they are enabled in a recording.
+ */
+public class Events {
+
+    /**
+     * An event in progress.  Setters that do not apply to an event are ignored.
+     */
+    public interface Span {
+        Span path(String path);
+
+        Span size(long bytesIn, long bytesOut);
+
+        Span entries(int entries);
+
+        /**
+         * Ends the event and records it if it passes the recording's threshold
+         */
+        void finish();
+    }
+
+    private static final Span NONE = new Span() {
+        @Override
+        public Span path(final String path) {
+            return this;
+        }
+
+        @Override
+        public Span size(final long bytesIn, final long bytesOut) {
+            return this;
+        }
+
+        @Override
+        public Span entries(final int entries) {
+            return this;
+        }
+
+        @Override
+        public void finish() {
+        }
+    };
+
+    private Events() {
+    }
+
+    public static Span archive(final String path, final int depth) {
+        return NONE;
+    }
+
+    public static Span entry(final String path, final int depth) {
+        return NONE;
+    }
+
+    public static Span classRewrite(final int depth) {
+        return NONE;
+    }
+
+    public static Span resourceRewrite(final String path, final int depth) {
+        return NONE;
+    }
+
+    /**
+     * Called by {@link StringRewriter}, {@link Replace}, {@link PackageRemapper}
+     * and the resource rules each time a rule changes a string or package
+     */
+    static void ruleHit() {
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes a transformed archive as a directory tree, skipping the deflate
+ * and the inflate that follows when the patched distribution is unpacked
+ * right away, as for container images.
+ *
+ * The entries are those {@link Transformation#scanJar} would write, each
+ * transformed and written by a parallel stream, so in the pool of the
+ * calling thread when that is a ForkJoinPool.  Nested archives are still
+ * written as archives.  Modes, FileMode overrides included, are applied as
+ * POSIX permissions where the file system has them.
+ */
+class ExplodedArchive {
+
+    private static final PosixFilePermission[] PERMISSIONS = PosixFilePermission.values();
+
+    private final Transformation transformation;
+    private final Log log;
+    private final AppliedPatches applied;
+
+    ExplodedArchive(final Transformation transformation, final Log log, final AppliedPatches applied) {
+        this.transformation = transformation;
+        this.log = log;
+        this.applied = applied;
+    }
+
+    /**
+     * @return the number of files written
+     */
+    int write(final File archive, final File directory) throws IOException {
+        final Path root = directory.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        final boolean posix = Files.getFileStore(root).supportsFileAttributeView("posix");
+
+        try (PatchedArchive patched = PatchedArchive.open(transformation, archive, applied)) {
+
+            // Parents first, so the files can be written in any order
+            final List<String> directories = new ArrayList<>(patched.getDirectories());
+            directories.sort(Comparator.naturalOrder());
+            for (final String path : directories) {
+                Files.createDirectories(resolve(root, path));
+            }
+
+            try {
+                patched.getFiles().parallelStream().forEach(entry -> {
+                    try {
+                        write(patched, entry, resolve(root, entry.getPath()), posix);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            // Children first, as a directory made read-only could not be changed into
+            directories.sort(Comparator.reverseOrder());
+            for (final String path : directories) {
+                if (path.isEmpty()) continue;
+                final Path dir = resolve(root, path);
+                if (posix) {
+                    Files.setPosixFilePermissions(dir, permissions(transformation.directoryMode(path, patched.getDirectoryMode(path))));
+                }
+                Files.setLastModifiedTime(dir, FileTime.fromMillis(patched.getTime()));
+            }
+
+            return patched.getFiles().size();
+        }
+    }
+
+    private void write(final PatchedArchive patched, final PatchedArchive.Entry entry, final Path file, final boolean posix) throws IOException {
+        final Clazz clazz = entry.getClazz();
+        if (clazz != null && log.isDebugEnabled()) log.debug("Applying patch " + clazz.getName());
+
+        Files.write(file, patched.read(entry));
+        if (posix) Files.setPosixFilePermissions(file, permissions(transformation.fileMode(entry.getPath(), entry.getMode())));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(entry.getTime()));
+
+        if (clazz != null) applied.applied(clazz);
+    }
+
+    /**
+     * Entries may not point outside of the directory, as ../../etc/passwd would
+     */
+    static Path resolve(final Path root, final String path) throws IOException {
+        final Path resolved = root.resolve(path).normalize();
+        if (!resolved.startsWith(root)) throw new IOException("Entry outside of the archive " + path);
+        return resolved;
+    }
+
+    static Set<PosixFilePermission> permissions(final int mode) {
+        final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((mode & (0400 >> i)) != 0) permissions.add(PERMISSIONS[i]);
+        }
+        return permissions;
+    }
+
+    static int mode(final Set<PosixFilePermission> permissions) {
+        int mode = 0;
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if (permissions.contains(PERMISSIONS[i])) mode |= 0400 >> i;
+        }
+        return mode;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Transforms an exploded distribution, such as target/apache-tomee-plus,
+ * without zipping it first.  The directory is handled as the outer archive
+ * would be by {@link Transformation#scanJar}: paths are renamed, signature
+ * files and patched classes are dropped, patches and additions are added
+ * and every file goes through the class, resource or nested archive
+ * handling, in parallel.
+ *
+ * The output is either the directory itself or a mirror tree.  In place,
+ * unchanged files are left untouched.  In a mirror, unchanged files are
+ * hard links to the originals where the file system allows it.  Written
+ * files keep the permissions of the original unless a FileMode overrides
+ * them.
+ */
+class ExplodedDirectory {
+
+    private final Transformation transformation;
+    private final Log log;
+    private final AppliedPatches applied;
+    private final AtomicInteger changed = new AtomicInteger();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    ExplodedDirectory(final Transformation transformation, final Log log, final AppliedPatches applied) {
+        this.transformation = transformation;
+        this.log = log;
+        this.applied = applied;
+    }
+
+    /**
+     * @return the number of files changed
+     */
+    int transform(final File input, final File output) throws IOException {
+        final Path source = input.toPath().toAbsolutePath().normalize();
+        final Path target = output.toPath().toAbsolutePath().normalize();
+        final boolean inPlace = source.equals(target);
+        final boolean posix = Files.getFileStore(source).supportsFileAttributeView("posix");
+        final String name = input.getName();
+
+        final List<Path> directories;
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(source)) {
+            final List<Path> all = paths.collect(Collectors.toList());
+            directories = all.stream().filter(Files::isDirectory).collect(Collectors.toList());
+            files = all.stream().filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        // Which entries are dropped and which patches apply is decided up
+        // front, as the patches of a Jar are not meant to be shared
+        final List<Item> items = new ArrayList<>();
+        final Collection<Clazz> patches;
+        final Transformation.Jar old = Transformation.Jar.enter(name, applied);
+        try {
+            final Transformation.Jar jar = Transformation.Jar.current();
+            for (final Path file : files) {
+                final String original = relative(source, file);
+                final String path = transformation.updatePath(original);
+
+                if (transformation.skip(path) || transformation.isPatched(path, jar)) {
+                    if (inPlace) Files.delete(file);
+                    continue;
+                }
+                items.add(new Item(file, original, path));
+            }
+            patches = new ArrayList<>(jar.getSkipped());
+        } finally {
+            Transformation.Jar.exit(old);
+        }
+
+        for (final Path directory : directories) {
+            Files.createDirectories(ExplodedArchive.resolve(target, transformation.updatePath(relative(source, directory))));
+        }
+
+        try {
+            items.parallelStream().forEach(item -> {
+                final Transformation.Jar previous = Transformation.Jar.enter(name, applied);
+                try {
+                    transform(item, target, inPlace, posix);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(item.original + ": " + e.getMessage(), e);
+                } finally {
+                    Transformation.Jar.exit(previous);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (!patches.isEmpty()) log.info("Patching %s", name);
+        for (final Clazz clazz : patches) {
+            if (log.isDebugEnabled()) log.debug("Applying patch " + clazz.getName());
+            copy(clazz.getFile().toPath(), ExplodedArchive.resolve(target, clazz.getName()));
+            applied.applied(clazz);
+        }
+
+        for (final Transformation.Resource resource : transformation.additions(name)) {
+            log.info("Adding %s", resource.getPath());
+            copy(resource.getFile().toPath(), ExplodedArchive.resolve(target, resource.getPath()));
+        }
+
+        // Children first, as a directory made read-only could not be changed into
+        if (posix) {
+            directories.sort(Comparator.reverseOrder());
+            for (final Path directory : directories) {
+                final String path = transformation.updatePath(relative(source, directory));
+                if (path.isEmpty()) continue;
+                final int mode = UnixStat.DIR_FLAG | ExplodedArchive.mode(Files.getPosixFilePermissions(directory));
+                Files.setPosixFilePermissions(ExplodedArchive.resolve(target, path),
+                        ExplodedArchive.permissions(transformation.directoryMode(path, mode)));
+            }
+        }
+
+        log.info("Transformed %s: %s files changed, %s linked, %s unchanged", input.getPath(), changed.get(), linked.get(), unchanged.get());
+        return changed.get();
+    }
+
+    private void transform(final Item item, final Path target, final boolean inPlace, final boolean posix) throws IOException {
+        final Path file = ExplodedArchive.resolve(target, item.path);
+        final boolean moved = !item.path.equals(item.original);
+
+        final Set<PosixFilePermission> permissions;
+        final boolean sameMode;
+        if (posix) {
+            final Set<PosixFilePermission> current = Files.getPosixFilePermissions(item.source);
+            final int mode = UnixStat.FILE_FLAG | ExplodedArchive.mode(current);
+            permissions = ExplodedArchive.permissions(transformation.fileMode(item.path, mode));
+            sameMode = permissions.equals(current);
+        } else {
+            permissions = null;
+            sameMode = true;
+        }
+
+        if (Transformation.isZip(item.path) && !transformation.isExcludedJar(item.path)) {
+            // Archives are streamed, they are rewritten whatever happens
+            write(file, permissions, out -> {
+                try (InputStream in = Files.newInputStream(item.source)) {
+                    transformation.transform(item.path, in, out);
+                }
+            });
+            changed.incrementAndGet();
+        } else {
+            final byte[] original = Files.readAllBytes(item.source);
+            final byte[] bytes = transform(item.path, original);
+
+            if (!Arrays.equals(original, bytes) || moved && inPlace) {
+                write(file, permissions, out -> out.write(bytes));
+                changed.incrementAndGet();
+            } else if (inPlace) {
+                if (!sameMode) Files.setPosixFilePermissions(file, permissions);
+                unchanged.incrementAndGet();
+            } else if (sameMode && link(item.source, file)) {
+                linked.incrementAndGet();
+            } else {
+                write(file, permissions, out -> out.write(bytes));
+                unchanged.incrementAndGet();
+            }
+        }
+
+        if (inPlace && moved) Files.delete(item.source);
+    }
+
+    private byte[] transform(final String path, final byte[] original) throws IOException {
+        if (!path.endsWith(".class") && (Transformation.isZip(path) || transformation.copyUnmodified(path))) return original;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(original.length);
+        if (path.endsWith(".class")) {
+            // Classes no rule or rename changed keep their bytes, so they can be linked
+            if (!transformation.scanClass(new ByteArrayInputStream(original), out)) return original;
+        } else {
+            transformation.scanResource(path, new ByteArrayInputStream(original), out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes aside and moves over the file, so it is never seen half written
+     */
+    private static void write(final Path file, final Set<PosixFilePermission> permissions, final Content content) throws IOException {
+        final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                content.write(out);
+            }
+            if (permissions != null) Files.setPosixFilePermissions(tmp, permissions);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean link(final Path existing, final Path link) throws IOException {
+        Files.deleteIfExists(link);
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (final UnsupportedOperationException | IOException e) {
+            // Another file system or no hard links, the file is copied
+            return false;
+        }
+    }
+
+    private static void copy(final Path from, final Path to) throws IOException {
+        Files.createDirectories(to.getParent());
+        Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String relative(final Path root, final Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private interface Content {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static class Item {
+        private final Path source;
+        private final String original;
+        private final String path;
+
+        private Item(final Path source, final String original, final String path) {
+            this.source = source;
+            this.original = original;
+            this.path = path;
+        }
+    }
+}
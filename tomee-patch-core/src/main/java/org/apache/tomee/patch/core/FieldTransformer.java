@@ -20,19 +20,37 @@ import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.TypePath;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class FieldTransformer extends FieldVisitor {
 
+    private final ConstantRewriters rewriters;
+    private final AtomicInteger rewrites;
+
     public FieldTransformer(final int api, final FieldVisitor fieldVisitor) {
+        this(api, fieldVisitor, new ConstantRewriters());
+    }
+
+    public FieldTransformer(final int api, final FieldVisitor fieldVisitor, final ConstantRewriters rewriters) {
+        this(api, fieldVisitor, rewriters, new AtomicInteger());
+    }
+
+    /**
+     * @param rewrites counts the constants a rule changed
+     */
+    public FieldTransformer(final int api, final FieldVisitor fieldVisitor, final ConstantRewriters rewriters, final AtomicInteger rewrites) {
         super(api, fieldVisitor);
+        this.rewriters = rewriters;
+        this.rewrites = rewrites;
     }
 
     @Override
     public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitAnnotation(descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitAnnotation(descriptor, visible), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible), rewriters, rewrites);
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * The wire format between {@link PatchClient} and {@link PatchDaemon}.
+ *
+ * The client sends one job, a properties map.  The daemon answers with
+ * a stream of frames, each a type byte followed by a UTF-8 string:
+ * log lines, the names of the patches applied and finally done or error.
+ * Frames are read before the job is authenticated, so their size is
+ * bounded.
+ */
+class Frames {
+
+    static final int VERSION = 2;
+
+    /**
+     * Far more than any job or log line needs
+     */
+    static final int MAX_LENGTH = 1024 * 1024;
+
+    static final byte JOB = 'J';
+    static final byte DEBUG = 'D';
+    static final byte INFO = 'I';
+    static final byte WARN = 'W';
+    static final byte ERROR = 'E';
+    static final byte APPLIED = 'A';
+    static final byte DONE = '.';
+    static final byte FAILED = '!';
+
+    private Frames() {
+    }
+
+    static void write(final DataOutputStream out, final byte type, final String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    static byte type(final DataInputStream in) throws IOException {
+        return in.readByte();
+    }
+
+    static String text(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > MAX_LENGTH) throw new IOException("Frame of " + length + " bytes exceeds " + MAX_LENGTH);
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeJob(final DataOutputStream out, final Properties job) throws IOException {
+        final StringWriter writer = new StringWriter();
+        job.store(writer, null);
+        out.writeInt(VERSION);
+        write(out, JOB, writer.toString());
+    }
+
+    static Properties readJob(final DataInputStream in) throws IOException {
+        final int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported protocol version " + version);
+        if (type(in) != JOB) throw new IOException("Expected a job");
+        final Properties job = new Properties();
+        job.load(new StringReader(text(in)));
+        return job;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.tomitribe.util.Hex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Hashes {
+
+    private static final Map<String, String> FILES = new ConcurrentHashMap<>();
+
+    private Hashes() {
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every JVM", e);
+        }
+    }
+
+    public static String sha256(final byte[] bytes) {
+        return Hex.toString(sha256().digest(bytes));
+    }
+
+    public static String sha256(final String text) {
+        return sha256(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String sha256(final File file) throws IOException {
+        final MessageDigest digest = sha256();
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return Hex.toString(digest.digest());
+    }
+
+    /**
+     * The hash of a file, remembered for the life of the JVM by path, size
+     * and modification time, so the jars of a distribution are only read
+     * once even when several modules of the same build hash them
+     */
+    public static String cachedSha256(final File file) throws IOException {
+        final String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        final String cached = FILES.get(key);
+        if (cached != null) return cached;
+
+        final String hash = sha256(file);
+        FILES.put(key, hash);
+        return hash;
+    }
+
+    /**
+     * Hash of a list of files, sensitive to both their content and order
+     */
+    public static String sha256(final List<File> files) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (final File file : files) {
+            sb.append(file.getName()).append('=').append(cachedSha256(file)).append('\n');
+        }
+        return sha256(sb.toString());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class Layer {
+
+    /**
+     * The layer that gets every entry no rule matches
+     */
+    public static final String DEFAULT = "default";
+
+    /**
+     * Name of the layer, used as the name of its tar.gz.  Several rules
+     * may share a name.
+     */
+    private String name;
+
+    /**
+     * Java regex matched against the entry path inside the zip (forward slashes).
+     * Directories end with a slash.  Examples:
+     *  - [^/]+/lib/(openejb|tomee)-.*\.jar   (TomEE's own jars)
+     *  - [^/]+/lib/.*                        (third-party jars)
+     *  - [^/]+/webapps/.*                    (webapps)
+     */
+    private String pattern;
+
+    public String getName() { return name; }
+    public void setName(final String name) { this.name = name; }
+
+    public String getPattern() { return pattern; }
+    public void setPattern(final String pattern) { this.pattern = pattern; }
+
+
+    public static class Rule {
+        final String name;
+        final Pattern pattern;
+        Rule(String n, Pattern p) { this.name = n; this.pattern = p; }
+    }
+
+    public static List<Rule> compileRules(final List<Layer> layers) {
+        final List<Rule> list = new ArrayList<>();
+        if (layers != null) {
+            for (final Layer l : layers) {
+                if (l == null || l.getName() == null || l.getPattern() == null) continue;
+                list.add(new Rule(l.getName().trim(), Pattern.compile(l.getPattern())));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * The layer names in the order of their first rule, then the default layer
+     */
+    public static List<String> names(final List<Rule> rules) {
+        final Set<String> names = new LinkedHashSet<>();
+        for (final Rule rule : rules) {
+            names.add(rule.name);
+        }
+        names.add(DEFAULT);
+        return new ArrayList<>(names);
+    }
+
+    /** the first matching rule wins, {@link #DEFAULT} if none matches */
+    public static String layerFor(final String path, final List<Rule> rules) {
+        for (final Rule rule : rules) {
+            if (rule.pattern.matcher(path).matches()) return rule.name;
+        }
+        return DEFAULT;
+    }
+}
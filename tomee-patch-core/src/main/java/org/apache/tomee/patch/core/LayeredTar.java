@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.Hex;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Splits a zip into one tar.gz per {@link Layer}, for container images
+ * whose layers should only change when their content does.
+ *
+ * The tars are reproducible: entries are sorted by path, dated
+ * 1970-01-01T00:00:01Z and owned by root, and every layer carries the
+ * directories above its files.  The digest of the tar.gz and of the
+ * uncompressed tar, the OCI digest and diff_id, are computed while the
+ * layer is written.  Both are listed, with the size, in layers.txt.
+ */
+public class LayeredTar {
+
+    /**
+     * One second after the epoch, as container image builders do, as some
+     * tools take zero for no time at all
+     */
+    static final long TIME = 1000L;
+
+    private LayeredTar() {
+    }
+
+    /**
+     * Writes the layers of the zip to a directory next to it named after
+     * the zip with a -layers suffix
+     */
+    public static List<Output> toLayers(final File zip, final List<Layer> layers, final List<FileMode> fileModes, final Log log) throws IOException {
+        final String name = zip.getName().replaceAll("\\.(zip|jar)$", "");
+        return toLayers(zip, layers, fileModes, new File(zip.getParentFile(), name + "-layers"), log);
+    }
+
+    public static List<Output> toLayers(final File zip, final List<Layer> layers, final List<FileMode> fileModes,
+                                        final File directory, final Log log) throws IOException {
+        final List<Layer.Rule> rules = Layer.compileRules(layers);
+        final List<FileMode.ModeOverride> modeOverrides = FileMode.compileModeOverrides(fileModes);
+
+        final Map<String, TreeMap<String, ZipEntry>> contents = new LinkedHashMap<>();
+        for (final String layer : Layer.names(rules)) {
+            contents.put(layer, new TreeMap<>());
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final TreeMap<String, ZipEntry> layer = contents.get(Layer.layerFor(entry.getName(), rules));
+                if (layer.putIfAbsent(entry.getName(), entry) != null) continue;
+
+                // The directories above, with a null entry where the zip has none
+                for (int i = entry.getName().lastIndexOf('/', entry.getName().length() - 2); i > 0; i = entry.getName().lastIndexOf('/', i - 1)) {
+                    layer.putIfAbsent(entry.getName().substring(0, i + 1), null);
+                }
+            }
+
+            Files.mkdirs(directory);
+
+            final List<Output> outputs;
+            try {
+                outputs = contents.entrySet().parallelStream()
+                        .map(layer -> {
+                            try {
+                                return write(zipFile, layer.getKey(), layer.getValue(), modeOverrides, new File(directory, layer.getKey() + ".tar.gz"));
+                            } catch (final IOException e) {
+                                throw new UncheckedIOException(layer.getKey() + ": " + e.getMessage(), e);
+                            }
+                        })
+                        .collect(Collectors.toList());
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            try (PrintStream index = new PrintStream(IO.write(new File(directory, "layers.txt")), false, "UTF-8")) {
+                for (final Output output : outputs) {
+                    log.info("Layer %s: %s entries, %s bytes, %s", output.name, output.entries, output.size, output.digest);
+                    index.printf("%s %s %s %s\n", output.digest, output.diffId, output.size, output.file.getName());
+                }
+            }
+            return outputs;
+        }
+    }
+
+    private static Output write(final ZipFile zip, final String name, final TreeMap<String, ZipEntry> entries,
+                                final List<FileMode.ModeOverride> modeOverrides, final File file) throws IOException {
+        final MessageDigest compressed = Hashes.sha256();
+        final MessageDigest uncompressed = Hashes.sha256();
+
+        try (OutputStream out = IO.write(file);
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(new DigestOutputStream(
+                     new GZIPOutputStream(new DigestOutputStream(out, compressed), 64 * 1024), uncompressed),
+                     StandardCharsets.UTF_8.name())) {
+
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            for (final Map.Entry<String, ZipEntry> item : entries.entrySet()) {
+                final String path = item.getKey();
+                final boolean directory = path.endsWith("/");
+
+                final TarArchiveEntry tarEntry = new TarArchiveEntry(path);
+                tarEntry.setModTime(TIME);
+                tarEntry.setIds(0, 0);
+                tarEntry.setNames("", "");
+
+                final Integer override = FileMode.overrideModeFor(path, directory, modeOverrides);
+                if (override != null) {
+                    tarEntry.setMode(override);
+                } else if (directory) {
+                    tarEntry.setMode(UnixStat.DIR_FLAG | 0755);
+                } else if (path.endsWith(".sh")) {
+                    tarEntry.setMode(UnixStat.FILE_FLAG | 0755);
+                } else {
+                    tarEntry.setMode(UnixStat.FILE_FLAG | 0644);
+                }
+
+                if (directory) {
+                    tar.putArchiveEntry(tarEntry);
+                } else {
+                    // Sizes come from the central directory, nothing is buffered
+                    tarEntry.setSize(item.getValue().getSize());
+                    tar.putArchiveEntry(tarEntry);
+                    try (InputStream in = zip.getInputStream(item.getValue())) {
+                        IO.copy(in, tar);
+                    }
+                }
+                tar.closeArchiveEntry();
+            }
+            tar.finish();
+        }
+
+        return new Output(name, file, "sha256:" + Hex.toString(compressed.digest()),
+                "sha256:" + Hex.toString(uncompressed.digest()), entries.size());
+    }
+
+    public static class Output {
+        private final String name;
+        private final File file;
+        private final String digest;
+        private final String diffId;
+        private final long size;
+        private final int entries;
+
+        private Output(final String name, final File file, final String digest, final String diffId, final int entries) {
+            this.name = name;
+            this.file = file;
+            this.digest = digest;
+            this.diffId = diffId;
+            this.size = file.length();
+            this.entries = entries;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * The SHA-256 of the tar.gz, as an OCI layer digest
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * The SHA-256 of the uncompressed tar, as an OCI diff_id
+         */
+        public String getDiffId() {
+            return diffId;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+    }
+}
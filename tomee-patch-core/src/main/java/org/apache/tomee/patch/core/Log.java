@@ -1,5 +1,12 @@
 package org.apache.tomee.patch.core;
 
+import java.util.function.Supplier;
+
+/**
+ * The Supplier and format variants only build the message when the
+ * level is enabled.  Hot paths should still guard with isDebugEnabled()
+ * and friends, which avoids even the lambda or varargs array.
+ */
 public interface Log {
     boolean isDebugEnabled();
 
@@ -9,6 +16,14 @@ public interface Log {
 
     void debug(Throwable var1);
 
+    default void debug(final Supplier<? extends CharSequence> message) {
+        if (isDebugEnabled()) debug(message.get());
+    }
+
+    default void debug(final String format, final Object... args) {
+        if (isDebugEnabled()) debug(String.format(format, args));
+    }
+
     boolean isInfoEnabled();
 
     void info(CharSequence var1);
@@ -17,6 +32,14 @@ public interface Log {
 
     void info(Throwable var1);
 
+    default void info(final Supplier<? extends CharSequence> message) {
+        if (isInfoEnabled()) info(message.get());
+    }
+
+    default void info(final String format, final Object... args) {
+        if (isInfoEnabled()) info(String.format(format, args));
+    }
+
     boolean isWarnEnabled();
 
     void warn(CharSequence var1);
@@ -25,6 +48,14 @@ public interface Log {
 
     void warn(Throwable var1);
 
+    default void warn(final Supplier<? extends CharSequence> message) {
+        if (isWarnEnabled()) warn(message.get());
+    }
+
+    default void warn(final String format, final Object... args) {
+        if (isWarnEnabled()) warn(String.format(format, args));
+    }
+
     boolean isErrorEnabled();
 
     void error(CharSequence var1);
@@ -32,4 +63,12 @@ public interface Log {
     void error(CharSequence var1, Throwable var2);
 
     void error(Throwable var1);
+
+    default void error(final Supplier<? extends CharSequence> message) {
+        if (isErrorEnabled()) error(message.get());
+    }
+
+    default void error(final String format, final Object... args) {
+        if (isErrorEnabled()) error(String.format(format, args));
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least recently used cache bounded by the total weight of its values,
+ * such as their size in bytes.  Values heavier than the bound are not kept.
+ */
+class Lru<K, V> {
+
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private long weight;
+
+    Lru(final long maxWeight, final ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    synchronized V get(final K key) {
+        return map.get(key);
+    }
+
+    synchronized void put(final K key, final V value) {
+        final long added = weigher.applyAsLong(value);
+        if (added > maxWeight) return;
+
+        final V old = map.put(key, value);
+        if (old != null) weight -= weigher.applyAsLong(old);
+        weight += added;
+
+        final Iterator<Map.Entry<K, V>> eldest = map.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+}
@@ -24,30 +24,48 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.TypePath;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MethodTransformer extends MethodVisitor {
 
+    private final ConstantRewriters rewriters;
+    private final AtomicInteger rewrites;
+
     public MethodTransformer(final int api, final MethodVisitor methodVisitor) {
+        this(api, methodVisitor, new ConstantRewriters());
+    }
+
+    public MethodTransformer(final int api, final MethodVisitor methodVisitor, final ConstantRewriters rewriters) {
+        this(api, methodVisitor, rewriters, new AtomicInteger());
+    }
+
+    /**
+     * @param rewrites counts the constants a rule changed
+     */
+    public MethodTransformer(final int api, final MethodVisitor methodVisitor, final ConstantRewriters rewriters, final AtomicInteger rewrites) {
         super(api, methodVisitor);
+        this.rewriters = rewriters;
+        this.rewrites = rewrites;
     }
 
     @Override
     public AnnotationVisitor visitAnnotationDefault() {
-        return new AnnotationTransformer(this.api, super.visitAnnotationDefault());
+        return new AnnotationTransformer(this.api, super.visitAnnotationDefault(), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitAnnotation(descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitAnnotation(descriptor, visible), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitTypeAnnotation(typeRef, typePath, descriptor, visible), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitParameterAnnotation(final int parameter, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitParameterAnnotation(parameter, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitParameterAnnotation(parameter, descriptor, visible), rewriters, rewrites);
     }
 
     @Override
@@ -85,16 +103,7 @@ public class MethodTransformer extends MethodVisitor {
         } else if (cst instanceof Double) {
             // ...
         } else if (cst instanceof String) {
-            cst = new Replace((String) cst)
-                    .replace("javax.faces", "jakarta.faces")
-                    .replace("javax_faces", "jakarta_faces")
-                    .replace("javax.persistence.", "jakarta.persistence.")
-                    .replace("javax.transaction.TransactionManager", "jakarta.transaction.TransactionManager")
-                    .replace("javax.transaction.global.timeout", "jakarta.transaction.global.timeout")
-                    .replace("org.apache.webbeans.proxy.mapping.javax.enterprise", "org.apache.webbeans.proxy.mapping.jakarta.enterprise")
-                    .replace("javax.xml.ws.", "jakarta.xml.ws.")
-                    .replace("Ljavax/persistence", "Ljakarta/persistence")
-                    .get();
+            cst = ConstantRewriters.rewrite(rewriters.getLdc(), (String) cst, rewrites);
 
         } else if (cst instanceof Type) {
             // ...
@@ -110,18 +119,18 @@ public class MethodTransformer extends MethodVisitor {
 
     @Override
     public AnnotationVisitor visitInsnAnnotation(final int typeRef, final TypePath typePath, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitInsnAnnotation(typeRef, typePath, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitInsnAnnotation(typeRef, typePath, descriptor, visible), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitTryCatchAnnotation(final int typeRef, final TypePath typePath, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible), rewriters, rewrites);
     }
 
     @Override
     public AnnotationVisitor visitLocalVariableAnnotation(final int typeRef, final TypePath typePath, final Label[] start, final Label[] end,
                                                           final int[] index, final String descriptor, final boolean visible) {
-        return new AnnotationTransformer(this.api, super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible));
+        return new AnnotationTransformer(this.api, super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible), rewriters, rewrites);
     }
 
 
@@ -18,35 +18,45 @@ package org.apache.tomee.patch.core;
 
 import org.objectweb.asm.ModuleVisitor;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class ModuleTransformer extends ModuleVisitor {
 
+    private final ConstantRewriters rewriters;
+    private final AtomicInteger rewrites;
+
     public ModuleTransformer(final int api, final ModuleVisitor moduleVisitor) {
+        this(api, moduleVisitor, new ConstantRewriters());
+    }
+
+    public ModuleTransformer(final int api, final ModuleVisitor moduleVisitor, final ConstantRewriters rewriters) {
+        this(api, moduleVisitor, rewriters, new AtomicInteger());
+    }
+
+    /**
+     * @param rewrites counts the constants a rule changed
+     */
+    public ModuleTransformer(final int api, final ModuleVisitor moduleVisitor, final ConstantRewriters rewriters, final AtomicInteger rewrites) {
         super(api, moduleVisitor);
+        this.rewriters = rewriters;
+        this.rewrites = rewrites;
     }
 
     @Override
     public void visitExport(String packaze, final int access, final String... modules) {
-        packaze = new Replace(packaze)
-                .replace("javax/xml/bind", "jakarta/xml/bind")
-                .get();
+        packaze = ConstantRewriters.rewrite(rewriters.getExport(), packaze, rewrites);
         super.visitExport(packaze, access, modules);
     }
 
     @Override
     public void visitProvide(String service, final String... providers) {
-        service = new Replace(service)
-                .replace("javax/xml/bind", "jakarta/xml/bind")
-                .replace("javax/xml/soap", "jakarta/xml/soap")
-                .get();
+        service = ConstantRewriters.rewrite(rewriters.getService(), service, rewrites);
         super.visitProvide(service, providers);
     }
 
     @Override
     public void visitUse(String service) {
-        service = new Replace(service)
-                .replace("javax/xml/bind", "jakarta/xml/bind")
-                .replace("javax/xml/soap", "jakarta/xml/soap")
-                .get();
+        service = ConstantRewriters.rewrite(rewriters.getService(), service, rewrites);
         super.visitUse(service);
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.objectweb.asm.commons.Remapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves the Java EE packages that became Jakarta EE 9 from javax to
+ * jakarta, the same table the Eclipse Transformer applies.  Used with
+ * ASM's ClassRemapper it renames every type descriptor, signature, module
+ * descriptor and constant pool class reference of a class, which lets
+ * the patch run directly on a javax distribution.
+ *
+ * Packages outside the table, such as javax.naming or javax.sql, and the
+ * sub packages in the exception list stay in javax.
+ */
+public class PackageRemapper extends Remapper {
+
+    private static final List<String> RENAMES = Arrays.asList(
+            "javax/activation",
+            "javax/annotation",
+            "javax/batch",
+            "javax/decorator",
+            "javax/ejb",
+            "javax/el",
+            "javax/enterprise",
+            "javax/faces",
+            "javax/inject",
+            "javax/interceptor",
+            "javax/jms",
+            "javax/json",
+            "javax/jws",
+            "javax/mail",
+            "javax/persistence",
+            "javax/resource",
+            "javax/security/auth/message",
+            "javax/security/enterprise",
+            "javax/security/jacc",
+            "javax/servlet",
+            "javax/transaction",
+            "javax/validation",
+            "javax/websocket",
+            "javax/ws/rs",
+            "javax/xml/bind",
+            "javax/xml/soap",
+            "javax/xml/ws"
+    );
+
+    private static final List<String> EXCEPTIONS = Arrays.asList(
+            "javax/annotation/processing",
+            "javax/enterprise/deploy",
+            "javax/transaction/xa"
+    );
+
+    /**
+     * The text every renamed package contains, as it appears in the
+     * constant pool
+     */
+    private static final byte[] NEEDLE = RENAMES.stream()
+            .reduce(StringRewriter::common)
+            .orElse("")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final String VERSIONS = "META-INF/versions/";
+    private static final String CLASSES = "WEB-INF/classes/";
+    private static final String SERVICES = "META-INF/services/";
+
+    /**
+     * Whether the class could refer to a renamed package.  When false the
+     * remapper would leave it as it is.
+     */
+    public boolean mayRemap(final byte[] classFile) {
+        return ConstantRewriters.contains(classFile, NEEDLE);
+    }
+
+    @Override
+    public String map(final String internalName) {
+        if (!internalName.startsWith("javax/")) return internalName;
+
+        final int slash = internalName.lastIndexOf('/');
+        final String packaze = internalName.substring(0, slash);
+        final String mapped = mapPackageName(packaze);
+        return mapped == packaze ? internalName : mapped + internalName.substring(slash);
+    }
+
+    @Override
+    public String mapPackageName(final String name) {
+        if (!name.startsWith("javax/")) return name;
+
+        for (final String exception : EXCEPTIONS) {
+            if (isPackageOrSubPackage(name, exception)) return name;
+        }
+
+        for (final String rename : RENAMES) {
+            if (isPackageOrSubPackage(name, rename)) {
+                Events.ruleHit();
+                return "jakarta" + name.substring("javax".length());
+            }
+        }
+
+        return name;
+    }
+
+    /**
+     * Renames class files, package directories and META-INF/services
+     * files of archive entries.  Class files may be under
+     * WEB-INF/classes or a META-INF/versions directory.
+     */
+    public String mapPath(final String path) {
+        if (path.startsWith(SERVICES)) {
+            final String service = path.substring(SERVICES.length());
+            final String mapped = map(service.replace('.', '/'));
+            return mapped.equals(service.replace('.', '/')) ? path : SERVICES + mapped.replace('/', '.');
+        }
+
+        final int start = start(path);
+        final String name = path.substring(start);
+        if (!name.startsWith("javax/")) return path;
+
+        final String mapped;
+        if (name.endsWith(".class")) {
+            mapped = map(name.substring(0, name.length() - ".class".length())) + ".class";
+        } else if (name.endsWith("/")) {
+            mapped = mapPackageName(name.substring(0, name.length() - 1)) + "/";
+        } else {
+            mapped = map(name);
+        }
+
+        return mapped.equals(name) ? path : path.substring(0, start) + mapped;
+    }
+
+    private static int start(final String path) {
+        if (path.startsWith(CLASSES)) return CLASSES.length();
+
+        if (path.startsWith(VERSIONS)) {
+            final int slash = path.indexOf('/', VERSIONS.length());
+            if (slash > 0) return slash + 1;
+        }
+
+        return 0;
+    }
+
+    private static boolean isPackageOrSubPackage(final String name, final String packaze) {
+        return name.startsWith(packaze) && (name.length() == packaze.length() || name.charAt(packaze.length()) == '/');
+    }
+}
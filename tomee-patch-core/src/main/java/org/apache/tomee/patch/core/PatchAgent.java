@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rewrites classes as they are loaded instead of at build time, so a
+ * server can run on untransformed libraries during development.
+ *
+ * <pre>
+ * java -javaagent:tomee-patch-core-cli.jar=patches=target/classes,cache=/tmp/patch-cache ...
+ * </pre>
+ *
+ * Options are comma separated:
+ *
+ * <ul>
+ * <li>patches - directories of patch classes, separated by the path
+ * separator.  A patch class is defined instead of the class of the same
+ * name, wherever that one comes from.</li>
+ * <li>cache - where rewritten classes are kept, keyed by the SHA-256 of
+ * the original class file.  Defaults to ~/.tomee-patch/agent</li>
+ * <li>verbose - log every class that is patched or rewritten</li>
+ * </ul>
+ *
+ * Only string constants are rewritten.  Packages are not remapped, as a
+ * class loaded under a javax name cannot be defined under a jakarta one.
+ * Classes of the JDK, of this agent and of ASM are left alone.  Each
+ * version of the agent and of its rules gets its own directory in the
+ * cache, so an upgrade never reads classes rewritten by older rules.
+ */
+public class PatchAgent implements ClassFileTransformer {
+
+    /**
+     * The agent itself and what it uses while rewriting
+     */
+    private static final List<String> EXCLUDED = Collections.unmodifiableList(Arrays.asList(
+            "org/apache/tomee/patch/",
+            "org/objectweb/asm/",
+            "org/tomitribe/"
+    ));
+
+    private final Map<String, File> patches;
+    private final File cache;
+    private final ConstantRewriters rewriters;
+    private final Log log;
+    private final AtomicInteger patched = new AtomicInteger();
+    private final AtomicInteger rewritten = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+
+    /**
+     * @param patches directories of patch classes
+     * @param cache where rewritten classes are kept, null for none
+     */
+    public PatchAgent(final List<File> patches, final File cache, final ConstantRewriters rewriters, final Log log) throws IOException {
+        this.patches = new HashMap<>();
+        for (final Clazz clazz : Batch.classes(patches)) {
+            this.patches.put(clazz.getName(), clazz.getFile());
+        }
+        this.cache = cache == null ? null : new File(cache, version(rewriters));
+        this.rewriters = rewriters;
+        this.log = log;
+
+        if (this.cache != null) Files.createDirectories(this.cache.toPath());
+    }
+
+    /**
+     * The agent version, from the manifest of the cli jar, and the rules
+     */
+    static String version(final ConstantRewriters rewriters) {
+        final String version = PatchAgent.class.getPackage().getImplementationVersion();
+        final String fingerprint = version + "\n" + rewriters.fingerprint();
+        return Hashes.sha256(fingerprint.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+
+    public static void premain(final String args, final Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    public static void agentmain(final String args, final Instrumentation instrumentation) throws IOException {
+        install(args, instrumentation);
+    }
+
+    private static void install(final String args, final Instrumentation instrumentation) throws IOException {
+        final Map<String, String> options = options(args);
+
+        final List<File> patches = new ArrayList<>();
+        final String paths = options.remove("patches");
+        if (paths != null) {
+            for (final String path : paths.split(File.pathSeparator)) {
+                if (!path.isEmpty()) patches.add(new File(path));
+            }
+        }
+
+        final String cache = options.remove("cache");
+        final boolean verbose = Boolean.parseBoolean(options.remove("verbose"));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown agent options " + options.keySet());
+        }
+
+        final Log log = new ConsoleLog(verbose);
+        final PatchAgent agent = new PatchAgent(patches,
+                cache != null ? new File(cache) : new File(System.getProperty("user.home"), ".tomee-patch/agent"),
+                new ConstantRewriters(), log);
+
+        instrumentation.addTransformer(agent);
+        log.info("Patch agent installed with %s patch classes", agent.patches.size());
+    }
+
+    static Map<String, String> options(final String args) {
+        if (args == null || args.trim().isEmpty()) return new HashMap<>();
+
+        final Map<String, String> options = new HashMap<>();
+        for (final String option : args.split(",")) {
+            final int eq = option.indexOf('=');
+            if (eq < 0) {
+                options.put(option.trim(), "true");
+            } else {
+                options.put(option.substring(0, eq).trim(), option.substring(eq + 1).trim());
+            }
+        }
+        return options;
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        if (className == null || isExcluded(loader, className)) return null;
+
+        try {
+            final File patch = patches.get(className + ".class");
+            if (patch != null) {
+                patched.incrementAndGet();
+                log.debug("Patching %s", className);
+                return Files.readAllBytes(patch.toPath());
+            }
+
+            if (!rewriters.mayRewrite(classfileBuffer)) return null;
+
+            return rewrite(className, classfileBuffer);
+        } catch (final Throwable t) {
+            // The JVM would silently ignore it and load the original class
+            log.error("Could not transform " + className, t);
+            return null;
+        }
+    }
+
+    private byte[] rewrite(final String className, final byte[] original) throws IOException {
+        final File cached = cache == null ? null : new File(cache, Hashes.sha256(original) + ".class");
+
+        // An empty entry records that the class needs no change
+        if (cached != null && cached.isFile()) {
+            cacheHits.incrementAndGet();
+            return cached.length() == 0 ? null : Files.readAllBytes(cached.toPath());
+        }
+
+        // ASM orders the constant pool unlike javac, so comparing the bytes
+        // would find most classes changed
+        final ClassWriter classWriter = new ClassWriter(0);
+        final ClassTransformer transformer = new ClassTransformer(classWriter, rewriters);
+        new ClassReader(original).accept(transformer, 0);
+        final boolean changed = transformer.getRewrites() > 0;
+        final byte[] bytes = changed ? classWriter.toByteArray() : null;
+
+        if (changed) {
+            rewritten.incrementAndGet();
+            log.debug("Rewrote %s", className);
+        }
+
+        if (cached != null) {
+            // Written aside first so a concurrent load never reads half a class
+            final File tmp = File.createTempFile(cached.getName(), ".tmp", cache);
+            Files.write(tmp.toPath(), changed ? bytes : new byte[0]);
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return bytes;
+    }
+
+    private static boolean isExcluded(final ClassLoader loader, final String className) {
+        if (loader == null || loader == ClassLoader.getSystemClassLoader().getParent()) return true;
+
+        for (final String prefix : EXCLUDED) {
+            if (className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    public int getPatched() {
+        return patched.get();
+    }
+
+    public int getRewritten() {
+        return rewritten.get();
+    }
+
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+}
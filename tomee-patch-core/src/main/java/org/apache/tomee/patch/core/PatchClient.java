@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Sends an archive to a {@link PatchDaemon} on this machine.
+ *
+ * Callers check {@link #isAvailable()} first and transform the archive
+ * themselves when no daemon is listening.  Jobs carry the token the
+ * daemon wrote to {@link PatchDaemon#tokenFile(int)}, so only the user
+ * running the daemon can use it.
+ */
+public class PatchClient {
+
+    public static final int DEFAULT_PORT = 7787;
+
+    private final int port;
+    private final int connectTimeout;
+
+    public PatchClient() {
+        this(DEFAULT_PORT);
+    }
+
+    public PatchClient(final int port) {
+        this(port, 250);
+    }
+
+    public PatchClient(final int port, final int connectTimeout) {
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * True when a daemon listens on the port and this user can read its token
+     */
+    public boolean isAvailable() {
+        if (!PatchDaemon.tokenFile(port).canRead()) return false;
+        try (Socket socket = connect()) {
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Transforms the archive in the daemon and writes the result to output,
+     * which may be the archive itself.  Log lines of the daemon are passed
+     * on to the given log.
+     *
+     * @return the names of the patch classes applied to the archive
+     */
+    public List<String> transform(final PatchConfig config, final List<File> patches, final File archive,
+                                  final File output, final Log log) throws IOException {
+        final Properties job = new Properties();
+        config.toProperties().forEach((key, value) -> job.put("config." + key, value));
+        for (int i = 0; i < patches.size(); i++) {
+            job.setProperty("patches." + i, patches.get(i).getAbsolutePath());
+        }
+        job.setProperty("archive", archive.getAbsolutePath());
+        job.setProperty("output", output.getAbsolutePath());
+        job.setProperty("debug", String.valueOf(log.isDebugEnabled()));
+        job.setProperty("token", new String(Files.readAllBytes(PatchDaemon.tokenFile(port).toPath()), StandardCharsets.UTF_8));
+
+        try (Socket socket = connect()) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Frames.writeJob(out, job);
+
+            final List<String> applied = new ArrayList<>();
+            while (true) {
+                final byte type = Frames.type(in);
+                final String text = Frames.text(in);
+                switch (type) {
+                    case Frames.DEBUG:
+                        log.debug(text);
+                        break;
+                    case Frames.INFO:
+                        log.info(text);
+                        break;
+                    case Frames.WARN:
+                        log.warn(text);
+                        break;
+                    case Frames.ERROR:
+                        log.error(text);
+                        break;
+                    case Frames.APPLIED:
+                        applied.add(text);
+                        break;
+                    case Frames.DONE:
+                        return applied;
+                    case Frames.FAILED:
+                        throw new IOException("Patch daemon failed to transform " + archive.getAbsolutePath() + ": " + text);
+                    default:
+                        throw new IOException("Unexpected frame " + (char) type);
+                }
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), connectTimeout);
+            return socket;
+        } catch (final IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+}
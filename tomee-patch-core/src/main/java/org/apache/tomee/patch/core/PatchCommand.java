@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.tomitribe.crest.api.Command;
+import org.tomitribe.crest.api.Default;
+import org.tomitribe.crest.api.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * The patch plugin without Maven.
+ *
+ * <pre>
+ * tomee-patch patch --config=patch.properties --patches=target/patch-classes \
+ *     --output=target/patched customers/
+ *
+ * tomee-patch daemon --port=7787
+ * </pre>
+ */
+public class PatchCommand {
+
+    @Command("patch")
+    public void patch(@Option("config") final File config,
+                      @Option("patches") final File[] patches,
+                      @Option("output") @Default("patched") final File output,
+                      @Option("threads") @Default("0") final int threads,
+                      @Option("verbose") final boolean verbose,
+                      @Option("watch") final boolean watch,
+                      @Option("exploded") final boolean exploded,
+                      @Option("directories") final boolean directories,
+                      final File... archives) throws IOException, InterruptedException {
+
+        if (watch && (exploded || directories)) {
+            throw new IllegalArgumentException("--watch updates archives and cannot be used with --exploded or --directories");
+        }
+
+        final Log log = new ConsoleLog(verbose);
+        final PatchConfig patchConfig = config == null ? PatchConfig.from(new Properties()) : PatchConfig.read(config);
+        final List<Clazz> classes = Batch.classes(patches == null ? new ArrayList<>() : Arrays.asList(patches));
+
+        final Transformation transformation = patchConfig.transformation(classes, log);
+        final long start = System.nanoTime();
+        final Batch batch = new Batch(transformation, threads, log);
+        batch.setExploded(exploded);
+        batch.setDirectories(directories);
+        final List<File> transformed = batch.transform(Arrays.asList(archives), output);
+        transformation.complete(batch.getApplied());
+
+        log.info("Transformed %s archives in %s ms", transformed.size(), (System.nanoTime() - start) / 1_000_000);
+
+        if (watch) watch(patchConfig, patches == null ? new ArrayList<>() : Arrays.asList(patches), transformed, log);
+    }
+
+    /**
+     * Puts patch classes and resources into the transformed archives
+     * each time they change, until the process is stopped
+     */
+    private static void watch(final PatchConfig config, final List<File> patches, final List<File> transformed,
+                              final Log log) throws IOException, InterruptedException {
+        final List<File> roots = new ArrayList<>(patches);
+        roots.add(config.getPatchResources());
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(roots)) {
+            log.info("Watching %s", roots);
+            while (true) {
+                final List<File> changed = watcher.await(300).stream()
+                        .map(Path::toFile)
+                        .collect(Collectors.toList());
+
+                final long start = System.nanoTime();
+                final ArchiveUpdate update = new ArchiveUpdate(log);
+                for (final File root : patches) {
+                    update.classes(root, under(root, changed));
+                }
+                update.resources(config.getPatchResources(), under(config.getPatchResources(), changed), config.getAdditions());
+
+                int updated = 0;
+                for (final File archive : transformed) {
+                    updated += update.apply(archive);
+                }
+                log.info("Updated %s entries in %s ms", updated, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+    }
+
+    private static List<File> under(final File root, final List<File> files) {
+        final Path path = root.getAbsoluteFile().toPath();
+        return files.stream()
+                .filter(file -> file.getAbsoluteFile().toPath().startsWith(path))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Keeps a warm JVM for the plugin's daemon setting and for {@link PatchClient}
+     */
+    @Command("daemon")
+    public void daemon(@Option("port") @Default("7787") final int port,
+                       @Option("cache") @Default("${user.home}/.tomee-patch/cache") final File cache,
+                       @Option("max-cached") @Default("100") final int maxCached,
+                       @Option("threads") @Default("0") final int threads,
+                       @Option("verbose") final boolean verbose) throws IOException, InterruptedException {
+
+        try (PatchDaemon daemon = new PatchDaemon(port, cache, maxCached, threads, new ConsoleLog(verbose))) {
+            daemon.start().await();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The settings of the Maven plugin's configuration section, read from a
+ * properties file for use outside of Maven.
+ *
+ * <pre>
+ * replace.jar.jakarta.faces-3.0.0.jar = org.glassfish:jakarta.faces:jar:3.0.0
+ * replace.resource.openejb-version.properties = build/openejb-version.properties
+ * skip.jar.bcprov-jdk15on-1.69.jar = org.bouncycastle:bcprov-jdk15on:jar:1.69
+ * add.resource.openejb-core-9.0.0.jar = org/apache/openejb/.*\\.properties
+ * fileMode.1.pattern = ^bin/.*\\.sh$
+ * fileMode.1.mode = 0755
+ * pathRename.1.from = resources/javax.faces
+ * pathRename.1.to = resources/jakarta.faces
+ * patchResources = src/patch/resources
+ * remapPackages = true
+ * skipTransform = false
+ * outputTimestamp = 2024-01-01T00:00:00Z
+ * </pre>
+ *
+ * File modes and path renames are applied in the order of their number.
+ */
+public class PatchConfig {
+
+    private final Replacements replacements = new Replacements();
+    private final Skips skips = new Skips();
+    private final Additions additions = new Additions();
+    private final List<FileMode> fileModes = new ArrayList<>();
+    private final List<PathRename> pathRenames = new ArrayList<>();
+    private File patchResources = new File("does not exist");
+    private boolean remapPackages;
+    private boolean skipTransform;
+    private Long outputTimestamp;
+
+    /**
+     * The settings of the Maven plugin, any of which may be null
+     */
+    public static PatchConfig of(final Replacements replacements, final Skips skips, final Additions additions,
+                                 final List<FileMode> fileModes, final List<PathRename> pathRenames,
+                                 final File patchResources, final boolean remapPackages, final boolean skipTransform) {
+        final PatchConfig config = new PatchConfig();
+        if (replacements != null) {
+            config.replacements.getJars().putAll(replacements.getJars());
+            config.replacements.getResources().putAll(replacements.getResources());
+        }
+        if (skips != null) config.skips.getJars().putAll(skips.getJars());
+        if (additions != null) config.additions.getResources().putAll(additions.getResources());
+        if (fileModes != null) config.fileModes.addAll(fileModes);
+        if (pathRenames != null) config.pathRenames.addAll(pathRenames);
+        if (patchResources != null) config.patchResources = patchResources;
+        config.remapPackages = remapPackages;
+        config.skipTransform = skipTransform;
+        return config;
+    }
+
+    public static PatchConfig read(final File file) throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream in = IO.read(file)) {
+            properties.load(in);
+        }
+        return from(properties);
+    }
+
+    public static PatchConfig from(final Properties properties) {
+        final PatchConfig config = new PatchConfig();
+        final Map<Integer, FileMode> fileModes = new TreeMap<>();
+        final Map<Integer, PathRename> pathRenames = new TreeMap<>();
+
+        for (final String key : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(key).trim();
+
+            if (key.startsWith("replace.jar.")) {
+                config.replacements.getJars().put(key.substring("replace.jar.".length()), value);
+
+            } else if (key.startsWith("replace.resource.")) {
+                config.replacements.getResources().put(key.substring("replace.resource.".length()), value);
+
+            } else if (key.startsWith("skip.jar.")) {
+                config.skips.getJars().put(key.substring("skip.jar.".length()), value);
+
+            } else if (key.startsWith("add.resource.")) {
+                config.additions.getResources().put(key.substring("add.resource.".length()), value);
+
+            } else if (key.startsWith("fileMode.")) {
+                final FileMode fileMode = fileModes.computeIfAbsent(index(key), i -> new FileMode());
+                if (key.endsWith(".pattern")) fileMode.setPattern(value);
+                else if (key.endsWith(".mode")) fileMode.setMode(value);
+                else throw new IllegalArgumentException("Unknown setting " + key);
+
+            } else if (key.startsWith("pathRename.")) {
+                final PathRename pathRename = pathRenames.computeIfAbsent(index(key), i -> new PathRename());
+                if (key.endsWith(".from")) pathRename.setFrom(value);
+                else if (key.endsWith(".to")) pathRename.setTo(value);
+                else throw new IllegalArgumentException("Unknown setting " + key);
+
+            } else if (key.equals("patchResources")) {
+                config.patchResources = new File(value);
+
+            } else if (key.equals("remapPackages")) {
+                config.remapPackages = Boolean.parseBoolean(value);
+
+            } else if (key.equals("skipTransform")) {
+                config.skipTransform = Boolean.parseBoolean(value);
+
+            } else if (key.equals("outputTimestamp")) {
+                config.outputTimestamp = outputTimestamp(value);
+
+            } else {
+                throw new IllegalArgumentException("Unknown setting " + key);
+            }
+        }
+
+        config.fileModes.addAll(fileModes.values());
+        config.pathRenames.addAll(pathRenames.values());
+        return config;
+    }
+
+    /**
+     * The reverse of {@link #from(Properties)}.  The patch resources
+     * directory and replacement resources are written as absolute paths,
+     * so a daemon started elsewhere finds them.
+     */
+    public Properties toProperties() {
+        final Properties properties = new Properties();
+        replacements.getJars().forEach((name, value) -> properties.setProperty("replace.jar." + name, value));
+        replacements.getResources().forEach((name, value) -> properties.setProperty("replace.resource." + name, new File(value).getAbsolutePath()));
+        skips.getJars().forEach((name, value) -> properties.setProperty("skip.jar." + name, value));
+        additions.getResources().forEach((name, value) -> properties.setProperty("add.resource." + name, value));
+
+        for (int i = 0; i < fileModes.size(); i++) {
+            final FileMode fileMode = fileModes.get(i);
+            if (fileMode.getPattern() != null) properties.setProperty("fileMode." + i + ".pattern", fileMode.getPattern());
+            if (fileMode.getMode() != null) properties.setProperty("fileMode." + i + ".mode", fileMode.getMode());
+        }
+
+        for (int i = 0; i < pathRenames.size(); i++) {
+            final PathRename pathRename = pathRenames.get(i);
+            if (pathRename.getFrom() != null) properties.setProperty("pathRename." + i + ".from", pathRename.getFrom());
+            if (pathRename.getTo() != null) properties.setProperty("pathRename." + i + ".to", pathRename.getTo());
+        }
+
+        properties.setProperty("patchResources", patchResources.getAbsolutePath());
+        properties.setProperty("remapPackages", String.valueOf(remapPackages));
+        properties.setProperty("skipTransform", String.valueOf(skipTransform));
+        if (outputTimestamp != null) properties.setProperty("outputTimestamp", Instant.ofEpochMilli(outputTimestamp).toString());
+        return properties;
+    }
+
+    /**
+     * A SHA-256 of the settings, equal for equal settings
+     */
+    public String fingerprint() {
+        final Properties properties = toProperties();
+        final StringBuilder sb = new StringBuilder();
+        new TreeMap<>(properties).forEach((key, value) -> sb.append(key).append('=').append(value).append('\n'));
+        return Hashes.sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses project.build.outputTimestamp as Maven does: seconds since the
+     * epoch or an ISO-8601 date with an offset.  Null for an empty or single
+     * character value, which Maven takes as reproducible builds turned off.
+     */
+    public static Long outputTimestamp(final String value) {
+        if (value == null || value.trim().length() < 2) return null;
+
+        final String timestamp = value.trim();
+        try {
+            if (timestamp.chars().allMatch(Character::isDigit)) return Long.parseLong(timestamp) * 1000;
+            return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+        } catch (final NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid outputTimestamp " + value
+                    + ", expected seconds since the epoch or an ISO-8601 date such as 2024-01-01T00:00:00Z", e);
+        }
+    }
+
+    private static int index(final String key) {
+        final String[] parts = key.split("\\.");
+        if (parts.length != 3) throw new IllegalArgumentException("Expected <name>.<number>.<field> " + key);
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Expected <name>.<number>.<field> " + key, e);
+        }
+    }
+
+    /**
+     * A Transformation for these settings that applies the given patches
+     */
+    public Transformation transformation(final List<Clazz> classes, final Log log) {
+        return transformationBuilder(classes, log).build();
+    }
+
+    /**
+     * These settings and patches, for a Transformation that also needs
+     * settings of its own such as a profiler
+     */
+    public Transformation.Builder transformationBuilder(final List<Clazz> classes, final Log log) {
+        return Transformation.builder()
+                .classes(classes)
+                .patchResources(patchResources)
+                .replacements(replacements)
+                .skips(skips)
+                .fileModes(fileModes)
+                .additions(additions)
+                .log(log)
+                .skipTransform(skipTransform)
+                .remapPackages(remapPackages)
+                .pathRenames(pathRenames)
+                .outputTimestamp(outputTimestamp);
+    }
+
+    public Replacements getReplacements() {
+        return replacements;
+    }
+
+    public Skips getSkips() {
+        return skips;
+    }
+
+    public Additions getAdditions() {
+        return additions;
+    }
+
+    public List<FileMode> getFileModes() {
+        return fileModes;
+    }
+
+    public List<PathRename> getPathRenames() {
+        return pathRenames;
+    }
+
+    public File getPatchResources() {
+        return patchResources;
+    }
+
+    public boolean isRemapPackages() {
+        return remapPackages;
+    }
+
+    public boolean isSkipTransform() {
+        return skipTransform;
+    }
+
+    /**
+     * Milliseconds since the epoch every archive entry is dated at, null
+     * unless the output is meant to be reproducible
+     */
+    public Long getOutputTimestamp() {
+        return outputTimestamp;
+    }
+
+    public void setOutputTimestamp(final Long outputTimestamp) {
+        this.outputTimestamp = outputTimestamp;
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.tomitribe.util.Hex;
+import org.tomitribe.util.Mvn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link Transformation} jobs sent by {@link PatchClient} in a JVM
+ * that stays up between builds, so the JIT-compiled ASM and rule code,
+ * the parsed settings and the string constant memo caches are warm.
+ *
+ * Transformed archives are kept in a cache directory keyed by the SHA-256
+ * of the archive, the settings and the patch classes.  Patching the same
+ * archive again copies the cached result.  The least recently used
+ * entries are removed past the maximum.
+ *
+ * The daemon only listens on the loopback address.  Jobs name files on
+ * this machine, which the daemon reads and writes as its own user, so a
+ * job is only run when it carries the token the daemon writes at start to
+ * a file only its user can read, see {@link #tokenFile(int)}.
+ */
+public class PatchDaemon implements Closeable {
+
+    private final int port;
+    private final File cache;
+    private final int maxCached;
+    private final Log log;
+    private final ExecutorService executor;
+    private final ConstantRewriters rewriters = new ConstantRewriters();
+    private final Map<String, PatchConfig> configs = new ConcurrentHashMap<>();
+    private final AtomicInteger jobs = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+    private ServerSocket server;
+    private Thread acceptor;
+    private File tokenFile;
+    private byte[] token;
+
+    /**
+     * @param port 0 for any free port, see {@link #getPort()}
+     * @param cache where transformed archives are kept, null for none
+     */
+    public PatchDaemon(final int port, final File cache, final int maxCached, final int threads, final Log log) {
+        this.port = port;
+        this.cache = cache;
+        this.maxCached = maxCached;
+        this.log = log;
+        this.executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), runnable -> {
+            final Thread thread = new Thread(runnable, "tomee-patch-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public PatchDaemon start() throws IOException {
+        if (cache != null) Files.createDirectories(cache.toPath());
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        token = Hex.toString(random).getBytes(StandardCharsets.UTF_8);
+        tokenFile = tokenFile(server.getLocalPort());
+        writePrivate(tokenFile, token);
+
+        acceptor = new Thread(this::accept, "tomee-patch-daemon-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        log.info("Patch daemon listening on %s:%s", server.getInetAddress().getHostAddress(), server.getLocalPort());
+        return this;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Where the daemon on the given port keeps the token jobs must carry,
+     * in the user's home directory
+     */
+    public static File tokenFile(final int port) {
+        return new File(System.getProperty("user.home"), ".tomee-patch/daemon-" + port + ".token");
+    }
+
+    private static void writePrivate(final File file, final byte[] content) throws IOException {
+        final Path path = file.toPath();
+        final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+        if (!file.getParentFile().isDirectory()) {
+            if (posix) {
+                Files.createDirectories(path.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(path.getParent());
+            }
+        }
+
+        // Created with its final permissions, so it is never readable by others
+        Files.deleteIfExists(path);
+        if (posix) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+        Files.write(path, content);
+    }
+
+    public int getJobs() {
+        return jobs.get();
+    }
+
+    public int getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * Blocks until the daemon is closed
+     */
+    public void await() throws InterruptedException {
+        synchronized (this) {
+            while (!server.isClosed()) wait();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        Files.deleteIfExists(tokenFile.toPath());
+
+        // The socket is only released once the blocked accept() returns
+        try {
+            acceptor.join(1000);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        executor.shutdownNow();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                try {
+                    executor.execute(() -> handle(socket));
+                } catch (final RejectedExecutionException e) {
+                    // closing
+                    socket.close();
+                }
+            } catch (final SocketException e) {
+                // closed
+            } catch (final IOException e) {
+                log.warn("Accept failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    private void handle(final Socket socket) {
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            final Properties job;
+            try {
+                job = Frames.readJob(in);
+            } catch (final EOFException e) {
+                // PatchClient.isAvailable() connects without sending a job
+                return;
+            }
+
+            final String given = job.getProperty("token");
+            if (given == null || !MessageDigest.isEqual(token, given.getBytes(StandardCharsets.UTF_8))) {
+                log.warn("Rejected a job without the token of %s", tokenFile.getAbsolutePath());
+                Frames.write(out, Frames.FAILED, "Unauthorized, the job does not carry the token of " + tokenFile.getAbsolutePath());
+                return;
+            }
+
+            try {
+                final List<String> applied = run(job, new RemoteLog(out, Boolean.parseBoolean(job.getProperty("debug"))));
+                for (final String name : applied) {
+                    Frames.write(out, Frames.APPLIED, name);
+                }
+                Frames.write(out, Frames.DONE, "");
+            } catch (final Exception e) {
+                log.error("Job failed", e);
+                Frames.write(out, Frames.FAILED, String.valueOf(e.getMessage()));
+            }
+        } catch (final IOException e) {
+            log.warn("Connection failed: %s", e.getMessage());
+        }
+    }
+
+    private List<String> run(final Properties job, final Log remote) throws IOException {
+        final long start = System.nanoTime();
+        jobs.incrementAndGet();
+
+        final Properties settings = new Properties();
+        job.stringPropertyNames().stream()
+                .filter(key -> key.startsWith("config."))
+                .forEach(key -> settings.setProperty(key.substring("config.".length()), job.getProperty(key)));
+
+        final PatchConfig parsed = PatchConfig.from(settings);
+        final PatchConfig config = configs.computeIfAbsent(parsed.fingerprint(), fingerprint -> parsed);
+
+        final List<File> patches = job.stringPropertyNames().stream()
+                .filter(key -> key.startsWith("patches."))
+                .sorted(Comparator.comparingInt(key -> Integer.parseInt(key.substring("patches.".length()))))
+                .map(key -> new File(job.getProperty(key)))
+                .collect(Collectors.toList());
+        final List<Clazz> classes = Batch.classes(patches);
+
+        final File archive = new File(job.getProperty("archive"));
+        final File output = new File(job.getProperty("output"));
+
+        final String key = cache == null ? null : key(archive, config, classes);
+        if (key != null) {
+            final File cached = new File(cache, key + ".jar");
+            final File appliedFile = new File(cache, key + ".applied");
+            if (cached.isFile() && appliedFile.isFile()) {
+                hits.incrementAndGet();
+                copy(cached, output);
+                cached.setLastModified(System.currentTimeMillis());
+                remote.info("Reused cached transformation of %s", archive.getName());
+                return lines(appliedFile);
+            }
+        }
+
+        final Transformation transformation = config.transformationBuilder(classes, remote)
+                .rewriters(rewriters)
+                .build();
+        final AppliedPatches appliedPatches = new AppliedPatches();
+        final File transformed = transformation.transformArchive(archive, appliedPatches);
+
+        final List<String> applied = classes.stream()
+                .filter(appliedPatches::isApplied)
+                .map(Clazz::getName)
+                .collect(Collectors.toList());
+
+        if (key != null) store(key, transformed, applied);
+
+        Files.move(transformed.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        remote.info("Transformed %s in %s ms", archive.getName(), (System.nanoTime() - start) / 1_000_000);
+        return applied;
+    }
+
+    private static String key(final File archive, final PatchConfig config, final List<Clazz> classes) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(Hashes.sha256(archive)).append('\n');
+        sb.append(config.fingerprint()).append('\n');
+        for (final Clazz clazz : classes) {
+            stamp(sb, clazz.getName(), clazz.getFile());
+        }
+
+        // The settings only name these files, their content can change under the same name
+        for (final String replacement : new TreeMap<>(config.getReplacements().getResources()).values()) {
+            stamp(sb, replacement, new File(replacement));
+        }
+        for (final String coordinates : new TreeMap<>(config.getReplacements().getJars()).values()) {
+            stamp(sb, coordinates, Mvn.mvn(coordinates));
+        }
+        final File resources = config.getPatchResources();
+        if (resources != null && resources.isDirectory()) {
+            try (Stream<Path> paths = Files.walk(resources.toPath())) {
+                for (final Path path : paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                    stamp(sb, resources.toPath().relativize(path).toString(), path.toFile());
+                }
+            }
+        }
+        return Hashes.sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hashes the content, so patch classes recompiled to the same bytes, as
+     * after a clean build, still hit the cache.  The hashes are remembered
+     * by path, size and time, so untouched files are not read again.
+     */
+    private static void stamp(final StringBuilder sb, final String name, final File file) throws IOException {
+        sb.append(name).append(' ')
+                .append(file.isFile() ? Hashes.cachedSha256(file) : "missing").append('\n');
+    }
+
+    private void store(final String key, final File transformed, final List<String> applied) throws IOException {
+        final File jar = new File(cache, key + ".jar");
+        final File tmp = new File(cache, key + "." + Thread.currentThread().getId() + ".tmp");
+        copy(transformed, tmp);
+        Files.write(new File(cache, key + ".applied").toPath(), String.join("\n", applied).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        evict();
+    }
+
+    private synchronized void evict() {
+        final File[] jars = cache.listFiles(file -> file.getName().endsWith(".jar"));
+        if (jars == null || jars.length <= maxCached) return;
+
+        final List<File> oldest = new ArrayList<>(Arrays.asList(jars));
+        oldest.sort(Comparator.comparingLong(File::lastModified));
+        for (final File jar : oldest.subList(0, jars.length - maxCached)) {
+            final String name = jar.getName();
+            jar.delete();
+            new File(cache, name.substring(0, name.length() - ".jar".length()) + ".applied").delete();
+        }
+    }
+
+    private static List<String> lines(final File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static void copy(final File from, final File to) throws IOException {
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Sends the job's log lines back to the client
+     */
+    private static class RemoteLog implements Log {
+        private final DataOutputStream out;
+        private final boolean debug;
+
+        private RemoteLog(final DataOutputStream out, final boolean debug) {
+            this.out = out;
+            this.debug = debug;
+        }
+
+        private void send(final byte type, final CharSequence message, final Throwable throwable) {
+            final String text = message == null ? String.valueOf(throwable)
+                    : throwable == null ? message.toString()
+                    : message + ": " + throwable;
+            try {
+                Frames.write(out, type, text);
+            } catch (final IOException e) {
+                throw new IllegalStateException("Client disconnected", e);
+            }
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return debug;
+        }
+
+        @Override
+        public void debug(final CharSequence var1) {
+            if (debug) send(Frames.DEBUG, var1, null);
+        }
+
+        @Override
+        public void debug(final CharSequence var1, final Throwable var2) {
+            if (debug) send(Frames.DEBUG, var1, var2);
+        }
+
+        @Override
+        public void debug(final Throwable var1) {
+            if (debug) send(Frames.DEBUG, null, var1);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        @Override
+        public void info(final CharSequence var1) {
+            send(Frames.INFO, var1, null);
+        }
+
+        @Override
+        public void info(final CharSequence var1, final Throwable var2) {
+            send(Frames.INFO, var1, var2);
+        }
+
+        @Override
+        public void info(final Throwable var1) {
+            send(Frames.INFO, null, var1);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public void warn(final CharSequence var1) {
+            send(Frames.WARN, var1, null);
+        }
+
+        @Override
+        public void warn(final CharSequence var1, final Throwable var2) {
+            send(Frames.WARN, var1, var2);
+        }
+
+        @Override
+        public void warn(final Throwable var1) {
+            send(Frames.WARN, null, var1);
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        public void error(final CharSequence var1) {
+            send(Frames.ERROR, var1, null);
+        }
+
+        @Override
+        public void error(final CharSequence var1, final Throwable var2) {
+            send(Frames.ERROR, var1, var2);
+        }
+
+        @Override
+        public void error(final Throwable var1) {
+            send(Frames.ERROR, null, var1);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The entries of one archive as {@link Transformation#scanJar} would write
+ * them, without transforming any of them.  Entries are renamed, signature
+ * files and patched classes are left out and patch classes and additions
+ * are added, all from the central directory.  The content of an entry is
+ * only transformed when it is read.
+ */
+class PatchedArchive implements Closeable {
+
+    private final Transformation transformation;
+    private final AppliedPatches applied;
+    private final String name;
+    private final long time;
+    private final long size;
+    private final ZipFile zip;
+    private final Map<String, Entry> files = new HashMap<>();
+    private final Map<String, Set<String>> directories = new HashMap<>();
+    private final Map<String, Integer> directoryModes = new HashMap<>();
+
+    private PatchedArchive(final Transformation transformation, final AppliedPatches applied, final String name,
+                           final long time, final long size, final ZipFile zip) {
+        this.transformation = transformation;
+        this.applied = applied;
+        this.name = name;
+        this.time = time(time);
+        this.size = size;
+        this.zip = zip;
+        this.directories.put("", new TreeSet<>());
+        index();
+    }
+
+    /**
+     * @param applied counts the patches of the entries read
+     */
+    static PatchedArchive open(final Transformation transformation, final File file, final AppliedPatches applied) throws IOException {
+        return new PatchedArchive(transformation, applied, file.getName(), file.lastModified(), file.length(),
+                ZipFile.builder().setFile(file).get());
+    }
+
+    static PatchedArchive open(final Transformation transformation, final AppliedPatches applied, final String name,
+                               final long time, final byte[] bytes) throws IOException {
+        return new PatchedArchive(transformation, applied, name, time, bytes.length,
+                ZipFile.builder().setSeekableByteChannel(new SeekableInMemoryByteChannel(bytes)).get());
+    }
+
+    private void index() {
+        final Transformation.Jar old = Transformation.Jar.enter(name, applied);
+        try {
+            final Transformation.Jar jar = Transformation.Jar.current();
+
+            final Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+            while (entries.hasMoreElements()) {
+                final ZipArchiveEntry entry = entries.nextElement();
+                final String path = transformation.updatePath(entry.getName());
+
+                if (transformation.skip(path)) continue;
+                if (transformation.isPatched(path, jar)) continue;
+
+                if (entry.isDirectory()) {
+                    directory(strip(path));
+                    directoryModes.put(strip(path), entry.getUnixMode());
+                } else {
+                    add(new Entry(path, time(entry.getTime()), entry.getUnixMode(), entry, null, null));
+                }
+            }
+
+            for (final Clazz clazz : jar.getSkipped()) {
+                add(new Entry(clazz.getName(), time(clazz.getFile().lastModified()), 0, null, clazz.getFile(), clazz));
+            }
+
+            for (final Transformation.Resource resource : transformation.additions(name)) {
+                add(new Entry(resource.getPath(), time(resource.getFile().lastModified()), 0, null, resource.getFile(), null));
+            }
+        } finally {
+            Transformation.Jar.exit(old);
+        }
+    }
+
+    /**
+     * The given time, or the output timestamp of a reproducible Transformation
+     */
+    private long time(final long time) {
+        final Long timestamp = transformation.getOutputTimestamp();
+        return timestamp != null ? timestamp : time;
+    }
+
+    private void add(final Entry entry) {
+        files.put(entry.path, entry);
+        final int slash = entry.path.lastIndexOf('/');
+        directory(slash < 0 ? "" : entry.path.substring(0, slash)).add(entry.path.substring(slash + 1));
+    }
+
+    private Set<String> directory(final String path) {
+        final Set<String> existing = directories.get(path);
+        if (existing != null) return existing;
+
+        final Set<String> children = new TreeSet<>();
+        directories.put(path, children);
+
+        final int slash = path.lastIndexOf('/');
+        directory(slash < 0 ? "" : path.substring(0, slash)).add(path.substring(slash + 1));
+        return children;
+    }
+
+    private static String strip(final String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    Entry getFile(final String path) {
+        return files.get(path);
+    }
+
+    Collection<Entry> getFiles() {
+        return Collections.unmodifiableCollection(files.values());
+    }
+
+    /**
+     * Every directory, the root included as ""
+     */
+    Set<String> getDirectories() {
+        return Collections.unmodifiableSet(directories.keySet());
+    }
+
+    /**
+     * The mode of the directory entry, 0 for directories only implied by
+     * the paths of their files
+     */
+    int getDirectoryMode(final String path) {
+        return directoryModes.getOrDefault(path, 0);
+    }
+
+    boolean isDirectory(final String path) {
+        return directories.containsKey(path);
+    }
+
+    /**
+     * The names of the files and directories in the directory
+     */
+    Set<String> list(final String path) {
+        final Set<String> children = directories.get(path);
+        return children == null ? Collections.emptySet() : Collections.unmodifiableSet(children);
+    }
+
+    /**
+     * Whether the entries of this nested archive are transformed one by
+     * one when it is opened.  Excluded and replaced archives are not.
+     */
+    boolean isNested(final Entry entry) {
+        return entry.entry != null
+                && Transformation.isZip(entry.path)
+                && !transformation.isExcludedJar(entry.path)
+                && transformation.replacementJar(entry.path) == null;
+    }
+
+    PatchedArchive nested(final Entry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry.entry)) {
+            return open(transformation, applied, entry.path, entry.time, IO.readBytes(in));
+        }
+    }
+
+    /**
+     * The transformed content of the entry, as transformArchive would write it
+     */
+    byte[] read(final Entry entry) throws IOException {
+        if (entry.file != null) return Files.readAllBytes(entry.file.toPath());
+
+        final String path = entry.path;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(32, entry.entry.getSize()));
+        final Transformation.Jar old = Transformation.Jar.enter(name, applied);
+        try (InputStream in = zip.getInputStream(entry.entry)) {
+            if (path.endsWith(".class")) {
+                transformation.scanClass(in, out);
+            } else if (Transformation.isZip(path)) {
+                if (transformation.isExcludedJar(path)) {
+                    IO.copy(in, out);
+                } else {
+                    transformation.transform(path, in, out);
+                }
+            } else if (transformation.copyUnmodified(path)) {
+                IO.copy(in, out);
+            } else {
+                transformation.scanResource(path, in, out);
+            }
+        } finally {
+            Transformation.Jar.exit(old);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    static class Entry {
+        private final String path;
+        private final long time;
+        private final int mode;
+        private final ZipArchiveEntry entry;
+        private final File file;
+        private final Clazz clazz;
+
+        private Entry(final String path, final long time, final int mode, final ZipArchiveEntry entry, final File file, final Clazz clazz) {
+            this.path = path;
+            this.time = time;
+            this.mode = mode;
+            this.entry = entry;
+            this.file = file;
+            this.clazz = clazz;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        /**
+         * The unix mode in the archive, 0 if it has none
+         */
+        int getMode() {
+            return mode;
+        }
+
+        /**
+         * The patch this entry is, null if it is not one
+         */
+        Clazz getClazz() {
+            return clazz;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only view of an archive as {@link Transformation#transformArchive}
+ * would write it.  Nothing is transformed up front: an entry is transformed
+ * the first time it is read and the result kept in a cache bounded in bytes,
+ * so reading a few entries of a large distribution takes milliseconds.
+ *
+ * Nested archives are regular files, transformed as a whole when read, and
+ * their entries are reached with paths below them, one entry at a time.
+ */
+class PatchedFileSystem extends FileSystem {
+
+    private final PatchedFileSystemProvider provider;
+    private final Path archive;
+    private final PatchedArchive root;
+    private final Lru<String, byte[]> contents;
+    private final Lru<String, PatchedArchive> nested;
+    private final AtomicInteger transformed = new AtomicInteger();
+    private volatile boolean open = true;
+
+    PatchedFileSystem(final PatchedFileSystemProvider provider, final Path archive, final Transformation transformation,
+                      final long cacheSize) throws IOException {
+        this.provider = provider;
+        this.archive = archive;
+        this.root = PatchedArchive.open(transformation, archive.toFile(), new AppliedPatches());
+        this.contents = new Lru<>(cacheSize, bytes -> bytes.length);
+        this.nested = new Lru<>(cacheSize, PatchedArchive::getSize);
+    }
+
+    Path getArchive() {
+        return archive;
+    }
+
+    /**
+     * How many entries were transformed so far, cache misses included
+     */
+    int getTransformed() {
+        return transformed.get();
+    }
+
+    /**
+     * The archive and entry a path points to
+     */
+    Node resolve(final PatchedPath path) throws IOException {
+        ensureOpen();
+
+        final String entryPath = path.getEntryPath();
+        if (entryPath.isEmpty()) return new Node(root, "", null);
+
+        PatchedArchive archive = root;
+        String base = "";
+        final String[] names = entryPath.split("/");
+        for (int i = 0; i < names.length; i++) {
+            final String current = base.isEmpty() ? names[i] : base + "/" + names[i];
+            if (archive.isDirectory(current)) {
+                base = current;
+                continue;
+            }
+
+            final PatchedArchive.Entry entry = archive.getFile(current);
+            if (entry == null) throw new NoSuchFileException(path.toString());
+            if (i == names.length - 1) return new Node(archive, current, entry);
+            if (!archive.isNested(entry)) throw new NoSuchFileException(path.toString());
+
+            archive = nested(String.join("/", Arrays.asList(names).subList(0, i + 1)), archive, entry);
+            base = "";
+        }
+
+        return new Node(archive, base, null);
+    }
+
+    /**
+     * The names in a directory, or in a nested archive
+     */
+    Set<String> list(final PatchedPath path) throws IOException {
+        final Node node = resolve(path);
+        if (node.isDirectory()) return node.archive.list(node.path);
+        if (node.archive.isNested(node.entry)) return nested(path.getEntryPath(), node.archive, node.entry).list("");
+        throw new NotDirectoryException(path.toString());
+    }
+
+    private PatchedArchive nested(final String key, final PatchedArchive parent, final PatchedArchive.Entry entry) throws IOException {
+        PatchedArchive archive = nested.get(key);
+        if (archive == null) {
+            archive = parent.nested(entry);
+            nested.put(key, archive);
+        }
+        return archive;
+    }
+
+    /**
+     * The transformed content of the entry, from the cache if possible
+     */
+    byte[] read(final PatchedPath path) throws IOException {
+        ensureOpen();
+
+        final String key = path.getEntryPath();
+        final byte[] cached = contents.get(key);
+        if (cached != null) return cached;
+
+        final Node node = resolve(path);
+        if (node.isDirectory()) throw new FileSystemException(path.toString(), null, "Is a directory");
+
+        final byte[] bytes = node.archive.read(node.entry);
+        transformed.incrementAndGet();
+        contents.put(key, bytes);
+        return bytes;
+    }
+
+    private void ensureOpen() {
+        if (!open) throw new ClosedFileSystemException();
+    }
+
+    @Override
+    public PatchedFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        provider.remove(archive);
+        root.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.singletonList(new PatchedPath(this, "/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public PatchedPath getPath(final String first, final String... more) {
+        final StringBuilder path = new StringBuilder(first);
+        for (final String name : more) {
+            if (name.isEmpty()) continue;
+            if (path.length() > 0) path.append('/');
+            path.append(name);
+        }
+        return new PatchedPath(this, path.toString());
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(final String syntaxAndPattern) {
+        // Both separators are / outside of Windows
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+        return path -> matcher.matches(Paths.get(path.toString()));
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Patched archives do not change");
+    }
+
+    static class Node {
+        private final PatchedArchive archive;
+        private final String path;
+        private final PatchedArchive.Entry entry;
+
+        private Node(final PatchedArchive archive, final String path, final PatchedArchive.Entry entry) {
+            this.archive = archive;
+            this.path = path;
+            this.entry = entry;
+        }
+
+        PatchedArchive getArchive() {
+            return archive;
+        }
+
+        /**
+         * The path inside the innermost archive
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * Null for directories
+         */
+        PatchedArchive.Entry getEntry() {
+            return entry;
+        }
+
+        boolean isDirectory() {
+            return entry == null;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opens archives as read-only file systems holding what
+ * {@link Transformation#transformArchive} would write, transforming each
+ * entry the first time it is read.
+ *
+ * <pre>
+ * try (FileSystem patched = PatchedFileSystemProvider.open(archive, transformation)) {
+ *     byte[] bytes = Files.readAllBytes(patched.getPath("/WEB-INF/lib/foo.jar/org/foo/Bar.class"));
+ * }
+ * </pre>
+ *
+ * or with a URI such as tomee-patch:file:///tmp/tomee.zip and the
+ * transformation in the environment under "transformation".  The
+ * "cacheSize" entry bounds the transformed bytes kept, 64 MB by default.
+ */
+public class PatchedFileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "tomee-patch";
+
+    private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private final Map<Path, PatchedFileSystem> fileSystems = new HashMap<>();
+
+    /**
+     * Opens the archive as a patched view without registering it by URI,
+     * so any number of views of the same archive can be open
+     */
+    public static FileSystem open(final Path archive, final Transformation transformation) throws IOException {
+        return new PatchedFileSystemProvider().newFileSystem(archive, Collections.singletonMap("transformation", transformation));
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(final URI uri, final Map<String, ?> env) throws IOException {
+        final Path archive = archive(uri);
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archive)) throw new FileSystemAlreadyExistsException(uri.toString());
+
+            final PatchedFileSystem fileSystem = create(archive, env);
+            fileSystems.put(archive, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Only opens the path when the environment holds a Transformation.  The
+     * provider is installed for every caller of FileSystems.newFileSystem,
+     * which tries each provider in turn and expects the others to refuse.
+     */
+    @Override
+    public FileSystem newFileSystem(final Path path, final Map<String, ?> env) throws IOException {
+        if (env == null || !(env.get("transformation") instanceof Transformation)) {
+            throw new UnsupportedOperationException("No transformation in the environment");
+        }
+        return create(path.toAbsolutePath().normalize(), env);
+    }
+
+    private PatchedFileSystem create(final Path archive, final Map<String, ?> env) throws IOException {
+        final Object transformation = env.get("transformation");
+        final Object cacheSize = env.get("cacheSize");
+
+        return new PatchedFileSystem(this, archive,
+                transformation instanceof Transformation ? (Transformation) transformation : new Transformation(),
+                cacheSize == null ? DEFAULT_CACHE_SIZE : Long.parseLong(cacheSize.toString()));
+    }
+
+    void remove(final Path archive) {
+        synchronized (fileSystems) {
+            fileSystems.remove(archive);
+        }
+    }
+
+    @Override
+    public FileSystem getFileSystem(final URI uri) {
+        final Path archive = archive(uri);
+        synchronized (fileSystems) {
+            final PatchedFileSystem fileSystem = fileSystems.get(archive);
+            if (fileSystem == null) throw new FileSystemNotFoundException(uri.toString());
+            return fileSystem;
+        }
+    }
+
+    @Override
+    public Path getPath(final URI uri) {
+        final String spec = uri.getSchemeSpecificPart();
+        final int separator = spec.indexOf("!/");
+        return getFileSystem(uri).getPath(separator < 0 ? "/" : spec.substring(separator + 1));
+    }
+
+    private Path archive(final URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("Not a " + SCHEME + " URI: " + uri);
+        }
+
+        final String spec = uri.getRawSchemeSpecificPart();
+        final int separator = spec.indexOf("!/");
+        return Paths.get(URI.create(separator < 0 ? spec : spec.substring(0, separator))).toAbsolutePath().normalize();
+    }
+
+    private static PatchedPath patched(final Path path) {
+        if (!(path instanceof PatchedPath)) throw new ProviderMismatchException();
+        return (PatchedPath) path;
+    }
+
+    @Override
+    public InputStream newInputStream(final Path path, final OpenOption... options) throws IOException {
+        checkReadOnly(options);
+        final PatchedPath patched = patched(path);
+        return new ByteArrayInputStream(patched.getFileSystem().read(patched));
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(final Path path, final Set<? extends OpenOption> options,
+                                              final FileAttribute<?>... attrs) throws IOException {
+        checkReadOnly(options.toArray(new OpenOption[0]));
+        final PatchedPath patched = patched(path);
+        return new ReadOnlyChannel(ByteBuffer.wrap(patched.getFileSystem().read(patched)));
+    }
+
+    private static void checkReadOnly(final OpenOption... options) {
+        for (final OpenOption option : options) {
+            if (option == StandardOpenOption.WRITE
+                    || option == StandardOpenOption.APPEND
+                    || option == StandardOpenOption.CREATE
+                    || option == StandardOpenOption.CREATE_NEW
+                    || option == StandardOpenOption.DELETE_ON_CLOSE) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(final Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
+        final PatchedPath patched = patched(dir);
+
+        final List<Path> children = new ArrayList<>();
+        for (final String name : patched.getFileSystem().list(patched)) {
+            final Path child = patched.resolve(name);
+            if (filter.accept(child)) children.add(child);
+        }
+
+        return new DirectoryStream<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return children.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(final Path dir, final FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(final Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(final Path source, final Path target, final CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(final Path source, final Path target, final CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(final Path path, final Path path2) {
+        return path.toAbsolutePath().normalize().equals(path2.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isHidden(final Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(final Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void checkAccess(final Path path, final AccessMode... modes) throws IOException {
+        final PatchedPath patched = patched(path);
+        patched.getFileSystem().resolve(patched);
+        for (final AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE) throw new AccessDeniedException(path.toString(), null, "Read-only file system");
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(final Path path, final Class<V> type, final LinkOption... options) {
+        if (type != BasicFileAttributeView.class) return null;
+
+        final PatchedPath patched = patched(path);
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return new Attributes(patched);
+            }
+
+            @Override
+            public void setTimes(final FileTime lastModifiedTime, final FileTime lastAccessTime, final FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> type, final LinkOption... options) throws IOException {
+        if (type != BasicFileAttributes.class) throw new UnsupportedOperationException(type.getName());
+        return (A) new Attributes(patched(path));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(final Path path, final String attributes, final LinkOption... options) throws IOException {
+        final String names = attributes.startsWith("basic:") ? attributes.substring("basic:".length()) : attributes;
+        if (names.contains(":")) throw new UnsupportedOperationException(attributes);
+
+        final Attributes read = new Attributes(patched(path));
+        final Map<String, Object> all = new LinkedHashMap<>();
+        all.put("lastModifiedTime", read.lastModifiedTime());
+        all.put("lastAccessTime", read.lastAccessTime());
+        all.put("creationTime", read.creationTime());
+        all.put("isRegularFile", read.isRegularFile());
+        all.put("isDirectory", read.isDirectory());
+        all.put("isSymbolicLink", read.isSymbolicLink());
+        all.put("isOther", read.isOther());
+        all.put("fileKey", read.fileKey());
+        if (names.equals("*")) {
+            all.put("size", read.size());
+            return all;
+        }
+
+        final Map<String, Object> selected = new LinkedHashMap<>();
+        for (final String name : names.split(",")) {
+            if (name.equals("size")) {
+                selected.put(name, read.size());
+            } else if (all.containsKey(name)) {
+                selected.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("Unknown attribute " + name);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public void setAttribute(final Path path, final String attribute, final Object value, final LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    /**
+     * The size of a file is only known once it is transformed, so it is
+     * only transformed when the size is asked for
+     */
+    private static class Attributes implements BasicFileAttributes {
+        private final PatchedPath path;
+        private final PatchedFileSystem.Node node;
+
+        private Attributes(final PatchedPath path) throws IOException {
+            this.path = path;
+            this.node = path.getFileSystem().resolve(path);
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(node.isDirectory() ? node.getArchive().getTime() : node.getEntry().getTime());
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !node.isDirectory();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return node.isDirectory();
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            if (node.isDirectory()) return 0;
+            try {
+                return path.getFileSystem().read(path).length;
+            } catch (final IOException e) {
+                throw new IllegalStateException("Could not transform " + path, e);
+            }
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    private static class ReadOnlyChannel implements SeekableByteChannel {
+        private final ByteBuffer bytes;
+        private boolean open = true;
+
+        private ReadOnlyChannel(final ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) {
+            if (!bytes.hasRemaining()) return -1;
+            final int read = Math.min(dst.remaining(), bytes.remaining());
+            final ByteBuffer slice = bytes.duplicate();
+            slice.limit(slice.position() + read);
+            dst.put(slice);
+            bytes.position(bytes.position() + read);
+            return read;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return bytes.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) {
+            bytes.position((int) Math.min(newPosition, bytes.limit()));
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return bytes.limit();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
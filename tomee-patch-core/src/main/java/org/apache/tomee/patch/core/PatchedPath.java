@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path of a {@link PatchedFileSystem}, with / as separator.  Nested
+ * archives are path segments like directories, as in
+ * /WEB-INF/lib/foo.jar/META-INF/MANIFEST.MF
+ */
+class PatchedPath implements Path {
+
+    private final PatchedFileSystem fileSystem;
+    private final String path;
+    private String[] names;
+
+    PatchedPath(final PatchedFileSystem fileSystem, final String path) {
+        this.fileSystem = fileSystem;
+        this.path = normalizeSeparators(path);
+    }
+
+    private static String normalizeSeparators(final String path) {
+        String normalized = path.replaceAll("/+", "/");
+        if (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private String[] names() {
+        if (names == null) {
+            if (path.equals("/")) {
+                names = new String[0];
+            } else {
+                names = (isAbsolute() ? path.substring(1) : path).split("/", -1);
+            }
+        }
+        return names;
+    }
+
+    private PatchedPath of(final List<String> names, final boolean absolute) {
+        return new PatchedPath(fileSystem, (absolute ? "/" : "") + String.join("/", names));
+    }
+
+    private PatchedPath check(final Path other) {
+        if (!(other instanceof PatchedPath)) throw new ProviderMismatchException();
+        return (PatchedPath) other;
+    }
+
+    /**
+     * The path inside the archive, without the leading slash
+     */
+    String getEntryPath() {
+        return toAbsolutePath().normalize().path.substring(1);
+    }
+
+    @Override
+    public PatchedFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new PatchedPath(fileSystem, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        final String[] names = names();
+        if (names.length == 0) return null;
+        if (names.length == 1 && !isAbsolute()) return this;
+        return new PatchedPath(fileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        final String[] names = names();
+        if (names.length == 0) return null;
+        if (names.length == 1) return getRoot();
+        return of(Arrays.asList(names).subList(0, names.length - 1), isAbsolute());
+    }
+
+    @Override
+    public int getNameCount() {
+        return names().length;
+    }
+
+    @Override
+    public Path getName(final int index) {
+        final String[] names = names();
+        if (index < 0 || index >= names.length) throw new IllegalArgumentException("No name " + index + " in " + path);
+        return new PatchedPath(fileSystem, names[index]);
+    }
+
+    @Override
+    public Path subpath(final int beginIndex, final int endIndex) {
+        final String[] names = names();
+        if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("No subpath " + beginIndex + ", " + endIndex + " in " + path);
+        }
+        return of(Arrays.asList(names).subList(beginIndex, endIndex), false);
+    }
+
+    @Override
+    public boolean startsWith(final Path other) {
+        if (!(other instanceof PatchedPath) || other.getFileSystem() != fileSystem) return false;
+
+        final PatchedPath that = (PatchedPath) other;
+        if (isAbsolute() != that.isAbsolute()) return false;
+        if (that.path.isEmpty()) return path.isEmpty();
+
+        final String[] names = names();
+        final String[] prefix = that.names();
+        if (prefix.length > names.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (!names[i].equals(prefix[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(final String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(final Path other) {
+        if (!(other instanceof PatchedPath) || other.getFileSystem() != fileSystem) return false;
+
+        final PatchedPath that = (PatchedPath) other;
+        if (that.isAbsolute()) return equals(that);
+        if (that.path.isEmpty()) return path.isEmpty();
+
+        final String[] names = names();
+        final String[] suffix = that.names();
+        if (suffix.length > names.length) return false;
+        for (int i = 0; i < suffix.length; i++) {
+            if (!names[names.length - suffix.length + i].equals(suffix[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(final String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public PatchedPath normalize() {
+        final List<String> normalized = new ArrayList<>();
+        for (final String name : names()) {
+            if (name.equals(".")) continue;
+            if (name.equals("..") && !normalized.isEmpty() && !normalized.get(normalized.size() - 1).equals("..")) {
+                normalized.remove(normalized.size() - 1);
+            } else if (!(name.equals("..") && isAbsolute())) {
+                normalized.add(name);
+            }
+        }
+        return of(normalized, isAbsolute());
+    }
+
+    @Override
+    public Path resolve(final Path other) {
+        final PatchedPath that = check(other);
+        if (that.isAbsolute() || path.isEmpty()) return that;
+        if (that.path.isEmpty()) return this;
+        return new PatchedPath(fileSystem, path + "/" + that.path);
+    }
+
+    @Override
+    public Path resolve(final String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(final Path other) {
+        final Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(final String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(final Path other) {
+        final PatchedPath that = check(other);
+        if (isAbsolute() != that.isAbsolute()) {
+            throw new IllegalArgumentException(other + " and " + this + " are not both absolute or relative");
+        }
+        if (path.isEmpty()) return that;
+
+        final String[] from = names();
+        final String[] to = that.names();
+
+        int common = 0;
+        while (common < from.length && common < to.length && from[common].equals(to[common])) common++;
+
+        final List<String> relative = new ArrayList<>();
+        for (int i = common; i < from.length; i++) relative.add("..");
+        relative.addAll(Arrays.asList(to).subList(common, to.length));
+        return of(relative, false);
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            final String entry = new URI(null, null, toAbsolutePath().path, null).getRawPath();
+            return new URI(PatchedFileSystemProvider.SCHEME + ":" + fileSystem.getArchive().toUri() + "!" + entry);
+        } catch (final URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public PatchedPath toAbsolutePath() {
+        return isAbsolute() ? this : new PatchedPath(fileSystem, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(final LinkOption... options) throws IOException {
+        final Path real = toAbsolutePath().normalize();
+        fileSystem.provider().checkAccess(real);
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Entries of " + fileSystem.getArchive() + " are not files");
+    }
+
+    @Override
+    public WatchKey register(final WatchService watcher, final WatchEvent.Kind<?>[] events, final WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Patched archives do not change");
+    }
+
+    @Override
+    public WatchKey register(final WatchService watcher, final WatchEvent.Kind<?>... events) {
+        return register(watcher, events, new WatchEvent.Modifier[0]);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        final List<Path> names = new ArrayList<>();
+        for (int i = 0; i < getNameCount(); i++) names.add(getName(i));
+        return names.iterator();
+    }
+
+    @Override
+    public int compareTo(final Path other) {
+        return path.compareTo(check(other).path);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatchedPath)) return false;
+        final PatchedPath that = (PatchedPath) o;
+        return fileSystem == that.fileSystem && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
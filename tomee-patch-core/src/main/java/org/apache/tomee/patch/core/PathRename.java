@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PathRename {
+
+    /**
+     * Start of the entry path to rename, matched at the beginning of any
+     * path segment.  Examples:
+     *  - META-INF/services/javax.    (service files named after javax types)
+     *  - resources/javax.faces       (also matches META-INF/resources/javax.faces/jsf.js)
+     */
+    private String from;
+
+    /**
+     * What the matched part of the path is replaced with
+     */
+    private String to;
+
+    public PathRename() {
+    }
+
+    public PathRename(final String from, final String to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public String getFrom() { return from; }
+    public void setFrom(final String from) { this.from = from; }
+
+    public String getTo() { return to; }
+    public void setTo(final String to) { this.to = to; }
+
+    /**
+     * The rules in a prefix trie.  A path is looked up by walking the trie
+     * from the start of each segment, so the cost depends on the path
+     * length and the longest rule, not on the number of rules.  The first
+     * segment with a match wins and, within it, the longest rule.  A path
+     * is renamed at most once.
+     */
+    public static class Trie {
+        private final Node root = new Node();
+        private boolean empty = true;
+
+        void add(final String from, final String to) {
+            Node node = root;
+            for (int i = 0; i < from.length(); i++) {
+                node = node.children.computeIfAbsent(from.charAt(i), c -> new Node());
+            }
+            node.to = to;
+            node.length = from.length();
+            empty = false;
+        }
+
+        public boolean isEmpty() {
+            return empty;
+        }
+
+        public String rename(final String path) {
+            if (empty) return path;
+
+            int start = 0;
+            while (true) {
+                final Node match = longest(path, start);
+                if (match != null) {
+                    return path.substring(0, start) + match.to + path.substring(start + match.length);
+                }
+
+                final int slash = path.indexOf('/', start);
+                if (slash < 0) return path;
+                start = slash + 1;
+            }
+        }
+
+        private Node longest(final String path, final int start) {
+            Node node = root;
+            Node match = null;
+            for (int i = start; i < path.length(); i++) {
+                node = node.children.get(path.charAt(i));
+                if (node == null) break;
+                if (node.to != null) match = node;
+            }
+            return match;
+        }
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private String to;
+        private int length;
+    }
+
+    public static Trie compile(final List<PathRename> rules) {
+        final Trie trie = new Trie();
+        if (rules != null) {
+            for (final PathRename rule : rules) {
+                if (rule == null || rule.getFrom() == null || rule.getFrom().isEmpty() || rule.getTo() == null) continue;
+                trie.add(rule.getFrom(), rule.getTo());
+            }
+        }
+        return trie;
+    }
+}
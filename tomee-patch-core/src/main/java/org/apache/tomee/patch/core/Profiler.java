@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Where the time goes inside {@link Transformation#transformArchive}.
+ *
+ * For every archive, nested or not, the time is split into inflating the
+ * entries, rewriting classes, rewriting resources and deflating and
+ * writing the result.  Entries are counted as changed or unchanged by
+ * comparing the CRC of what was read with the CRC of what was written.
+ *
+ * Profiling is off unless a Profiler is set on the Transformation, in
+ * which case scanJar does nothing more than a null check per entry.
+ */
+public class Profiler {
+
+    public enum Kind {
+        CLASS, RESOURCE, ARCHIVE, COPY
+    }
+
+    private final int top;
+    private final List<JarProfile> jars = new ArrayList<>();
+    private final PriorityQueue<EntryProfile> largest = new PriorityQueue<>(Comparator.comparingLong(EntryProfile::getSize));
+
+    public Profiler() {
+        this(10);
+    }
+
+    /**
+     * @param top how many of the slowest jars and largest entries to keep
+     */
+    public Profiler(final int top) {
+        this.top = top;
+    }
+
+    JarProfile jar(final String path, final int depth, final InputStream in, final OutputStream out) {
+        final JarProfile jar = new JarProfile(path, depth, in, out);
+        synchronized (jars) {
+            jars.add(jar);
+        }
+        return jar;
+    }
+
+    private void entry(final EntryProfile entry) {
+        synchronized (largest) {
+            if (largest.size() < top) {
+                largest.add(entry);
+            } else if (largest.peek().getSize() < entry.getSize()) {
+                largest.poll();
+                largest.add(entry);
+            }
+        }
+    }
+
+    public List<JarProfile> getJars() {
+        synchronized (jars) {
+            return new ArrayList<>(jars);
+        }
+    }
+
+    public List<JarProfile> getSlowestJars() {
+        return getJars().stream()
+                .sorted(Comparator.comparingLong(JarProfile::getTotalNanos).reversed())
+                .limit(top)
+                .collect(Collectors.toList());
+    }
+
+    public List<EntryProfile> getLargestEntries() {
+        synchronized (largest) {
+            return largest.stream()
+                    .sorted(Comparator.comparingLong(EntryProfile::getSize).reversed())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public void report(final Log log) {
+        final List<JarProfile> all = getJars();
+        if (all.isEmpty()) return;
+
+        long inflate = 0, classes = 0, resources = 0, deflate = 0, changed = 0, unchanged = 0;
+        for (final JarProfile jar : all) {
+            inflate += jar.inflateNanos;
+            classes += jar.classNanos;
+            resources += jar.resourceNanos;
+            deflate += jar.deflateNanos;
+            changed += jar.changed;
+            unchanged += jar.unchanged;
+        }
+
+        log.info("Profile of %s archives: inflate %s ms, classes %s ms, resources %s ms, deflate %s ms, %s entries changed, %s unchanged",
+                all.size(), inflate / 1_000_000, classes / 1_000_000, resources / 1_000_000, deflate / 1_000_000, changed, unchanged);
+
+        log.info("Slowest archives");
+        final String format = "  %8s %8s %8s %8s %8s %7s %9s  %s";
+        log.info(format, "total ms", "inflate", "classes", "resource", "deflate", "changed", "unchanged", "path");
+        for (final JarProfile jar : getSlowestJars()) {
+            log.info(format,
+                    jar.getTotalNanos() / 1_000_000,
+                    jar.inflateNanos / 1_000_000,
+                    jar.classNanos / 1_000_000,
+                    jar.resourceNanos / 1_000_000,
+                    jar.deflateNanos / 1_000_000,
+                    jar.changed,
+                    jar.unchanged,
+                    jar.path);
+        }
+
+        log.info("Largest entries");
+        for (final EntryProfile entry : getLargestEntries()) {
+            log.info("  %10s bytes %6s ms  %s", entry.size, entry.nanos / 1_000_000, entry.path);
+        }
+    }
+
+    public class JarProfile {
+        private final String path;
+        private final int depth;
+        private final long start = System.nanoTime();
+        private final Timed.In in;
+        private final Timed.Out out;
+
+        private long totalNanos = -1;
+        private long inflateNanos;
+        private long classNanos;
+        private long resourceNanos;
+        private long deflateNanos;
+        private int changed;
+        private int unchanged;
+
+        private String entryPath;
+        private Kind entryKind;
+        private long entryStart;
+        private long entryInflate;
+        private long entryDeflate;
+
+        private JarProfile(final String path, final int depth, final InputStream in, final OutputStream out) {
+            this.path = path;
+            this.depth = depth;
+            this.in = new Timed.In(in);
+            this.out = new Timed.Out(out);
+        }
+
+        InputStream in() {
+            return in;
+        }
+
+        OutputStream out() {
+            return out;
+        }
+
+        void begin(final String path, final Kind kind) {
+            entryPath = path;
+            entryKind = kind;
+            entryStart = System.nanoTime();
+            entryInflate = in.nanos;
+            entryDeflate = out.nanos;
+            in.restart();
+            out.restart();
+        }
+
+        /**
+         * Time spent outside of this profile's streams, such as closing the entry
+         */
+        void deflate(final long nanos) {
+            deflateNanos += nanos;
+        }
+
+        void end() {
+            final long inflate = in.nanos - entryInflate;
+            final long deflate = out.nanos - entryDeflate;
+            final long work = System.nanoTime() - entryStart - inflate - deflate;
+
+            inflateNanos += inflate;
+            deflateNanos += deflate;
+
+            switch (entryKind) {
+                case CLASS:
+                    classNanos += work;
+                    break;
+                case RESOURCE:
+                    resourceNanos += work;
+                    break;
+                default:
+                    // Nested archives are profiled on their own
+            }
+
+            if (in.count != out.count || in.crc.getValue() != out.crc.getValue()) {
+                changed++;
+            } else {
+                unchanged++;
+            }
+
+            entry(new EntryProfile(this.path + "!/" + entryPath, Math.max(in.count, out.count), work));
+        }
+
+        void close() {
+            totalNanos = System.nanoTime() - start;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos < 0 ? System.nanoTime() - start : totalNanos;
+        }
+
+        public long getInflateNanos() {
+            return inflateNanos;
+        }
+
+        public long getClassNanos() {
+            return classNanos;
+        }
+
+        public long getResourceNanos() {
+            return resourceNanos;
+        }
+
+        public long getDeflateNanos() {
+            return deflateNanos;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+    }
+
+    public static class EntryProfile {
+        private final String path;
+        private final long size;
+        private final long nanos;
+
+        private EntryProfile(final String path, final long size, final long nanos) {
+            this.path = path;
+            this.size = size;
+            this.nanos = nanos;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Streams that add up the time spent in the wrapped stream, along with
+     * the size and CRC of the bytes of the current entry.  Closing them
+     * does not close the wrapped stream.
+     */
+    private static class Timed {
+
+        private static class In extends FilterInputStream {
+            private final CRC32 crc = new CRC32();
+            private long count;
+            private long nanos;
+
+            In(final InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                final long start = System.nanoTime();
+                final int b = super.read();
+                nanos += System.nanoTime() - start;
+                if (b != -1) {
+                    crc.update(b);
+                    count++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final long start = System.nanoTime();
+                final int read = super.read(b, off, len);
+                nanos += System.nanoTime() - start;
+                if (read > 0) {
+                    crc.update(b, off, read);
+                    count += read;
+                }
+                return read;
+            }
+
+            void restart() {
+                crc.reset();
+                count = 0;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+
+        private static class Out extends FilterOutputStream {
+            private final CRC32 crc = new CRC32();
+            private long count;
+            private long nanos;
+
+            Out(final OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(final int b) throws IOException {
+                final long start = System.nanoTime();
+                out.write(b);
+                nanos += System.nanoTime() - start;
+                crc.update(b);
+                count++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                final long start = System.nanoTime();
+                out.write(b, off, len);
+                nanos += System.nanoTime() - start;
+                crc.update(b, off, len);
+                count += len;
+            }
+
+            void restart() {
+                crc.reset();
+                count = 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+}
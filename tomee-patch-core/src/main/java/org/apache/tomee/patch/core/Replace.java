@@ -25,12 +25,17 @@ public class Replace {
 
     public Replace prefix(final String from, final String to) {
         if (text.startsWith(from)) {
-            text = text.replace(from, to);
+            return replace(from, to);
         }
         return this;
     }
     public Replace replace(final String from, final String to) {
-        text = text.replace(from, to);
+        final String replaced = text.replace(from, to);
+        // String.replace returns the same instance when nothing matched
+        if (replaced != text) {
+            Events.ruleHit();
+            text = replaced;
+        }
         return this;
     }
 
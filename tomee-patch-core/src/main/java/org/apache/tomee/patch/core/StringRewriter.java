@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The replace and prefix rules of a {@link Replace} chain, compiled once
+ * and memoized.
+ *
+ * Strings that do not contain the substring common to every rule, usually
+ * "javax", are returned right away.  The others are looked up in a bounded
+ * cache shared by every class of the run, so a constant that shows up in
+ * thousands of classes is rewritten once.  The same instance is returned
+ * when no rule matched.
+ *
+ * The cache is not LRU: once it holds maxSize constants it is emptied and
+ * refilled.  Lookups stay lock free across the threads of a parallel run,
+ * and the constants that matter repeat often enough to be back after the
+ * next few classes, so a clear costs one rewrite per constant in use.
+ *
+ * Rules are added up front and must not change once the rewriter is in use.
+ */
+public class StringRewriter {
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final ConcurrentHashMap<String, Rewrite> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private String needle = "";
+
+    public StringRewriter() {
+        this(10_000);
+    }
+
+    /**
+     * @param maxSize how many rewritten constants to keep.  The cache is
+     *                cleared and refilled when it grows past this size.
+     */
+    public StringRewriter(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public StringRewriter replace(final String from, final String to) {
+        return add(new Rule(from, to, false));
+    }
+
+    public StringRewriter prefix(final String from, final String to) {
+        return add(new Rule(from, to, true));
+    }
+
+    private StringRewriter add(final Rule rule) {
+        rules.add(rule);
+        needle = rules.size() == 1 ? rule.from : common(needle, rule.from);
+        cache.clear();
+        return this;
+    }
+
+    public String rewrite(final String text) {
+        if (text == null || rules.isEmpty() || !text.contains(needle)) {
+            filtered.increment();
+            return text;
+        }
+
+        final Rewrite cached = cache.get(text);
+        if (cached != null) {
+            hits.increment();
+            for (int i = 0; i < cached.rules; i++) Events.ruleHit();
+            return cached.text;
+        }
+
+        misses.increment();
+        final Rewrite rewrite = apply(text);
+        if (cache.size() >= maxSize) cache.clear();
+        cache.put(text, rewrite);
+        return rewrite.text;
+    }
+
+    private Rewrite apply(final String text) {
+        String result = text;
+        int applied = 0;
+        for (final Rule rule : rules) {
+            if (rule.prefix && !result.startsWith(rule.from)) continue;
+
+            final String replaced = result.replace(rule.from, rule.to);
+            // String.replace returns the same instance when nothing matched
+            if (replaced != result) {
+                Events.ruleHit();
+                applied++;
+                result = replaced;
+            }
+        }
+        return new Rewrite(applied == 0 ? text : result, applied);
+    }
+
+    /**
+     * Strings returned without a lookup because they cannot match any rule
+     */
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        final long hits = getHits();
+        final long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * The rules, one per line, in the order they are applied
+     */
+    String describe() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Rule rule : rules) {
+            sb.append(rule.prefix ? "prefix " : "replace ").append(rule.from).append(' ').append(rule.to).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The text every rule contains, empty when there are no rules
+     */
+    String getNeedle() {
+        return needle;
+    }
+
+    /**
+     * The longest substring of a that is also in b
+     */
+    static String common(final String a, final String b) {
+        for (int length = a.length(); length > 0; length--) {
+            for (int start = 0; start + length <= a.length(); start++) {
+                final String candidate = a.substring(start, start + length);
+                if (b.contains(candidate)) return candidate;
+            }
+        }
+        return "";
+    }
+
+    private static class Rule {
+        private final String from;
+        private final String to;
+        private final boolean prefix;
+
+        private Rule(final String from, final String to, final boolean prefix) {
+            this.from = from;
+            this.to = to;
+            this.prefix = prefix;
+        }
+    }
+
+    private static class Rewrite {
+        private final String text;
+        private final int rules;
+
+        private Rewrite(final String text, final int rules) {
+            this.text = text;
+            this.rules = rules;
+        }
+    }
+}
@@ -20,91 +20,358 @@ import org.apache.commons.compress.archivers.zip.UnixStat;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipExtraField;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
 import org.tomitribe.swizzle.stream.StreamBuilder;
+import org.tomitribe.swizzle.stream.StringHandler;
 import org.tomitribe.util.IO;
 import org.tomitribe.util.Mvn;
 import org.tomitribe.util.dir.Dir;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static org.tomitribe.jkta.util.Predicates.not;
 
+/**
+ * Rewrites archives, nested archives included, and applies patches.
+ *
+ * A Transformation cannot be changed once built, so it can be reused and
+ * called from many threads at the same time.  The state of an archive in
+ * progress is kept per thread, the shared caches are concurrent and the
+ * patches applied are counted in the {@link AppliedPatches} of each call.
+ */
 public class Transformation {
 
-    private final List<Clazz> classes = new ArrayList<Clazz>();
+    /**
+     * 1980-01-01T00:00:00Z, the earliest time a zip entry can hold
+     */
+    private static final long DOS_EPOCH = 315_532_800_000L;
+
+    private final List<Clazz> classes;
     private final Log log;
     private final Replacements replacements;
     private final Skips skips;
     private final List<FileMode.ModeOverride> modeOverrides;
     private final Additions additions;
-    private final Boolean skipTransform;
+    private final boolean skipTransform;
     private final File patchResources;
+    private final ConstantRewriters rewriters;
+    private final Profiler profiler;
+    private final PackageRemapper remapper;
+    private final PathRename.Trie pathRenames;
+    private final Long outputTimestamp;
 
     public Transformation() {
-        this.log = new NullLog();
-        this.replacements = new Replacements();
-        this.skips = new Skips();
-        this.additions = new Additions();
-        this.skipTransform = false;
-        this.patchResources = new File("does not exist");
-        this.modeOverrides = new ArrayList<>();
+        this(builder());
     }
 
-
     public Transformation(final List<Clazz> classes, final File patchResources, final Replacements replacements, final Skips skips,
                           final List<FileMode> fileModes, final Additions additions, final Log log, final Boolean skipTransform) {
-        this.classes.addAll(classes);
-        this.log = log;
-        this.replacements = replacements == null ? new Replacements() : replacements;
-        this.skips = skips == null ? new Skips() : skips;
-        this.additions = additions == null ? new Additions() : additions;
-        this.patchResources = patchResources;
-        this.skipTransform = skipTransform;
-        this.modeOverrides = FileMode.compileModeOverrides(fileModes);
+        this(builder()
+                .classes(classes)
+                .patchResources(patchResources)
+                .replacements(replacements)
+                .skips(skips)
+                .fileModes(fileModes)
+                .additions(additions)
+                .log(log)
+                .skipTransform(Boolean.TRUE.equals(skipTransform)));
+    }
+
+    private Transformation(final Builder builder) {
+        this.classes = new ArrayList<>(builder.classes);
+        this.log = builder.log;
+        this.replacements = builder.replacements == null ? new Replacements() : builder.replacements;
+        this.skips = builder.skips == null ? new Skips() : builder.skips;
+        this.additions = builder.additions == null ? new Additions() : builder.additions;
+        this.patchResources = builder.patchResources;
+        this.skipTransform = builder.skipTransform;
+        this.modeOverrides = FileMode.compileModeOverrides(builder.fileModes);
+        this.rewriters = builder.rewriters == null ? new ConstantRewriters() : builder.rewriters;
+        this.profiler = builder.profiler;
+        this.remapper = builder.remapPackages ? new PackageRemapper() : null;
+        this.pathRenames = PathRename.compile(builder.pathRenames);
+        this.outputTimestamp = builder.outputTimestamp;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    public boolean isRemapPackages() {
+        return remapper != null;
+    }
+
+    public Long getOutputTimestamp() {
+        return outputTimestamp;
+    }
+
+    /**
+     * The memoized string constant rules shared by every class this
+     * Transformation rewrites, along with their cache hit and miss counts
+     */
+    public ConstantRewriters getRewriters() {
+        return rewriters;
+    }
+
+    public static class Builder {
+        private final List<Clazz> classes = new ArrayList<>();
+        private File patchResources = new File("does not exist");
+        private Replacements replacements;
+        private Skips skips;
+        private List<FileMode> fileModes;
+        private Additions additions;
+        private Log log = new NullLog();
+        private boolean skipTransform;
+        private ConstantRewriters rewriters;
+        private Profiler profiler;
+        private boolean remapPackages;
+        private List<PathRename> pathRenames;
+        private Long outputTimestamp;
+
+        private Builder() {
+        }
+
+        public Builder classes(final List<Clazz> classes) {
+            this.classes.addAll(classes);
+            return this;
+        }
+
+        public Builder patchResources(final File patchResources) {
+            this.patchResources = patchResources;
+            return this;
+        }
+
+        public Builder replacements(final Replacements replacements) {
+            this.replacements = replacements;
+            return this;
+        }
+
+        public Builder skips(final Skips skips) {
+            this.skips = skips;
+            return this;
+        }
+
+        public Builder fileModes(final List<FileMode> fileModes) {
+            this.fileModes = fileModes;
+            return this;
+        }
+
+        public Builder additions(final Additions additions) {
+            this.additions = additions;
+            return this;
+        }
+
+        public Builder log(final Log log) {
+            this.log = log;
+            return this;
+        }
+
+        /**
+         * Only apply replacements and patches, leaving the other entries as they are
+         */
+        public Builder skipTransform(final boolean skipTransform) {
+            this.skipTransform = skipTransform;
+            return this;
+        }
+
+        /**
+         * Share the memo caches of another Transformation, such as one from
+         * a previous run in the same JVM
+         */
+        public Builder rewriters(final ConstantRewriters rewriters) {
+            this.rewriters = rewriters;
+            return this;
+        }
+
+        /**
+         * Collect a timing breakdown of every archive transformed.  Null,
+         * the default, turns profiling off.
+         */
+        public Builder profiler(final Profiler profiler) {
+            this.profiler = profiler;
+            return this;
+        }
+
+        /**
+         * Move the Java EE packages from javax to jakarta in every class
+         * descriptor, signature and module descriptor, and in the names of
+         * class files and META-INF/services files, so a javax archive can be
+         * transformed and patched in a single pass.  Off by default.
+         */
+        public Builder remapPackages(final boolean remapPackages) {
+            this.remapPackages = remapPackages;
+            return this;
+        }
+
+        /**
+         * Rename archive entries as they are read.  Skips, patched classes and
+         * file mode overrides all see the renamed path.
+         */
+        public Builder pathRenames(final List<PathRename> pathRenames) {
+            this.pathRenames = pathRenames;
+            return this;
+        }
+
+        /**
+         * Write reproducible archives, as Maven does when
+         * project.build.outputTimestamp is set.  Every entry, patches and
+         * additions included, is dated at this time in milliseconds, extra
+         * fields are dropped and modes are reduced to 0644, or 0755 for
+         * executables and directories, before FileMode overrides apply.
+         * Null, the default, keeps the times and modes of the original entries.
+         */
+        public Builder outputTimestamp(final Long outputTimestamp) {
+            this.outputTimestamp = outputTimestamp;
+            return this;
+        }
+
+        public Transformation build() {
+            return new Transformation(this);
+        }
     }
 
     public static File transform(final File jar) throws IOException {
         return new Transformation().transformArchive(jar);
     }
 
-    public File transformArchive(final File jar) throws IOException {
+    /**
+     * Transforms the archive read from in and writes the result to out,
+     * without temp files.  Neither stream is closed.
+     *
+     * @param name the file name of the archive, which replacements, skips
+     *             and additions are matched against
+     * @param applied counts the patches added to the archive
+     */
+    public void transform(final String name, final InputStream in, final OutputStream out, final AppliedPatches applied) throws IOException {
+        scanJar(name, Streams.unclosable(in), Streams.unclosable(out), applied);
+    }
+
+    /**
+     * Transforms a nested archive for the archive in progress on this
+     * thread, if any, counting its patches with those of the outer archive
+     */
+    public void transform(final String name, final InputStream in, final OutputStream out) throws IOException {
+        scanJar(name, Streams.unclosable(in), Streams.unclosable(out));
+    }
+
+    public void transform(final InputStream in, final OutputStream out) throws IOException {
+        transform("archive", in, out);
+    }
+
+    /**
+     * Transforms the remaining bytes of the buffer in memory.  The position
+     * of the given buffer is not changed.
+     *
+     * @return a heap buffer holding the transformed archive
+     */
+    public ByteBuffer transform(final ByteBuffer archive) throws IOException {
+        final Streams.Buffer out = new Streams.Buffer(archive.remaining() + 1024);
+        transform(Streams.read(archive), out);
+        return out.toByteBuffer();
+    }
+
+    /**
+     * Transforms an archive from one channel to another, from the current
+     * position of the input.  Neither channel is closed.
+     */
+    public void transform(final SeekableByteChannel in, final WritableByteChannel out) throws IOException {
+        final OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(out), 64 * 1024);
+        transform(new BufferedInputStream(Channels.newInputStream(in), 64 * 1024), buffered);
+        buffered.flush();
+    }
+
+    /**
+     * Writes the transformed archive as a directory tree instead of an
+     * archive, with the modes of its entries as POSIX permissions.  Nested
+     * archives are still written as archives.
+     *
+     * @return the number of files written
+     */
+    public int explodeArchive(final File jar, final File directory, final AppliedPatches applied) throws IOException {
+        return new ExplodedArchive(this, log, applied).write(jar, directory);
+    }
+
+    public int explodeArchive(final File jar, final File directory) throws IOException {
+        return explodeArchive(jar, directory, new AppliedPatches());
+    }
+
+    /**
+     * Transforms an exploded distribution as if it were the outer archive,
+     * in place when output is the directory itself or into a mirror tree
+     * where unchanged files are hard links.
+     *
+     * @return the number of files changed
+     */
+    public int transformDirectory(final File directory, final File output, final AppliedPatches applied) throws IOException {
+        return new ExplodedDirectory(this, log, applied).transform(directory, output);
+    }
+
+    public int transformDirectory(final File directory, final File output) throws IOException {
+        return transformDirectory(directory, output, new AppliedPatches());
+    }
+
+    public File transformArchive(final File jar, final AppliedPatches applied) throws IOException {
         final File tempFile = File.createTempFile(jar.getName(), ".transformed");
 
         try (final InputStream inputStream = IO.read(jar)) {
             try (final OutputStream outputStream = IO.write(tempFile)) {
-                scanJar(jar.getName(), inputStream, outputStream);
+                scanJar(jar.getName(), inputStream, outputStream, applied);
             }
         }
 
         return tempFile;
     }
 
-    private void scanJar(final String name, final InputStream inputStream, final OutputStream outputStream) throws IOException {
+    public File transformArchive(final File jar) throws IOException {
+        return transformArchive(jar, new AppliedPatches());
+    }
+
+    /**
+     * Scans an archive nested in the one in progress on this thread, or a
+     * top level archive whose applied patches are not wanted
+     */
+    void scanJar(final String name, final InputStream inputStream, final OutputStream outputStream) throws IOException {
+        final AppliedPatches applied = Jar.current().applied;
+        scanJar(name, inputStream, outputStream, applied == null ? new AppliedPatches() : applied);
+    }
+
+    void scanJar(final String name, final InputStream inputStream, final OutputStream outputStream, final AppliedPatches applied) throws IOException {
         {
-            final String jar = new File(name).getName();
-            final String replacement = replacements.getJars().get(jar);
-            if (replacement != null) {
-                final File file = Mvn.mvn(replacement);
-                if (!file.exists()) {
-                    throw new ReplacementNotFoundException("jar", jar, file.getAbsolutePath());
-                }
-                log.info(String.format("Replaced %s", name));
+            final File file = replacementJar(name);
+            if (file != null) {
+                log.info("Replaced %s", name);
                 IO.copy(file, outputStream);
 
                 IO.copy(inputStream, skipped);
@@ -113,14 +380,21 @@ public class Transformation {
             }
         }
 
-        final Jar oldJar = Jar.enter(name);
+        final Jar oldJar = Jar.enter(name, applied);
         final Jar jar = Jar.current();
+        final Events.Span archiveEvent = Events.archive(jar.getPath(), jar.getDepth());
+        int entries = 0;
+        long written = 0;
+        Profiler.JarProfile profile = null;
         try (ZipArchiveInputStream zin = new ZipArchiveInputStream(inputStream);
              ZipArchiveOutputStream zout = new ZipArchiveOutputStream(outputStream)) {
 
+            if (profiler != null) profile = profiler.jar(jar.getPath(), jar.getDepth(), zin, zout);
+            final InputStream in = profile == null ? zin : profile.in();
+            final OutputStream out = profile == null ? zout : profile.out();
+
             ZipArchiveEntry oldEntry;
             while ((oldEntry = zin.getNextEntry()) != null) {
-                // TODO: the name may be changed in transformation
                 final String path = updatePath(oldEntry.getName());
 
                 if (skip(path)) {
@@ -133,21 +407,15 @@ public class Transformation {
                  * We will add the patched version at the end
                  */
                 if (isPatched(path, jar)) {
-                    log.debug("Skipping class " + path);
+                    if (log.isDebugEnabled()) log.debug("Skipping class " + path);
                     IO.copy(zin, skipped);
                     continue;
                 }
 
                 if (oldEntry.isDirectory()) {
                     final ZipArchiveEntry dir = new ZipArchiveEntry(path.endsWith("/") ? path : path + "/");
-                    dir.setTime(oldEntry.getTime());
-                    int mode = normalizeDirMode(oldEntry.getUnixMode());
-                    final Integer override = FileMode.overrideModeFor(path, true, modeOverrides);
-                    if (override != null) {
-                        log.info(String.format("Overriding dir mode %o -> %o for %s", mode & 0777, override & 0777, path));
-                        mode = override;
-                    }
-                    dir.setUnixMode(mode);
+                    date(dir, oldEntry.getTime());
+                    dir.setUnixMode(directoryMode(path, oldEntry.getUnixMode()));
                     zout.putArchiveEntry(dir);
                     zout.closeArchiveEntry();
                     continue;
@@ -157,35 +425,25 @@ public class Transformation {
                 final ZipArchiveEntry newEntry = new ZipArchiveEntry(path);
 
                 // copy attributes
-                newEntry.setTime(oldEntry.getTime());
+                date(newEntry, oldEntry.getTime());
                 newEntry.setComment(oldEntry.getComment());
 
-                // compute base mode (fallback 0644 if missing)
-                int mode = oldEntry.getUnixMode();
-                if (mode == 0) {
-                    mode = UnixStat.FILE_FLAG | 0644;
-                }
-
-                // apply override if any
-                final Integer override = FileMode.overrideModeFor(path, false, modeOverrides);
-                if (override != null) {
-                    log.info(String.format("Overriding file mode %o -> %o for %s", mode & 0777, override & 0777, path));
-                    mode = override;
-                }
-                newEntry.setUnixMode(mode);
+                newEntry.setUnixMode(fileMode(path, oldEntry.getUnixMode()));
 
                 zout.putArchiveEntry(newEntry);
+                final Events.Span entryEvent = Events.entry(path, jar.getDepth());
+                if (profile != null) profile.begin(path, kind(path));
 
                 try {
                     if (path.endsWith(".class")) {
-                        scanClass(zin, zout);
+                        scanClass(in, out);
                     } else if (isZip(path)) {
                         if (isExcludedJar(path)) {
-                            IO.copy(zin, zout);
+                            IO.copy(in, out);
                         } else {
                             // Read the inner entry fully first
                             final ByteArrayOutputStream buf = new ByteArrayOutputStream(Math.max(32_768, (int) oldEntry.getSize()));
-                            IO.copy(zin, buf);
+                            IO.copy(in, buf);
                             final byte[] bytes = buf.toByteArray();
 
                             try (ByteArrayInputStream innerIn = new ByteArrayInputStream(bytes);
@@ -195,31 +453,47 @@ public class Transformation {
                                 scanJar(path, innerIn, innerOut);
 
                                 // Write transformed inner archive to the current entry
-                                innerOut.writeTo(zout);
+                                innerOut.writeTo(out);
 
                             } catch (IOException ex) {
                                 // Could not parse/transform (eg. corrupt inner JAR) -> copy raw as-is
-                                log.warn("Could not transform " + path + " (" + ex.getMessage() + "), copying raw.");
-                                IO.copy(new ByteArrayInputStream(bytes), zout);
+                                log.warn("Could not transform %s (%s), copying raw.", path, ex.getMessage());
+                                IO.copy(new ByteArrayInputStream(bytes), out);
                             }
                         }
                     } else if (copyUnmodified(path)) {
-                        IO.copy(zin, zout);
+                        IO.copy(in, out);
                     } else {
-                        scanResource(path, zin, zout);
+                        scanResource(path, in, out);
                     }
                 } finally {
-                    zout.closeArchiveEntry();
+                    if (profile == null) {
+                        zout.closeArchiveEntry();
+                    } else {
+                        profile.end();
+                        final long start = System.nanoTime();
+                        zout.closeArchiveEntry();
+                        profile.deflate(System.nanoTime() - start);
+                    }
                 }
+
+                // Sizes are known once both entries are complete
+                entryEvent.size(oldEntry.getSize(), newEntry.getSize()).finish();
+                entries++;
+                written += Math.max(0, newEntry.getSize());
             }
 
             // If we skipped any classes, add them now
             if (jar.hasPatches()) {
-                log.info("Patching " + jar.getName());
+                log.info("Patching %s", jar.getName());
                 for (final Clazz clazz : jar.getSkipped()) {
-                    log.debug("Applying patch " + clazz.getName());
+                    if (log.isDebugEnabled()) log.debug("Applying patch " + clazz.getName());
 
                     final ZipArchiveEntry newEntry = new ZipArchiveEntry(clazz.getName());
+                    if (outputTimestamp != null) {
+                        date(newEntry, -1);
+                        newEntry.setUnixMode(fileMode(clazz.getName(), 0));
+                    }
                     zout.putArchiveEntry(newEntry);
 
                     try {
@@ -229,53 +503,156 @@ public class Transformation {
                         zout.closeArchiveEntry();
 
                     }
-                    clazz.applied();
+                    applied.applied(clazz);
                 }
             }
 
-            final String jarName = new File(jar.getName()).getName();
-            if (additions.getResources().containsKey(jarName) && patchResources.exists()) {
-                final String regex = additions.getResources().get(jarName);
-                final Pattern pattern = getPattern(regex);
+            for (final Resource resource : additions(jar.getName())) {
+                log.info("Adding %s", resource.getPath());
 
-                final Dir dir = Dir.of(Dir.class, patchResources);
-                final List<Resource> resources = dir.files()
-                        .map(file -> Resource.relative(patchResources, file))
-                        .filter(resource -> resource.matches(pattern))
-                        .collect(Collectors.toList());
-
-                for (final Resource resource : resources) {
-                    log.info("Adding " + resource.getPath());
-
-                    final ZipArchiveEntry newEntry = new ZipArchiveEntry(resource.getPath());
-                    zout.putArchiveEntry(newEntry);
+                final ZipArchiveEntry newEntry = new ZipArchiveEntry(resource.getPath());
+                if (outputTimestamp != null) {
+                    date(newEntry, -1);
+                    newEntry.setUnixMode(fileMode(resource.getPath(), 0));
+                }
+                zout.putArchiveEntry(newEntry);
 
-                    try {
-                        // Run any transformations on these classes as well
-                        IO.copy(IO.read(resource.getFile()), zout);
-                    } finally {
-                        zout.closeArchiveEntry();
-                    }
+                try {
+                    // Run any transformations on these classes as well
+                    IO.copy(IO.read(resource.getFile()), zout);
+                } finally {
+                    zout.closeArchiveEntry();
                 }
             }
 
-            zout.finish();
+            if (profile == null) {
+                zout.finish();
+            } else {
+                final long start = System.nanoTime();
+                zout.finish();
+                profile.deflate(System.nanoTime() - start);
+            }
+
+            archiveEvent.size(zin.getBytesRead(), written).entries(entries).finish();
         } catch (IOException e) {
             throw new IOException(jar.getPath() + e.getMessage(), e);
         } finally {
+            if (profile != null) profile.close();
             Jar.exit(oldJar);
         }
     }
 
+    /**
+     * The jar that replaces the archive of the given name, null if none
+     */
+    File replacementJar(final String name) {
+        final String jar = new File(name).getName();
+        final String replacement = replacements.getJars().get(jar);
+        if (replacement == null) return null;
+
+        final File file = Mvn.mvn(replacement);
+        if (!file.exists()) {
+            throw new ReplacementNotFoundException("jar", jar, file.getAbsolutePath());
+        }
+        return file;
+    }
+
+    /**
+     * The patch resources added to the archive of the given name
+     */
+    List<Resource> additions(final String name) {
+        final String jarName = new File(name).getName();
+        if (!additions.getResources().containsKey(jarName) || !patchResources.exists()) {
+            return Collections.emptyList();
+        }
+
+        final String regex = additions.getResources().get(jarName);
+        final Pattern pattern = getPattern(regex);
+
+        final Dir dir = Dir.of(Dir.class, patchResources);
+        return dir.files()
+                .map(file -> Resource.relative(patchResources, file))
+                .filter(resource -> resource.matches(pattern))
+                .sorted(Comparator.comparing(Resource::getPath))
+                .collect(Collectors.toList());
+    }
+
+    private Profiler.Kind kind(final String path) {
+        if (path.endsWith(".class")) return Profiler.Kind.CLASS;
+        if (isZip(path)) return isExcludedJar(path) ? Profiler.Kind.COPY : Profiler.Kind.ARCHIVE;
+        if (copyUnmodified(path)) return Profiler.Kind.COPY;
+        return Profiler.Kind.RESOURCE;
+    }
+
     private Pattern getPattern(final String regex) {
         try {
             return Pattern.compile(regex);
         } catch (Exception e) {
-            log.error(String.format("Invalid pattern: '%s'", regex));
+            log.error("Invalid pattern: '%s'", regex);
             return null;
         }
     }
 
+    /**
+     * Dates the entry at the given time, or at the output timestamp.  Zip
+     * times are local, so the timestamp is shifted by the time zone offset
+     * to read the same whatever the time zone of the build.
+     */
+    private void date(final ZipArchiveEntry entry, final long time) {
+        final Long timestamp = outputTimestamp;
+        if (timestamp == null) {
+            entry.setTime(time);
+            return;
+        }
+
+        reproducible(entry, timestamp);
+    }
+
+    /**
+     * Dates the entry at an output timestamp in milliseconds, the same in
+     * every time zone, and drops its extra fields
+     */
+    public static void reproducible(final ZipArchiveEntry entry, final long timestamp) {
+        final long utc = Math.max(timestamp, DOS_EPOCH);
+        entry.setTime(utc - TimeZone.getDefault().getOffset(utc));
+        entry.setExtraFields(new ZipExtraField[0]);
+    }
+
+    /**
+     * The mode of a file entry, 0644 if the archive has none, unless a
+     * FileMode overrides it
+     */
+    int fileMode(final String path, final int old) {
+        final int mode;
+        if (outputTimestamp != null) {
+            mode = UnixStat.FILE_FLAG | ((old & 0111) != 0 ? 0755 : 0644);
+        } else {
+            mode = old != 0 ? old : UnixStat.FILE_FLAG | 0644;
+        }
+        final Integer override = FileMode.overrideModeFor(path, false, modeOverrides);
+        if (override == null) return mode;
+
+        if (log.isInfoEnabled()) {
+            log.info("Overriding file mode %o -> %o for %s", mode & 0777, override & 0777, path);
+        }
+        return override;
+    }
+
+    /**
+     * The mode of a directory entry, 0755 if the archive has none, unless
+     * a FileMode overrides it
+     */
+    int directoryMode(final String path, final int old) {
+        final int mode = outputTimestamp != null ? UnixStat.DIR_FLAG | 0755 : normalizeDirMode(old);
+        final Integer override = FileMode.overrideModeFor(path, true, modeOverrides);
+        if (override == null) return mode;
+
+        if (log.isInfoEnabled()) {
+            log.info("Overriding dir mode %o -> %o for %s", mode & 0777, override & 0777, path);
+        }
+        return override;
+    }
+
     private int normalizeDirMode(final int old) {
         final int mode = (old != 0 ? old : UnixStat.DIR_FLAG | 0755);
         return (mode & ~UnixStat.FILE_FLAG) | UnixStat.DIR_FLAG;
@@ -313,7 +690,7 @@ public class Transformation {
      * Skip signed jar public key files.  We most definitely
      * have tampered with the jar.
      */
-    private boolean skip(final String name) {
+    boolean skip(final String name) {
         if (name.startsWith("META-INF/")) {
             if (name.endsWith(".SF")) return true;
             if (name.endsWith(".DSA")) return true;
@@ -322,12 +699,13 @@ public class Transformation {
         return false;
     }
 
-    private String updatePath(final String name) {
-        return name;
-        //return name.replace("resources/javax.faces", "resources/jakarta.faces");
+    String updatePath(final String name) {
+        final String renamed = pathRenames.rename(name);
+        if (remapper == null || skipTransform) return renamed;
+        return remapper.mapPath(renamed);
     }
 
-    private boolean copyUnmodified(final String path) {
+    boolean copyUnmodified(final String path) {
         if (path.endsWith("META-INF/DEPENDENCIES")) return true;
         if (path.endsWith("META-INF/dependencies.xml")) return true;
         if (path.endsWith("changelog.html")) return true;
@@ -336,7 +714,7 @@ public class Transformation {
         return false;
     }
 
-    private boolean isExcludedJar(final String path) {
+    boolean isExcludedJar(final String path) {
         if (skips != null) {
             Map<String, String> skipsJars = skips.getJars();
             if (!skipsJars.isEmpty()) {
@@ -350,13 +728,13 @@ public class Transformation {
         return false;
     }
 
-    private void scanResource(final String path, InputStream inputStream, final OutputStream outputStream) throws IOException {
+    void scanResource(final String path, InputStream inputStream, final OutputStream outputStream) throws IOException {
 
         {
             final String name = new File(path).getName();
             final String replacement = replacements.getResources().get(name);
             if (replacement != null) {
-                log.info(String.format("Replaced %s", path));
+                log.info("Replaced %s", path);
                 final File file = new File(replacement);
                 if (!file.exists()) {
                     throw new ReplacementNotFoundException("resource", path, file.getAbsolutePath());
@@ -374,15 +752,19 @@ public class Transformation {
         }
 
 
+        final Events.Span event = Events.resourceRewrite(path, Jar.current().getDepth());
+        final byte[] original = IO.readBytes(inputStream);
+        inputStream = new ByteArrayInputStream(original);
+
         if (path.endsWith("openwebbeans.properties")) {
-            inputStream = StreamBuilder.create(inputStream)
+            inputStream = new RuleCountingStreamBuilder(inputStream)
                     .replace("org.apache.webbeans.proxy.mapping.javax.enterprise", "org.apache.webbeans.proxy.mapping.jakarta.enterprise")
                     .replace("\n        /javax, \\\n", "\n        /javax, \\\n        /jakarta, \\\n")
                     .replace("javax.enterprise.inject.allowProxying.classes", "jakarta.enterprise.inject.allowProxying.classes")
                     .get();
         }
 
-        inputStream = StreamBuilder.create(inputStream)
+        inputStream = new RuleCountingStreamBuilder(inputStream)
                 .replace("javax.activation", "jakarta.activation")
                 .replace("javax.annotation", "jakarta.annotation")
                 .replace("javax.batch", "jakarta.batch")
@@ -499,48 +881,138 @@ public class Transformation {
 
                 .get();
 
-        IO.copy(inputStream, outputStream);
+        final byte[] buffer = new byte[8192];
+        long written = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+            written += read;
+        }
+        event.size(original.length, written).finish();
     }
 
-    private static boolean isZip(final String path) {
+    /**
+     * Reports each token a resource rule replaces to {@link Events#ruleHit()}
+     */
+    private static class RuleCountingStreamBuilder extends StreamBuilder {
+        private RuleCountingStreamBuilder(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public StreamBuilder replace(final String token, final String with) {
+            return replace(token, (StringHandler) s -> {
+                Events.ruleHit();
+                return with;
+            });
+        }
+    }
+
+    static boolean isZip(final String path) {
         return Is.Zip.accept(path);
     }
 
-    private void scanClass(final InputStream in, final OutputStream outputStream) throws IOException {
+    /**
+     * Writes the class with the rules and package renames applied, or the
+     * original bytes when none of them changed anything.  ASM orders the
+     * constant pool unlike javac, so the rewritten bytes cannot tell.
+     *
+     * @return whether the class was changed
+     */
+    boolean scanClass(final InputStream in, final OutputStream outputStream) throws IOException {
 
         // in case we don't want to apply any transformation. Only replacement will happen
         if (skipTransform) {
             IO.copy(in, outputStream);
-            return;
+            return false;
         }
 
+        final byte[] original = IO.readBytes(in);
+
+        // Classes no rule and no package rename can apply to are copied as they are
+        if (!rewriters.mayRewrite(original) && (remapper == null || !remapper.mayRemap(original))) {
+            outputStream.write(original);
+            return false;
+        }
+
+        final Events.Span event = Events.classRewrite(Jar.current().getDepth());
         final ClassWriter classWriter = new ClassWriter(Opcodes.ASM9);
-        final ClassTransformer classTransformer = new ClassTransformer(classWriter);
-        final ClassReader classReader = new ClassReader(in);
-        classReader.accept(classTransformer, 0);
-        final byte[] bytes = classWriter.toByteArray();
+        final ClassTransformer classTransformer = new ClassTransformer(classWriter, rewriters);
+        final CountingRemapper renames = remapper == null ? null : new CountingRemapper(remapper);
+        final ClassVisitor classVisitor = renames == null ? classTransformer : new ClassRemapper(classTransformer, renames);
+        final ClassReader classReader = new ClassReader(original);
+        classReader.accept(classVisitor, 0);
+
+        final boolean changed = classTransformer.getRewrites() > 0 || renames != null && renames.getRenames() > 0;
+        final byte[] bytes = changed ? classWriter.toByteArray() : original;
         outputStream.write(bytes);
+        event.path(classReader.getClassName() + ".class")
+                .size(original.length, bytes.length)
+                .finish();
+        return changed;
+    }
+
+    /**
+     * Counts the names the shared remapper changed while rewriting one class
+     */
+    private static class CountingRemapper extends Remapper {
+        private final Remapper remapper;
+        private int renames;
+
+        private CountingRemapper(final Remapper remapper) {
+            this.remapper = remapper;
+        }
+
+        @Override
+        public String map(final String internalName) {
+            return count(internalName, remapper.map(internalName));
+        }
+
+        @Override
+        public String mapPackageName(final String name) {
+            return count(name, remapper.mapPackageName(name));
+        }
+
+        private String count(final String name, final String mapped) {
+            if (!name.equals(mapped)) renames++;
+            return mapped;
+        }
+
+        public int getRenames() {
+            return renames;
+        }
     }
 
-    public void complete() {
+    /**
+     * Logs the patches the calls that shared this AppliedPatches added and
+     * fails if any patch class was added to no archive
+     */
+    public void complete(final AppliedPatches applied) {
         final List<Clazz> appliedPatches = classes.stream()
-                .filter(Clazz::isApplied)
+                .filter(applied::isApplied)
                 .collect(Collectors.toList());
 
         final List<Clazz> unappliedPatches = classes.stream()
-                .filter(not(Clazz::isApplied))
+                .filter(not(applied::isApplied))
                 .collect(Collectors.toList());
 
-        final int applied = appliedPatches.stream()
-                .map(Clazz::getApplied)
+        final int locations = appliedPatches.stream()
+                .map(applied::getApplied)
                 .reduce(Integer::sum)
                 .orElse(0);
 
-        log.info(String.format("Applied %s patches to %s locations", appliedPatches.size(), applied));
-        appliedPatches.stream()
-                .map(Clazz::getName)
-                .map(s -> "  " + s)
-                .forEach(log::debug);
+        log.info("Applied %s patches to %s locations", appliedPatches.size(), locations);
+        if (log.isDebugEnabled()) {
+            appliedPatches.stream()
+                    .map(Clazz::getName)
+                    .map(s -> "  " + s)
+                    .forEach(log::debug);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("String constants: %s hits, %s misses (%.1f%% hit rate), %s skipped by prefilter",
+                    rewriters.getHits(), rewriters.getMisses(), rewriters.getHitRate() * 100, rewriters.getFiltered());
+        }
 
         if (unappliedPatches.size() > 0) {
             final String message = String.format("Failed to apply %s patches", unappliedPatches.size());
@@ -556,18 +1028,22 @@ public class Transformation {
     public static class Jar {
         private static final ThreadLocal<Jar> current = ThreadLocal.withInitial(Jar::new);
 
-        private final Set<Clazz> patches = new HashSet<>();
+        // Sorted, so patches are added in the same order every time
+        private final Set<Clazz> patches = new TreeSet<>(Comparator.comparing(Clazz::getName));
         private final String name;
         private final Jar parent;
+        private final AppliedPatches applied;
 
         private Jar() {
             this.name = "";
             this.parent = null;
+            this.applied = null;
         }
 
-        private Jar(final String name, Jar parent) {
+        private Jar(final String name, final Jar parent, final AppliedPatches applied) {
             this.name = name;
             this.parent = parent;
+            this.applied = applied;
         }
 
         public String getName() {
@@ -575,10 +1051,19 @@ public class Transformation {
         }
 
         public String getPath() {
-            if (parent == null) return name;
+            // The unnamed root contributes no path segment
+            if (parent == null || parent.parent == null) return name;
             return parent.getPath() + "/" + name;
         }
 
+        /**
+         * 1 for the archive being transformed, 2 for the archives it contains and so on
+         */
+        public int getDepth() {
+            if (parent == null) return 0;
+            return parent.getDepth() + 1;
+        }
+
         public boolean hasPatches() {
             return patches.size() > 0;
         }
@@ -587,9 +1072,17 @@ public class Transformation {
             return current.get();
         }
 
+        /**
+         * Enters an archive nested in the current one, whose patches are
+         * counted with those of its parent
+         */
         public static Jar enter(final String name) {
+            return enter(name, current.get().applied);
+        }
+
+        public static Jar enter(final String name, final AppliedPatches applied) {
             final Jar old = current.get();
-            current.set(new Jar(name, old));
+            current.set(new Jar(name, old, applied));
             return old;
         }
 
@@ -612,7 +1105,7 @@ public class Transformation {
         }
     }
 
-    private boolean isPatched(final String path, final Jar jar) {
+    boolean isPatched(final String path, final Jar jar) {
         final String classPackage = path.endsWith(".class") ? Clazz.asPackage(path) : null;
 
         boolean patchedClass = false;
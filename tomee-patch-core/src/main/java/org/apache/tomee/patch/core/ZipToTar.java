@@ -66,7 +66,9 @@ public class ZipToTar {
                 int mode = UnixStat.FILE_FLAG | 0644;
                 final Integer override = FileMode.overrideModeFor(name, zip.isDirectory(), modeOverrides);
                 if (override != null) {
-                    log.info(String.format("Overriding file mode %o -> %o for %s", mode & 0777, override & 0777, name));
+                    if (log.isInfoEnabled()) {
+                        log.info("Overriding file mode %o -> %o for %s", mode & 0777, override & 0777, name);
+                    }
                     tarEntry.setMode(override);
                 }
 
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import jdk.jfr.EventType;
+
+/**
+ * Java Flight Recorder events emitted by {@link Transformation}.
+ *
+ * This is the Java 11 version, packaged under META-INF/versions/11.  An
+ * event object is only created when its type is enabled in a running
+ * recording, otherwise the shared no-op span is returned.
+ */
+public class Events {
+
+    /**
+     * An event in progress.  Setters that do not apply to an event are ignored.
+     */
+    public interface Span {
+        Span path(String path);
+
+        Span size(long bytesIn, long bytesOut);
+
+        Span entries(int entries);
+
+        /**
+         * Ends the event and records it if it passes the recording's threshold
+         */
+        void finish();
+    }
+
+    private static final Span NONE = new Span() {
+        @Override
+        public Span path(final String path) {
+            return this;
+        }
+
+        @Override
+        public Span size(final long bytesIn, final long bytesOut) {
+            return this;
+        }
+
+        @Override
+        public Span entries(final int entries) {
+            return this;
+        }
+
+        @Override
+        public void finish() {
+        }
+    };
+
+    private static final EventType ARCHIVE = EventType.getEventType(ArchiveTransformEvent.class);
+    private static final EventType ENTRY = EventType.getEventType(EntryTransformEvent.class);
+    private static final EventType CLASS = EventType.getEventType(ClassRewriteEvent.class);
+    private static final EventType RESOURCE = EventType.getEventType(ResourceRewriteEvent.class);
+
+    private static final ThreadLocal<int[]> RULES = ThreadLocal.withInitial(() -> new int[1]);
+
+    private Events() {
+    }
+
+    public static Span archive(final String path, final int depth) {
+        if (!ARCHIVE.isEnabled()) return NONE;
+        return begin(new ArchiveTransformEvent(), path, depth);
+    }
+
+    public static Span entry(final String path, final int depth) {
+        if (!ENTRY.isEnabled()) return NONE;
+        return begin(new EntryTransformEvent(), path, depth);
+    }
+
+    public static Span classRewrite(final int depth) {
+        if (!CLASS.isEnabled()) return NONE;
+        return begin(new ClassRewriteEvent(), null, depth);
+    }
+
+    public static Span resourceRewrite(final String path, final int depth) {
+        if (!RESOURCE.isEnabled()) return NONE;
+        return begin(new ResourceRewriteEvent(), path, depth);
+    }
+
+    /**
+     * Called by {@link StringRewriter}, {@link Replace}, {@link PackageRemapper}
+     * and the resource rules each time a rule changes a string or package
+     */
+    static void ruleHit() {
+        if (ARCHIVE.isEnabled() || ENTRY.isEnabled() || CLASS.isEnabled() || RESOURCE.isEnabled()) RULES.get()[0]++;
+    }
+
+    static int rulesHit() {
+        return RULES.get()[0];
+    }
+
+    private static Span begin(final TransformEvent event, final String path, final int depth) {
+        event.path = path;
+        event.depth = depth;
+        event.rulesAtBegin = rulesHit();
+        event.begin();
+        return event;
+    }
+}
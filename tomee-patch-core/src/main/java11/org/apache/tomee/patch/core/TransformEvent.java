@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+
+/**
+ * Fields shared by the transformation events.  Sizes are uncompressed
+ * bytes and are -1 when unknown.
+ */
+@Category("TomEE Patch")
+abstract class TransformEvent extends jdk.jfr.Event implements Events.Span {
+
+    @Label("Path")
+    String path;
+
+    @Label("Depth")
+    @Description("1 for the archive being transformed, 2 for the archives it contains and so on")
+    int depth;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn = -1;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut = -1;
+
+    @Label("Rules Hit")
+    @Description("Number of times a rule renamed a package or changed a string while the event was in progress")
+    int rules;
+
+    /**
+     * Rule hits of this thread when the event began, not recorded
+     */
+    transient int rulesAtBegin;
+
+    @Override
+    public Events.Span path(final String path) {
+        this.path = path;
+        return this;
+    }
+
+    @Override
+    public Events.Span size(final long bytesIn, final long bytesOut) {
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        return this;
+    }
+
+    @Override
+    public Events.Span entries(final int entries) {
+        return this;
+    }
+
+    @Override
+    public void finish() {
+        rules = Events.rulesHit() - rulesAtBegin;
+        commit();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.apache.tomee.patch.core.Transform.TestArchive.entries;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ArchiveUpdateTest {
+
+    @Test
+    public void apply() throws Exception {
+        final File colors = Archive.archive()
+                .add("org/example/Red.class", "red")
+                .add("org/example/Green.class", "green")
+                .toJar();
+
+        final File shapes = Archive.archive()
+                .add("org/example/Square.class", "square")
+                .toJar();
+
+        final File war = Archive.archive()
+                .add("WEB-INF/web.xml", "<web-app/>")
+                .add("WEB-INF/lib/colors.jar", colors)
+                .add("WEB-INF/lib/shapes.jar", shapes)
+                .toJar();
+
+        final File patches = Files.tmpdir();
+        final File red = write(patches, "org/example/Red.class", "patched red");
+        final File inner = write(patches, "org/example/Red$1.class", "red inner");
+        final File unrelated = write(patches, "org/example/Circle.class", "circle");
+
+        final File resources = Files.tmpdir();
+        final File properties = write(resources, "META-INF/colors.properties", "red=ff0000");
+
+        final Additions additions = new Additions();
+        additions.getResources().put("colors.jar", "META-INF/.*\\.properties");
+
+        final int updated = new ArchiveUpdate(new NullLog())
+                .classes(patches, Arrays.asList(red, inner, unrelated))
+                .resources(resources, Arrays.asList(properties), additions)
+                .apply(war);
+
+        assertEquals(3, updated);
+
+        final Map<String, byte[]> outer = entries(IO.read(war));
+        assertEquals("<web-app/>", new String(outer.get("WEB-INF/web.xml")));
+        assertEquals(3, outer.size());
+
+        final Map<String, byte[]> updatedColors = entries(new ByteArrayInputStream(outer.get("WEB-INF/lib/colors.jar")));
+        assertEquals("patched red", new String(updatedColors.get("org/example/Red.class")));
+        assertEquals("red inner", new String(updatedColors.get("org/example/Red$1.class")));
+        assertEquals("green", new String(updatedColors.get("org/example/Green.class")));
+        assertEquals("red=ff0000", new String(updatedColors.get("META-INF/colors.properties")));
+        assertFalse(updatedColors.containsKey("org/example/Circle.class"));
+
+        // untouched nested archives are copied as they were
+        assertEquals(Arrays.toString(IO.readBytes(shapes)), Arrays.toString(outer.get("WEB-INF/lib/shapes.jar")));
+    }
+
+    @Test
+    public void deleted() throws Exception {
+        final File jar = Archive.archive()
+                .add("org/example/Red.class", "patched red")
+                .add("org/example/Red$1.class", "red inner")
+                .add("META-INF/colors.properties", "red=ff0000")
+                .add("META-INF/shapes.properties", "square=4")
+                .toJar();
+
+        final File patches = Files.tmpdir();
+        final File resources = Files.tmpdir();
+
+        final Additions additions = new Additions();
+        additions.getResources().put(jar.getName(), "META-INF/colors\\.properties");
+
+        final int updated = new ArchiveUpdate(new NullLog())
+                .classes(patches, Arrays.asList(new File(patches, "org/example/Red.class"), new File(patches, "org/example/Red$1.class")))
+                .resources(resources, Arrays.asList(new File(resources, "META-INF/colors.properties")), additions)
+                .apply(jar);
+
+        assertEquals(2, updated);
+
+        // The original Red is gone from the patched archive, so the patch stays
+        final Map<String, byte[]> entries = entries(jar);
+        assertEquals("patched red", new String(entries.get("org/example/Red.class")));
+        assertEquals("square=4", new String(entries.get("META-INF/shapes.properties")));
+        assertEquals(2, entries.size());
+    }
+
+    @Test
+    public void nothingToDo() throws Exception {
+        final File jar = Archive.archive()
+                .add("org/example/Red.class", "red")
+                .toJar();
+        final long modified = jar.lastModified();
+
+        final File patches = Files.tmpdir();
+        final File blue = write(patches, "org/example/Blue.class", "blue");
+
+        assertEquals(0, new ArchiveUpdate(new NullLog()).classes(patches, Arrays.asList(blue)).apply(jar));
+        assertEquals(modified, jar.lastModified());
+    }
+
+    private static File write(final File root, final String path, final String content) throws Exception {
+        final File file = new File(root, path);
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+        return file;
+    }
+}
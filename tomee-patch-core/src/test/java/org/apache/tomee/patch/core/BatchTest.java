@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.tomee.patch.core.Bytecode.clazz;
+import static org.apache.tomee.patch.core.Transform.TestArchive.entry;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+
+    @Test
+    public void transform() throws Exception {
+        final byte[] original = clazz("org/example/Red", "java/lang/Object");
+        final byte[] patch = clazz("org/example/Red", "java/lang/Number");
+
+        final File patches = Files.tmpdir();
+        final File red = new File(patches, "org/example/Red.class");
+        Files.mkdirs(red.getParentFile());
+        IO.copy(patch, red);
+
+        final File customers = Files.tmpdir();
+        final File acme = new File(customers, "acme/app.war");
+        Files.mkdirs(acme.getParentFile());
+        IO.copy(Archive.archive()
+                .add("WEB-INF/web.xml", "<web-app/>")
+                .add("META-INF/ejb.properties", "factory=javax.ejb.EJBHome")
+                .toJar(), acme);
+
+        final File colors = Archive.archive()
+                .add("org/example/Red.class", original)
+                .toJar();
+
+        final List<Clazz> classes = Batch.classes(Collections.singletonList(patches));
+        assertEquals(1, classes.size());
+        assertEquals("org/example/Red.class", classes.get(0).getName());
+
+        final Transformation transformation = new Transformation(classes, new File("does not exist"), null, null,
+                null, null, new NullLog(), false);
+
+        final File output = Files.tmpdir();
+        final Batch batch = new Batch(transformation, 2, new NullLog());
+        final List<File> transformed = batch.transform(Arrays.asList(customers, colors), output);
+
+        transformation.complete(batch.getApplied());
+
+        assertEquals(2, transformed.size());
+        assertTrue(transformed.contains(new File(output, "acme/app.war")));
+        assertTrue(transformed.contains(new File(output, colors.getName())));
+
+        assertEquals("factory=jakarta.ejb.EJBHome",
+                new String(entry(new File(output, "acme/app.war"), "META-INF/ejb.properties")));
+        assertArrayEquals(patch, entry(new File(output, colors.getName()), "org/example/Red.class"));
+    }
+}
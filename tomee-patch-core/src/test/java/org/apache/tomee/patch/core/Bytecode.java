@@ -19,10 +19,15 @@ package org.apache.tomee.patch.core;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.tomitribe.util.IO;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @version $Revision$ $Date$
@@ -59,4 +64,56 @@ public class Bytecode {
         cr.accept(classAdapter, ClassReader.EXPAND_FRAMES);
     }
 
+    /**
+     * An empty class extending Object
+     */
+    public static byte[] clazz(final String name) {
+        return clazz(name, "java/lang/Object");
+    }
+
+    /**
+     * An empty class, which tests tell apart from a patch by its superclass
+     */
+    public static byte[] clazz(final String name, final String superName) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * A class whose static name() method returns the constant
+     */
+    public static byte[] returning(final String name, final String constant) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "name", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitLdcInsn(constant);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(1, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * The string operands of the ldc instructions of every method
+     */
+    public static List<String> constants(final byte[] bytes) {
+        final List<String> constants = new ArrayList<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor, final String signature, final String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitLdcInsn(final Object value) {
+                        constants.add((String) value);
+                    }
+                };
+            }
+        }, 0);
+        return constants;
+    }
+
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Flight Recorder events are only in META-INF/versions/11, which a
+ * classes directory does not honor, so the transformation runs from a
+ * multi-release jar of the compiled classes.
+ */
+public class EventsTest {
+
+    private static final String PROPERTIES = "javax.persistence.jdbc.url=jdbc:hsqldb:mem:red\n" +
+            "javax.persistence.jdbc.user=sa\n";
+
+    @Test
+    public void bytesAndRules() throws Exception {
+        final File classes = new File(Transformation.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Assume.assumeTrue("Java 11 events not compiled", new File(classes, "META-INF/versions/11").isDirectory());
+
+        final File jar = Archive.archive()
+                .add("META-INF/persistence.properties", PROPERTIES)
+                .add("org/example/Red.class", Bytecode.returning("org/example/Red", "javax.persistence.EntityManager"))
+                .toJar();
+
+        final Path dump = new File(Files.tmpdir(), "events.jfr").toPath();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{multiRelease(classes).toURI().toURL()}, new Isolated());
+             Recording recording = new Recording()) {
+
+            for (final String name : new String[]{"ArchiveTransform", "EntryTransform", "ClassRewrite", "ResourceRewrite"}) {
+                recording.enable("org.apache.tomee.patch." + name).withoutThreshold();
+            }
+            recording.start();
+
+            final Object transformation = loader.loadClass(Transformation.class.getName()).getConstructor().newInstance();
+            try (InputStream in = IO.read(jar)) {
+                transformation.getClass().getMethod("transform", InputStream.class, OutputStream.class)
+                        .invoke(transformation, in, new ByteArrayOutputStream());
+            }
+
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+
+        // Each of the two javax.persistence keys is one rule hit, 2 bytes longer
+        final RecordedEvent resource = single(events, "ResourceRewrite");
+        assertEquals("META-INF/persistence.properties", resource.getString("path"));
+        assertEquals(PROPERTIES.length(), resource.getLong("bytesIn"));
+        assertEquals(PROPERTIES.length() + 4, resource.getLong("bytesOut"));
+        assertEquals(2, resource.getInt("rules"));
+
+        final RecordedEvent clazz = single(events, "ClassRewrite");
+        assertEquals("org/example/Red.class", clazz.getString("path"));
+        assertEquals(1, clazz.getInt("rules"));
+        assertEquals(clazz.getLong("bytesIn") + 2, clazz.getLong("bytesOut"));
+
+        final List<RecordedEvent> entries = all(events, "EntryTransform");
+        assertEquals(2, entries.size());
+        final int entryRules = entries.stream().mapToInt(event -> event.getInt("rules")).sum();
+        assertEquals(3, entryRules);
+
+        final RecordedEvent archive = single(events, "ArchiveTransform");
+        assertEquals(2, archive.getInt("entries"));
+        assertEquals(entryRules, archive.getInt("rules"));
+    }
+
+    private static RecordedEvent single(final List<RecordedEvent> events, final String name) {
+        final List<RecordedEvent> list = all(events, name);
+        assertEquals(name, 1, list.size());
+        return list.get(0);
+    }
+
+    private static List<RecordedEvent> all(final List<RecordedEvent> events, final String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals("org.apache.tomee.patch." + name))
+                .collect(Collectors.toList());
+    }
+
+    private static File multiRelease(final File classes) throws Exception {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+
+        final File jar = new File(Files.tmpdir(), "tomee-patch-core.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            final int prefix = classes.getAbsolutePath().length() + 1;
+            for (final File file : Files.collect(classes, ".*\\.class")) {
+                out.putNextEntry(new JarEntry(file.getAbsolutePath().substring(prefix).replace(File.separatorChar, '/')));
+                IO.copy(file, out);
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * Hides the core classes of the test classpath so the jar's own are used
+     */
+    private static class Isolated extends ClassLoader {
+        private Isolated() {
+            super(EventsTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("org.apache.tomee.patch.core.")) throw new ClassNotFoundException(name);
+            return super.loadClass(name, resolve);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.apache.tomee.patch.core.Bytecode.clazz;
+import static org.apache.tomee.patch.core.Transform.TestArchive.entries;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExplodedArchiveTest {
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    @Test
+    public void explode() throws Exception {
+        final File zip = distribution();
+        final Map<String, byte[]> expected = entries(IO.readBytes(transformation().transformArchive(zip)));
+
+        final File directory = Files.tmpdir();
+        final Transformation transformation = transformation();
+        assertEquals(expected.size(), transformation.explodeArchive(zip, directory));
+
+        for (final Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), IO.readBytes(new File(directory, entry.getKey())));
+        }
+
+        // Signature files are dropped and nested archives stay archives
+        assertFalse(new File(directory, "META-INF/TOMEE.SF").exists());
+        assertTrue(new File(directory, "lib/app.jar").isFile());
+
+        if (POSIX) {
+            assertEquals("rwxr-xr-x", permissions(new File(directory, "bin/startup.sh")));
+            assertEquals("rw-r--r--", permissions(new File(directory, "README.txt")));
+            assertEquals("rwx------", permissions(new File(directory, "conf")));
+            assertEquals("rw-------", permissions(new File(directory, "conf/tomcat-users.xml")));
+        }
+    }
+
+    @Test
+    public void patches() throws Exception {
+        final File patches = Files.tmpdir();
+        final File patch = new File(patches, "org/example/Red.class");
+        Files.mkdirs(patch.getParentFile());
+        IO.copy(clazz("org/example/Red", "java/lang/Number"), patch);
+
+        final File zip = Archive.archive()
+                .add("org/example/Red.class", clazz("org/example/Red", "java/lang/Object"))
+                .toJar();
+
+        final Transformation transformation = new Transformation(Batch.classes(Collections.singletonList(patches)),
+                new File("does not exist"), null, null, null, null, new NullLog(), false);
+
+        final File directory = Files.tmpdir();
+        final AppliedPatches applied = new AppliedPatches();
+        transformation.explodeArchive(zip, directory, applied);
+
+        assertArrayEquals(IO.readBytes(patch), IO.readBytes(new File(directory, "org/example/Red.class")));
+        transformation.complete(applied);
+    }
+
+    @Test(expected = IOException.class)
+    public void outside() throws Exception {
+        final File zip = File.createTempFile("slip", ".zip");
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip)) {
+            add(out, "../../evil.txt", 0, "evil".getBytes());
+        }
+
+        transformation().explodeArchive(zip, Files.tmpdir());
+    }
+
+    @Test
+    public void batch() throws Exception {
+        final File zip = distribution();
+        final File output = Files.tmpdir();
+
+        final Batch batch = new Batch(transformation(), 2, new NullLog());
+        batch.setExploded(true);
+        final File exploded = batch.transform(Collections.singletonList(zip), output).get(0);
+
+        final String name = zip.getName();
+        assertEquals(new File(output, name.substring(0, name.lastIndexOf('.'))), exploded);
+        assertEquals("no javax in here", new String(IO.readBytes(new File(exploded, "README.txt"))));
+
+        // A second run replaces what the first one wrote
+        final File stale = new File(exploded, "stale.txt");
+        IO.copy("stale".getBytes(), stale);
+        batch.transform(Collections.singletonList(zip), output);
+        assertFalse(stale.exists());
+    }
+
+    private static Transformation transformation() {
+        final FileMode users = new FileMode();
+        users.setPattern("conf/tomcat-users\\.xml");
+        users.setMode("0600");
+
+        return new Transformation(Collections.emptyList(), new File("does not exist"), null, null,
+                Collections.singletonList(users), null, new NullLog(), false);
+    }
+
+    private static File distribution() throws Exception {
+        final byte[] app = IO.readBytes(Archive.archive()
+                .add("META-INF/ejb.properties", "factory=javax.ejb.EJBHome")
+                .toJar());
+
+        final File zip = File.createTempFile("tomee", ".zip");
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip)) {
+            add(out, "README.txt", 0, "no javax in here".getBytes());
+            add(out, "bin/startup.sh", UnixStat.FILE_FLAG | 0755, "#!/bin/sh".getBytes());
+
+            final ZipArchiveEntry conf = new ZipArchiveEntry("conf/");
+            conf.setUnixMode(UnixStat.DIR_FLAG | 0700);
+            out.putArchiveEntry(conf);
+            out.closeArchiveEntry();
+
+            add(out, "conf/tomcat-users.xml", UnixStat.FILE_FLAG | 0644, "<tomcat-users/>".getBytes());
+            add(out, "conf/system.properties", UnixStat.FILE_FLAG | 0644, "javax.persistence.provider=x".getBytes());
+            add(out, "lib/app.jar", UnixStat.FILE_FLAG | 0644, app);
+            add(out, "META-INF/TOMEE.SF", 0, "signature".getBytes());
+        }
+        return zip;
+    }
+
+    private static void add(final ZipArchiveOutputStream out, final String name, final int mode, final byte[] bytes) throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        if (mode != 0) entry.setUnixMode(mode);
+        out.putArchiveEntry(entry);
+        out.write(bytes);
+        out.closeArchiveEntry();
+    }
+
+    private static String permissions(final File file) throws IOException {
+        return PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(file.toPath()));
+    }
+}
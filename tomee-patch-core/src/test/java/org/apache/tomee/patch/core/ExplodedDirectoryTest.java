@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+
+import static org.apache.tomee.patch.core.Bytecode.clazz;
+import static org.apache.tomee.patch.core.Transform.TestArchive.entry;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExplodedDirectoryTest {
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    @Test
+    public void mirror() throws Exception {
+        final File source = distribution();
+        final File output = new File(Files.tmpdir(), "patched");
+
+        assertEquals(2, transformation().transformDirectory(source, output));
+
+        assertEquals("javax.persistence.provider=x", read(source, "conf/system.properties"));
+        assertEquals("jakarta.persistence.provider=x", read(output, "conf/system.properties"));
+        assertEquals("factory=jakarta.ejb.EJBHome", new String(entry(new File(output, "lib/app.jar"), "META-INF/ejb.properties")));
+        assertEquals("no javax in here", read(output, "README.txt"));
+        assertFalse(new File(output, "META-INF/TOMEE.SF").exists());
+        assertTrue(new File(output, "logs").isDirectory());
+
+        if (POSIX) {
+            // Unchanged files are links to the originals
+            assertTrue(isSameFile(source, output, "README.txt"));
+            assertTrue(isSameFile(source, output, "bin/startup.sh"));
+            assertFalse(isSameFile(source, output, "conf/system.properties"));
+            assertEquals("rwxr-xr-x", permissions(output, "bin/startup.sh"));
+
+            // Unless their mode is overridden
+            assertFalse(isSameFile(source, output, "conf/tomcat-users.xml"));
+            assertEquals("rw-------", permissions(output, "conf/tomcat-users.xml"));
+            assertEquals("rw-r--r--", permissions(source, "conf/tomcat-users.xml"));
+        }
+    }
+
+    @Test
+    public void inPlace() throws Exception {
+        final File source = distribution();
+        final File readme = new File(source, "README.txt");
+        readme.setLastModified(1_000_000L);
+
+        assertEquals(2, transformation().transformDirectory(source, source));
+
+        assertEquals("jakarta.persistence.provider=x", read(source, "conf/system.properties"));
+        assertEquals("factory=jakarta.ejb.EJBHome", new String(entry(new File(source, "lib/app.jar"), "META-INF/ejb.properties")));
+        assertFalse(new File(source, "META-INF/TOMEE.SF").exists());
+        assertEquals(1_000_000L, readme.lastModified());
+        if (POSIX) assertEquals("rw-------", permissions(source, "conf/tomcat-users.xml"));
+
+        // Nothing left to temp files
+        try (java.util.stream.Stream<Path> paths = java.nio.file.Files.walk(source.toPath())) {
+            assertFalse(paths.anyMatch(path -> path.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void patches() throws Exception {
+        final File patches = Files.tmpdir();
+        final File patch = new File(patches, "org/example/Red.class");
+        Files.mkdirs(patch.getParentFile());
+        IO.copy(clazz("org/example/Red", "java/lang/Number"), patch);
+
+        final File source = distribution();
+        final File red = new File(source, "webapps/ROOT/WEB-INF/classes/org/example/Red.class");
+        Files.mkdirs(red.getParentFile());
+        IO.copy(clazz("org/example/Red", "java/lang/Object"), red);
+
+        final Transformation transformation = Transformation.builder()
+                .classes(Batch.classes(Collections.singletonList(patches)))
+                .pathRenames(Collections.singletonList(rename("webapps/ROOT/WEB-INF/classes/", "")))
+                .build();
+
+        final AppliedPatches applied = new AppliedPatches();
+        transformation.transformDirectory(source, source, applied);
+        transformation.complete(applied);
+
+        assertFalse(red.exists());
+        assertArrayEquals(IO.readBytes(patch), IO.readBytes(new File(source, "org/example/Red.class")));
+    }
+
+    /**
+     * javax.sql stays in javax, so a class using it is not changed even
+     * though ASM would write its constant pool differently
+     */
+    @Test
+    public void javaxUntouched() throws Exception {
+        final File source = distribution();
+        final File pool = new File(source, "webapps/ROOT/WEB-INF/classes/org/example/Pool.class");
+        Files.mkdirs(pool.getParentFile());
+        IO.copy(dataSource("org/example/Pool"), pool);
+        final byte[] original = IO.readBytes(pool);
+
+        final File output = new File(Files.tmpdir(), "patched");
+        final Transformation transformation = Transformation.builder()
+                .remapPackages(true)
+                .build();
+
+        assertEquals(2, transformation.transformDirectory(source, output));
+
+        final String path = "webapps/ROOT/WEB-INF/classes/org/example/Pool.class";
+        assertArrayEquals(original, IO.readBytes(new File(output, path)));
+        if (POSIX) assertTrue(isSameFile(source, output, path));
+    }
+
+    @Test
+    public void batch() throws Exception {
+        final File source = distribution();
+
+        final Batch batch = new Batch(transformation(), 2, new NullLog());
+        batch.setDirectories(true);
+        assertEquals(Collections.singletonList(source),
+                batch.transform(Collections.singletonList(source), source.getParentFile()));
+
+        assertEquals("jakarta.persistence.provider=x", read(source, "conf/system.properties"));
+    }
+
+    private static Transformation transformation() {
+        final FileMode users = new FileMode();
+        users.setPattern("conf/tomcat-users\\.xml");
+        users.setMode("0600");
+
+        return new Transformation(Collections.emptyList(), new File("does not exist"), null, null,
+                Collections.singletonList(users), null, new NullLog(), false);
+    }
+
+    /**
+     * A class with a javax.sql.DataSource field and an unused constant,
+     * which a rewrite through ASM would drop
+     */
+    private static byte[] dataSource(final String name) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.newUTF8("unused");
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "dataSource", "Ljavax/sql/DataSource;", null, null).visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static PathRename rename(final String from, final String to) {
+        final PathRename rename = new PathRename();
+        rename.setFrom(from);
+        rename.setTo(to);
+        return rename;
+    }
+
+    private static File distribution() throws Exception {
+        final File dir = new File(Files.tmpdir(), "apache-tomee");
+        write(dir, "README.txt", "no javax in here");
+        write(dir, "bin/startup.sh", "#!/bin/sh");
+        write(dir, "conf/system.properties", "javax.persistence.provider=x");
+        write(dir, "conf/tomcat-users.xml", "<tomcat-users/>");
+        write(dir, "META-INF/TOMEE.SF", "signature");
+        Files.mkdirs(new File(dir, "logs"));
+
+        final File app = new File(dir, "lib/app.jar");
+        Files.mkdirs(app.getParentFile());
+        IO.copy(Archive.archive()
+                .add("META-INF/ejb.properties", "factory=javax.ejb.EJBHome")
+                .toJar(), app);
+
+        if (POSIX) {
+            java.nio.file.Files.setPosixFilePermissions(new File(dir, "bin/startup.sh").toPath(), PosixFilePermissions.fromString("rwxr-xr-x"));
+            java.nio.file.Files.setPosixFilePermissions(new File(dir, "conf/tomcat-users.xml").toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+            java.nio.file.Files.setPosixFilePermissions(new File(dir, "README.txt").toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+        }
+        return dir;
+    }
+
+    private static void write(final File dir, final String path, final String content) throws IOException {
+        final File file = new File(dir, path);
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+    }
+
+    private static String read(final File dir, final String path) throws IOException {
+        return new String(IO.readBytes(new File(dir, path)));
+    }
+
+    private static boolean isSameFile(final File a, final File b, final String path) throws IOException {
+        return java.nio.file.Files.isSameFile(new File(a, path).toPath(), new File(b, path).toPath());
+    }
+
+    private static String permissions(final File dir, final String path) throws IOException {
+        return PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(new File(dir, path).toPath()));
+    }
+}
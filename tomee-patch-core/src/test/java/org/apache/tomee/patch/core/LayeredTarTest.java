@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LayeredTarTest {
+
+    private static final Map<String, String> ENTRIES = new LinkedHashMap<>();
+
+    static {
+        ENTRIES.put("tomee/bin/catalina.sh", "#!/bin/sh");
+        ENTRIES.put("tomee/conf/server.xml", "<Server/>");
+        ENTRIES.put("tomee/lib/commons-lang3-3.12.0.jar", "commons");
+        ENTRIES.put("tomee/lib/openejb-core-9.0.0.jar", "openejb");
+        ENTRIES.put("tomee/lib/tomee-catalina-9.0.0.jar", "tomee");
+        ENTRIES.put("tomee/webapps/ROOT/index.html", "<html/>");
+        ENTRIES.put("tomee/README.txt", "read me");
+    }
+
+    @Test
+    public void layers() throws Exception {
+        final File zip = zip(ENTRIES, 1_600_000_000_000L);
+
+        final List<LayeredTar.Output> outputs = LayeredTar.toLayers(zip, rules(), null, new NullLog());
+
+        assertEquals(Arrays.asList("tomee", "lib", "webapps", "config", "default"), names(outputs));
+        assertEquals(new File(zip.getParentFile(), "distribution-layers"), outputs.get(0).getFile().getParentFile());
+
+        assertEquals("" +
+                "tomee/ 16877 0\n" +
+                "tomee/lib/ 16877 0\n" +
+                "tomee/lib/openejb-core-9.0.0.jar 33188 7\n" +
+                "tomee/lib/tomee-catalina-9.0.0.jar 33188 5\n", list(outputs.get(0).getFile()));
+
+        assertEquals("" +
+                "tomee/ 16877 0\n" +
+                "tomee/lib/ 16877 0\n" +
+                "tomee/lib/commons-lang3-3.12.0.jar 33188 7\n", list(outputs.get(1).getFile()));
+
+        assertEquals("" +
+                "tomee/ 16877 0\n" +
+                "tomee/bin/ 16877 0\n" +
+                "tomee/bin/catalina.sh 33261 9\n" +
+                "tomee/conf/ 16877 0\n" +
+                "tomee/conf/server.xml 33188 9\n", list(outputs.get(3).getFile()));
+
+        assertEquals("" +
+                "tomee/ 16877 0\n" +
+                "tomee/README.txt 33188 7\n", list(outputs.get(4).getFile()));
+    }
+
+    @Test
+    public void digests() throws Exception {
+        final List<LayeredTar.Output> outputs = LayeredTar.toLayers(zip(ENTRIES, 1_600_000_000_000L), rules(), null, new NullLog());
+
+        final StringBuilder expected = new StringBuilder();
+        for (final LayeredTar.Output output : outputs) {
+            assertEquals(output.getDigest(), "sha256:" + Hashes.sha256(output.getFile()));
+            try (InputStream in = new GZIPInputStream(IO.read(output.getFile()))) {
+                assertEquals(output.getDiffId(), "sha256:" + Hashes.sha256(IO.readBytes(in)));
+            }
+            assertEquals(output.getFile().length(), output.getSize());
+            expected.append(String.format("%s %s %s %s%n", output.getDigest(), output.getDiffId(), output.getSize(), output.getFile().getName()));
+        }
+
+        assertEquals(expected.toString().replace(System.lineSeparator(), "\n"),
+                IO.slurp(new File(outputs.get(0).getFile().getParentFile(), "layers.txt")));
+    }
+
+    /**
+     * The same content in another order and at another time gives the same layers
+     */
+    @Test
+    public void reproducible() throws Exception {
+        final Map<String, String> reversed = new LinkedHashMap<>();
+        final List<String> names = new ArrayList<>(ENTRIES.keySet());
+        Collections.reverse(names);
+        names.forEach(name -> reversed.put(name, ENTRIES.get(name)));
+
+        final List<LayeredTar.Output> first = LayeredTar.toLayers(zip(ENTRIES, 1_600_000_000_000L), rules(), null, new NullLog());
+        final List<LayeredTar.Output> second = LayeredTar.toLayers(zip(reversed, 1_700_000_000_000L), rules(), null, new NullLog());
+
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).getDigest(), second.get(i).getDigest());
+        }
+
+        // Only the layer whose content changed gets a new digest
+        final Map<String, String> updated = new LinkedHashMap<>(ENTRIES);
+        updated.put("tomee/webapps/ROOT/index.html", "<html>updated</html>");
+        final List<LayeredTar.Output> third = LayeredTar.toLayers(zip(updated, 1_700_000_000_000L), rules(), null, new NullLog());
+
+        for (int i = 0; i < first.size(); i++) {
+            if (first.get(i).getName().equals("webapps")) {
+                assertFalse(first.get(i).getDigest().equals(third.get(i).getDigest()));
+            } else {
+                assertEquals(first.get(i).getDigest(), third.get(i).getDigest());
+            }
+        }
+    }
+
+    @Test
+    public void fileModes() throws Exception {
+        final FileMode server = new FileMode();
+        server.setPattern(".*/conf/server\\.xml");
+        server.setMode("0600");
+
+        final List<LayeredTar.Output> outputs = LayeredTar.toLayers(zip(ENTRIES, 1_600_000_000_000L), rules(),
+                Collections.singletonList(server), new NullLog());
+
+        assertEquals("" +
+                "tomee/ 16877 0\n" +
+                "tomee/bin/ 16877 0\n" +
+                "tomee/bin/catalina.sh 33261 9\n" +
+                "tomee/conf/ 16877 0\n" +
+                "tomee/conf/server.xml 33152 9\n", list(outputs.get(3).getFile()));
+    }
+
+    private static List<Layer> rules() {
+        return Arrays.asList(
+                layer("tomee", "[^/]+/lib/(openejb|tomee)-.*\\.jar"),
+                layer("lib", "[^/]+/lib/.*"),
+                layer("webapps", "[^/]+/webapps/.*"),
+                layer("config", "[^/]+/(bin|conf)/.*"));
+    }
+
+    private static Layer layer(final String name, final String pattern) {
+        final Layer layer = new Layer();
+        layer.setName(name);
+        layer.setPattern(pattern);
+        return layer;
+    }
+
+    private static List<String> names(final List<LayeredTar.Output> outputs) {
+        final List<String> names = new ArrayList<>();
+        outputs.forEach(output -> names.add(output.getName()));
+        return names;
+    }
+
+    private static File zip(final Map<String, String> entries, final long time) throws Exception {
+        final File zip = new File(Files.tmpdir(), "distribution.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                final ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(time);
+                out.putNextEntry(zipEntry);
+                out.write(entry.getValue().getBytes());
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static String list(final File tarGz) throws Exception {
+        final StringBuilder out = new StringBuilder();
+        try (TarArchiveInputStream tarIn = new TarArchiveInputStream(new GZIPInputStream(IO.read(tarGz)))) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarIn.getNextEntry()) != null) {
+                assertEquals(LayeredTar.TIME, tarEntry.getModTime().getTime());
+                assertEquals(0, tarEntry.getLongUserId());
+                assertEquals("", tarEntry.getUserName());
+                out.append(tarEntry.getName()).append(' ').append(tarEntry.getMode()).append(' ').append(tarEntry.getSize()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.tomitribe.util.Archive;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.tomee.patch.core.Transform.TestArchive.entries;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackageRemapperTest {
+
+    private final PackageRemapper remapper = new PackageRemapper();
+
+    @Test
+    public void map() {
+        assertEquals("jakarta/servlet/http/HttpServlet", remapper.map("javax/servlet/http/HttpServlet"));
+        assertEquals("jakarta/ws/rs/Path", remapper.map("javax/ws/rs/Path"));
+        assertEquals("jakarta/security/auth/message/AuthStatus", remapper.map("javax/security/auth/message/AuthStatus"));
+
+        // not in the table
+        assertEquals("javax/naming/Context", remapper.map("javax/naming/Context"));
+        assertEquals("javax/security/auth/Subject", remapper.map("javax/security/auth/Subject"));
+        assertEquals("javax/xml/parsers/DocumentBuilder", remapper.map("javax/xml/parsers/DocumentBuilder"));
+        assertEquals("javax/elements/Foo", remapper.map("javax/elements/Foo"));
+
+        // exceptions
+        assertEquals("javax/transaction/xa/XAResource", remapper.map("javax/transaction/xa/XAResource"));
+        assertEquals("javax/annotation/processing/Processor", remapper.map("javax/annotation/processing/Processor"));
+        assertEquals("jakarta/transaction/Transactional", remapper.map("javax/transaction/Transactional"));
+    }
+
+    @Test
+    public void mapPath() {
+        assertEquals("jakarta/servlet/Servlet.class", remapper.mapPath("javax/servlet/Servlet.class"));
+        assertEquals("jakarta/servlet/", remapper.mapPath("javax/servlet/"));
+        assertEquals("WEB-INF/classes/jakarta/ejb/EJB.class", remapper.mapPath("WEB-INF/classes/javax/ejb/EJB.class"));
+        assertEquals("META-INF/versions/9/jakarta/xml/bind/JAXB.class", remapper.mapPath("META-INF/versions/9/javax/xml/bind/JAXB.class"));
+        assertEquals("META-INF/services/jakarta.servlet.ServletContainerInitializer",
+                remapper.mapPath("META-INF/services/javax.servlet.ServletContainerInitializer"));
+
+        assertEquals("javax/sql/DataSource.class", remapper.mapPath("javax/sql/DataSource.class"));
+        assertEquals("META-INF/services/javax.annotation.processing.Processor",
+                remapper.mapPath("META-INF/services/javax.annotation.processing.Processor"));
+        assertEquals("org/example/javax/servlet/Red.class", remapper.mapPath("org/example/javax/servlet/Red.class"));
+    }
+
+    @Test
+    public void transform() throws Exception {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "org/example/Red", null, "javax/servlet/http/HttpServlet",
+                new String[]{"javax/sql/DataSource"});
+        writer.visitField(Opcodes.ACC_PRIVATE, "context", "Ljavax/servlet/ServletContext;", null, null).visitEnd();
+        writer.visitField(Opcodes.ACC_PRIVATE, "names", "Ljava/util/List;", "Ljava/util/List<Ljavax/persistence/EntityManager;>;", null).visitEnd();
+        final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESPECIAL, "javax/servlet/http/HttpServlet", "<init>", "()V", false);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(1, 1);
+        method.visitEnd();
+        writer.visitEnd();
+
+        final File jar = Archive.archive()
+                .add("org/example/Red.class", writer.toByteArray())
+                .add("javax/servlet/Servlet.class", writer.toByteArray())
+                .add("META-INF/services/javax.servlet.ServletContainerInitializer", "org.example.Red")
+                .toJar();
+
+        final Transformation transformation = Transformation.builder()
+                .remapPackages(true)
+                .build();
+        final Map<String, byte[]> entries = entries(transformation.transformArchive(jar));
+
+        assertTrue(entries.containsKey("jakarta/servlet/Servlet.class"));
+        assertTrue(entries.containsKey("META-INF/services/jakarta.servlet.ServletContainerInitializer"));
+
+        final List<String> seen = new ArrayList<>();
+        new ClassReader(entries.get("org/example/Red.class")).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(final int version, final int access, final String name, final String signature,
+                              final String superName, final String[] interfaces) {
+                seen.add(superName);
+                seen.add(interfaces[0]);
+            }
+
+            @Override
+            public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                           final String signature, final Object value) {
+                seen.add(signature == null ? descriptor : signature);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                             final String signature, final String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodInsn(final int opcode, final String owner, final String name,
+                                                final String descriptor, final boolean isInterface) {
+                        seen.add(owner);
+                    }
+                };
+            }
+        }, 0);
+
+        assertEquals("jakarta/servlet/http/HttpServlet", seen.get(0));
+        assertEquals("javax/sql/DataSource", seen.get(1));
+        assertEquals("Ljakarta/servlet/ServletContext;", seen.get(2));
+        assertEquals("Ljava/util/List<Ljakarta/persistence/EntityManager;>;", seen.get(3));
+        assertEquals("jakarta/servlet/http/HttpServlet", seen.get(4));
+    }
+
+    @Test
+    public void offByDefault() throws Exception {
+        final File jar = Archive.archive()
+                .add("META-INF/services/javax.servlet.ServletContainerInitializer", "org.example.Red")
+                .toJar();
+
+        final Map<String, byte[]> entries = entries(new Transformation().transformArchive(jar));
+        assertTrue(entries.containsKey("META-INF/services/javax.servlet.ServletContainerInitializer"));
+    }
+
+    @Test
+    public void mayRemap() {
+        assertTrue(remapper.mayRemap(Bytecode.clazz("org/example/Red", "javax/servlet/http/HttpServlet")));
+        assertFalse(remapper.mayRemap(Bytecode.clazz("org/example/Red", "java/lang/Object")));
+    }
+
+    /**
+     * The string rules prefilter must not let a class that only needs
+     * its packages renamed through unchanged
+     */
+    @Test
+    public void notSkipped() throws Exception {
+        final File jar = Archive.archive()
+                .add("org/example/Red.class", Bytecode.clazz("org/example/Red", "javax/servlet/http/HttpServlet"))
+                .toJar();
+
+        final Transformation transformation = Transformation.builder()
+                .rewriters(new ConstantRewriters() {
+                    @Override
+                    public boolean mayRewrite(final byte[] classFile) {
+                        return false;
+                    }
+                })
+                .remapPackages(true)
+                .build();
+        final Map<String, byte[]> entries = entries(transformation.transformArchive(jar));
+
+        assertEquals("jakarta/servlet/http/HttpServlet", new ClassReader(entries.get("org/example/Red.class")).getSuperName());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.tomee.patch.core.Bytecode.constants;
+import static org.apache.tomee.patch.core.Bytecode.returning;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PatchAgentTest {
+
+    private final ClassLoader loader = new ClassLoader() {
+    };
+
+    @Test
+    public void rewrite() throws Exception {
+        final File cache = Files.tmpdir();
+        final PatchAgent agent = new PatchAgent(Collections.emptyList(), cache, new ConstantRewriters(), new NullLog());
+
+        final byte[] original = returning("org/example/Faces", "javax.faces.FacesServlet");
+        final byte[] rewritten = agent.transform(loader, "org/example/Faces", null, null, original);
+
+        assertEquals(Collections.singletonList("jakarta.faces.FacesServlet"), constants(rewritten));
+        assertEquals(1, agent.getRewritten());
+        assertEquals(0, agent.getCacheHits());
+        assertTrue(new File(cache, PatchAgent.version(new ConstantRewriters())).isDirectory());
+
+        // A second start finds the class in the cache
+        final PatchAgent restarted = new PatchAgent(Collections.emptyList(), cache, new ConstantRewriters(), new NullLog());
+        assertArrayEquals(rewritten, restarted.transform(loader, "org/example/Faces", null, null, original));
+        assertEquals(1, restarted.getCacheHits());
+        assertEquals(0, restarted.getRewritten());
+    }
+
+    @Test
+    public void unchanged() throws Exception {
+        final File cache = Files.tmpdir();
+        final PatchAgent agent = new PatchAgent(Collections.emptyList(), cache, new ConstantRewriters(), new NullLog());
+
+        // Filtered without being parsed or cached
+        assertNull(agent.transform(loader, "org/example/Plain", null, null, returning("org/example/Plain", "hello")));
+        assertEquals(0, new File(cache, PatchAgent.version(new ConstantRewriters())).list().length);
+
+        // Parsed once, as javax.swing matches no rule, then remembered as unchanged
+        final byte[] swing = returning("org/example/Swing", "javax.swing.JFrame");
+        assertNull(agent.transform(loader, "org/example/Swing", null, null, swing));
+        assertNull(agent.transform(loader, "org/example/Swing", null, null, swing));
+        assertEquals(1, agent.getCacheHits());
+        assertEquals(0, agent.getRewritten());
+    }
+
+    @Test
+    public void compiled() throws Exception {
+        final PatchAgent agent = new PatchAgent(Collections.emptyList(), null, new ConstantRewriters(), new NullLog());
+
+        // javac orders the constant pool unlike ASM, which must not count as a change
+        final byte[] original = IO.readBytes(PatchAgentTest.class.getResource("PatchAgentTest$Swing.class"));
+        assertTrue(new ConstantRewriters().mayRewrite(original));
+        assertNull(agent.transform(loader, "org/example/Swing", null, null, original));
+        assertEquals(0, agent.getRewritten());
+    }
+
+    @Test
+    public void version() {
+        final ConstantRewriters more = new ConstantRewriters() {
+            @Override
+            public List<StringRewriter> getAll() {
+                final List<StringRewriter> all = new ArrayList<>(super.getAll());
+                all.add(new StringRewriter().replace("javax.swing", "jakarta.swing"));
+                return all;
+            }
+        };
+        assertEquals(PatchAgent.version(new ConstantRewriters()), PatchAgent.version(new ConstantRewriters()));
+        assertNotEquals(PatchAgent.version(new ConstantRewriters()), PatchAgent.version(more));
+    }
+
+    @Test
+    public void patch() throws Exception {
+        final byte[] patch = returning("org/example/Faces", "patched");
+
+        final File patches = Files.tmpdir();
+        final File file = new File(patches, "org/example/Faces.class");
+        Files.mkdirs(file.getParentFile());
+        IO.copy(patch, file);
+
+        final PatchAgent agent = new PatchAgent(Collections.singletonList(patches), null, new ConstantRewriters(), new NullLog());
+
+        final byte[] original = returning("org/example/Faces", "javax.faces.FacesServlet");
+        assertArrayEquals(patch, agent.transform(loader, "org/example/Faces", null, null, original));
+        assertEquals(1, agent.getPatched());
+    }
+
+    @Test
+    public void excluded() throws Exception {
+        final PatchAgent agent = new PatchAgent(Collections.emptyList(), null, new ConstantRewriters(), new NullLog());
+        final byte[] original = returning("org/example/Faces", "javax.faces.FacesServlet");
+
+        assertNull(agent.transform(null, "org/example/Faces", null, null, original));
+        assertNull(agent.transform(loader, "org/apache/tomee/patch/core/Faces", null, null, original));
+    }
+
+    @Test
+    public void options() {
+        final Map<String, String> options = PatchAgent.options("patches=a" + File.pathSeparator + "b, cache=/tmp/c,verbose");
+        assertEquals("a" + File.pathSeparator + "b", options.get("patches"));
+        assertEquals("/tmp/c", options.get("cache"));
+        assertEquals("true", options.get("verbose"));
+        assertEquals(0, PatchAgent.options(null).size());
+    }
+
+    public static class Swing {
+        public static String name() {
+            return "javax.swing.JFrame";
+        }
+    }
+}
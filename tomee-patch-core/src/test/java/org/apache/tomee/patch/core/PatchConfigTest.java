@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PatchConfigTest {
+
+    @Test
+    public void read() {
+        final Properties properties = new Properties();
+        properties.put("replace.jar.jakarta.faces-3.0.0.jar", "org.glassfish:jakarta.faces:jar:3.0.0");
+        properties.put("replace.resource.openejb-version.properties", "target/openejb-version.properties");
+        properties.put("skip.jar.bcprov-jdk15on-1.69.jar", "org.bouncycastle:bcprov-jdk15on:jar:1.69");
+        properties.put("add.resource.openejb-core-9.0.0.jar", "org/apache/openejb/.*\\.properties");
+        properties.put("fileMode.2.pattern", ".*\\.sh$");
+        properties.put("fileMode.2.mode", "0755");
+        properties.put("fileMode.10.pattern", "^bin/.*");
+        properties.put("fileMode.10.mode", "0750");
+        properties.put("pathRename.1.from", "resources/javax.faces");
+        properties.put("pathRename.1.to", "resources/jakarta.faces");
+        properties.put("remapPackages", "true");
+
+        final PatchConfig config = PatchConfig.from(properties);
+
+        assertEquals("org.glassfish:jakarta.faces:jar:3.0.0", config.getReplacements().getJars().get("jakarta.faces-3.0.0.jar"));
+        assertEquals("target/openejb-version.properties", config.getReplacements().getResources().get("openejb-version.properties"));
+        assertEquals("org.bouncycastle:bcprov-jdk15on:jar:1.69", config.getSkips().getJars().get("bcprov-jdk15on-1.69.jar"));
+        assertEquals("org/apache/openejb/.*\\.properties", config.getAdditions().getResources().get("openejb-core-9.0.0.jar"));
+
+        // numeric order
+        assertEquals(2, config.getFileModes().size());
+        assertEquals(".*\\.sh$", config.getFileModes().get(0).getPattern());
+        assertEquals("0750", config.getFileModes().get(1).getMode());
+
+        assertEquals("resources/jakarta.faces", config.getPathRenames().get(0).getTo());
+        assertTrue(config.isRemapPackages());
+        assertTrue(config.transformation(Collections.emptyList(), new NullLog()).isRemapPackages());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown() {
+        final Properties properties = new Properties();
+        properties.put("replace.jars.foo.jar", "org.example:foo:jar:1.0");
+        PatchConfig.from(properties);
+    }
+
+    @Test
+    public void outputTimestamp() {
+        assertEquals(Long.valueOf(1_700_000_000_000L), PatchConfig.outputTimestamp("1700000000"));
+        assertEquals(Long.valueOf(1_704_067_200_000L), PatchConfig.outputTimestamp("2024-01-01T00:00:00Z"));
+        assertEquals(Long.valueOf(1_704_060_000_000L), PatchConfig.outputTimestamp("2024-01-01T00:00:00+02:00"));
+        assertNull(PatchConfig.outputTimestamp(null));
+        assertNull(PatchConfig.outputTimestamp(""));
+        assertNull(PatchConfig.outputTimestamp("-"));
+
+        final Properties properties = new Properties();
+        properties.put("outputTimestamp", "2024-01-01T00:00:00Z");
+        final PatchConfig config = PatchConfig.from(properties);
+
+        assertEquals(Long.valueOf(1_704_067_200_000L), config.transformation(Collections.emptyList(), new NullLog()).getOutputTimestamp());
+        assertEquals(config.fingerprint(), PatchConfig.from(config.toProperties()).fingerprint());
+    }
+
+    /**
+     * The daemon resolves paths in its own working directory
+     */
+    @Test
+    public void absolutePaths() {
+        final Properties properties = new Properties();
+        properties.put("replace.resource.openejb-version.properties", "target/openejb-version.properties");
+        properties.put("patchResources", "src/patch/resources");
+
+        final Properties written = PatchConfig.from(properties).toProperties();
+
+        assertEquals(new File("target/openejb-version.properties").getAbsolutePath(),
+                written.getProperty("replace.resource.openejb-version.properties"));
+        assertEquals(new File("src/patch/resources").getAbsolutePath(), written.getProperty("patchResources"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidOutputTimestamp() {
+        PatchConfig.outputTimestamp("yesterday");
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.apache.tomee.patch.core.Bytecode.clazz;
+import static org.apache.tomee.patch.core.Transform.TestArchive.entry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatchDaemonTest {
+
+    @Test
+    public void transform() throws Exception {
+        final File patches = Files.tmpdir();
+        final File red = new File(patches, "org/example/Red.class");
+        Files.mkdirs(red.getParentFile());
+        IO.copy(clazz("org/example/Red"), red);
+
+        final File archive = Archive.archive()
+                .add("org/example/Red.class", clazz("org/example/Red"))
+                .add("META-INF/ejb.properties", "factory=javax.ejb.EJBHome")
+                .toJar();
+
+        final PatchConfig config = PatchConfig.of(null, null, null, null, null, null, false, false);
+        final List<File> patchList = Collections.singletonList(patches);
+
+        try (PatchDaemon daemon = new PatchDaemon(0, Files.tmpdir(), 10, 2, new NullLog()).start()) {
+            final PatchClient client = new PatchClient(daemon.getPort());
+            assertTrue(client.isAvailable());
+
+            final File first = File.createTempFile("first", ".jar");
+            assertEquals(Collections.singletonList("org/example/Red.class"),
+                    client.transform(config, patchList, archive, first, new NullLog()));
+            assertEquals("factory=jakarta.ejb.EJBHome", new String(entry(first, "META-INF/ejb.properties")));
+            assertEquals(0, daemon.getCacheHits());
+
+            final File second = File.createTempFile("second", ".jar");
+            assertEquals(Collections.singletonList("org/example/Red.class"),
+                    client.transform(config, patchList, archive, second, new NullLog()));
+            assertEquals("factory=jakarta.ejb.EJBHome", new String(entry(second, "META-INF/ejb.properties")));
+            assertEquals(1, daemon.getCacheHits());
+            assertEquals(2, daemon.getJobs());
+        }
+    }
+
+    @Test
+    public void changedResources() throws Exception {
+        final File resources = Files.tmpdir();
+        final File readme = new File(resources, "README.txt");
+        IO.copy("first".getBytes(), readme);
+
+        final File archive = Archive.archive()
+                .add("org/example/Red.class", clazz("org/example/Red"))
+                .toJar();
+
+        final PatchConfig config = PatchConfig.of(null, null, null, null, null, resources, false, false);
+
+        try (PatchDaemon daemon = new PatchDaemon(0, Files.tmpdir(), 10, 2, new NullLog()).start()) {
+            final PatchClient client = new PatchClient(daemon.getPort());
+
+            client.transform(config, Collections.<File>emptyList(), archive, File.createTempFile("first", ".jar"), new NullLog());
+            IO.copy("second, same name".getBytes(), readme);
+            client.transform(config, Collections.<File>emptyList(), archive, File.createTempFile("second", ".jar"), new NullLog());
+
+            assertEquals(0, daemon.getCacheHits());
+            assertEquals(2, daemon.getJobs());
+        }
+    }
+
+    /**
+     * Patch classes a clean build compiles again to the same bytes
+     */
+    @Test
+    public void recompiledPatches() throws Exception {
+        final File patches = Files.tmpdir();
+        final File red = new File(patches, "org/example/Red.class");
+        Files.mkdirs(red.getParentFile());
+        IO.copy(clazz("org/example/Red"), red);
+        assertTrue(red.setLastModified(1_600_000_000_000L));
+
+        final File archive = Archive.archive()
+                .add("org/example/Red.class", clazz("org/example/Red"))
+                .toJar();
+
+        final PatchConfig config = PatchConfig.of(null, null, null, null, null, null, false, false);
+        final List<File> patchList = Collections.singletonList(patches);
+
+        try (PatchDaemon daemon = new PatchDaemon(0, Files.tmpdir(), 10, 2, new NullLog()).start()) {
+            final PatchClient client = new PatchClient(daemon.getPort());
+
+            client.transform(config, patchList, archive, File.createTempFile("first", ".jar"), new NullLog());
+            IO.copy(clazz("org/example/Red"), red);
+            assertTrue(red.setLastModified(1_700_000_000_000L));
+            client.transform(config, patchList, archive, File.createTempFile("second", ".jar"), new NullLog());
+
+            assertEquals(1, daemon.getCacheHits());
+            assertEquals(2, daemon.getJobs());
+        }
+    }
+
+    @Test
+    public void unauthorized() throws Exception {
+        try (PatchDaemon daemon = new PatchDaemon(0, Files.tmpdir(), 10, 1, new NullLog()).start();
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+
+            final Properties job = new Properties();
+            job.setProperty("archive", "/etc/passwd");
+            job.setProperty("output", Files.tmpdir().getAbsolutePath() + "/out.jar");
+            job.setProperty("token", "guessed");
+            Frames.writeJob(new DataOutputStream(socket.getOutputStream()), job);
+
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(Frames.FAILED, Frames.type(in));
+            assertTrue(Frames.text(in).startsWith("Unauthorized"));
+            assertEquals(0, daemon.getJobs());
+        }
+    }
+
+    @Test
+    public void oversizedFrame() throws Exception {
+        try (PatchDaemon daemon = new PatchDaemon(0, Files.tmpdir(), 10, 1, new NullLog()).start();
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(Frames.VERSION);
+            out.writeByte(Frames.JOB);
+            out.writeInt(Integer.MAX_VALUE);
+            out.flush();
+
+            // The daemon drops the connection instead of allocating the frame
+            socket.setSoTimeout(10000);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void notRunning() throws Exception {
+        final int port;
+        try (PatchDaemon daemon = new PatchDaemon(0, null, 10, 1, new NullLog()).start()) {
+            port = daemon.getPort();
+        }
+        assertFalse(new PatchClient(port).isAvailable());
+        assertFalse(PatchDaemon.tokenFile(port).exists());
+    }
+}
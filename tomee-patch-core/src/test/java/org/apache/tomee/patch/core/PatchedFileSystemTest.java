@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.apache.tomee.patch.core.Bytecode.constants;
+import static org.apache.tomee.patch.core.Bytecode.returning;
+import static org.apache.tomee.patch.core.Transform.TestArchive.entries;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatchedFileSystemTest {
+
+    @Test
+    public void lazy() throws Exception {
+        final File zip = distribution();
+
+        try (FileSystem patched = PatchedFileSystemProvider.open(zip.toPath(), new Transformation())) {
+            final Path faces = patched.getPath("/apps/app.war/WEB-INF/lib/faces.jar/org/example/Faces.class");
+            assertTrue(Files.isRegularFile(faces));
+            assertEquals(Collections.singletonList("jakarta.faces.FacesServlet"), constants(Files.readAllBytes(faces)));
+
+            // Only the entry that was read was transformed, and only once
+            Files.readAllBytes(faces);
+            assertEquals(1, ((PatchedFileSystem) patched).getTransformed());
+
+            assertEquals("factory=jakarta.ejb.EJBHome",
+                    new String(Files.readAllBytes(patched.getPath("/apps/app.war/WEB-INF/classes/ejb.properties"))));
+        }
+    }
+
+    @Test
+    public void sameAsTransformArchive() throws Exception {
+        final File zip = distribution();
+        final Map<String, byte[]> expected = entries(IO.readBytes(new Transformation().transformArchive(zip)));
+
+        try (FileSystem patched = PatchedFileSystemProvider.open(zip.toPath(), new Transformation())) {
+            final List<String> files;
+            try (Stream<Path> walk = Files.walk(patched.getPath("/"))) {
+                files = walk.filter(Files::isRegularFile)
+                        .map(path -> path.toString().substring(1))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            assertEquals(new ArrayList<>(expected.keySet()), files);
+
+            for (final String file : files) {
+                assertArrayEquals(file, expected.get(file), Files.readAllBytes(patched.getPath(file)));
+            }
+
+            // Entries of a nested archive match the nested archive as a whole
+            final Path war = patched.getPath("/apps/app.war");
+            final Map<String, byte[]> nested = entries(Files.readAllBytes(war));
+            for (final Map.Entry<String, byte[]> entry : nested.entrySet()) {
+                assertArrayEquals(entry.getKey(), entry.getValue(), Files.readAllBytes(war.resolve(entry.getKey())));
+            }
+        }
+    }
+
+    @Test
+    public void directories() throws Exception {
+        try (FileSystem patched = PatchedFileSystemProvider.open(distribution().toPath(), new Transformation())) {
+            assertEquals(Arrays.asList("README.txt", "apps"), list(patched.getPath("/")));
+            assertEquals(Collections.singletonList("WEB-INF"), list(patched.getPath("/apps/app.war")));
+            assertEquals(Arrays.asList("classes", "lib"), list(patched.getPath("/apps/app.war/WEB-INF")));
+
+            assertTrue(Files.isDirectory(patched.getPath("/apps")));
+            assertTrue(Files.isDirectory(patched.getPath("apps/app.war/WEB-INF/lib")));
+            assertFalse(Files.isDirectory(patched.getPath("/apps/app.war")));
+
+            // Signature files are left out, as transformArchive does
+            assertFalse(Files.exists(patched.getPath("/apps/app.war/WEB-INF/lib/faces.jar/META-INF/FACES.SF")));
+            assertFalse(Files.exists(patched.getPath("/missing.txt")));
+        }
+    }
+
+    @Test
+    public void readOnly() throws Exception {
+        try (FileSystem patched = PatchedFileSystemProvider.open(distribution().toPath(), new Transformation())) {
+            assertTrue(patched.isReadOnly());
+            try {
+                Files.write(patched.getPath("/README.txt"), new byte[0]);
+                throw new AssertionError("Written");
+            } catch (final ReadOnlyFileSystemException e) {
+                // expected
+            }
+            try {
+                Files.delete(patched.getPath("/README.txt"));
+                throw new AssertionError("Deleted");
+            } catch (final ReadOnlyFileSystemException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Paths opened without a transformation are left to the other providers
+     */
+    @Test
+    public void otherPaths() throws Exception {
+        final File dir = org.tomitribe.util.Files.tmpdir();
+        final File text = new File(dir, "notes.txt");
+        IO.copy("no archive".getBytes(), text);
+
+        for (final File file : Arrays.asList(text, dir)) {
+            try {
+                FileSystems.newFileSystem(file.toPath(), (ClassLoader) null);
+                throw new AssertionError("Opened " + file);
+            } catch (final ProviderNotFoundException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void uri() throws Exception {
+        final File zip = distribution();
+        final PatchedFileSystemProvider provider = new PatchedFileSystemProvider();
+
+        final Map<String, Object> env = new HashMap<>();
+        env.put("transformation", new Transformation());
+        env.put("cacheSize", "1");
+
+        final URI uri = URI.create("tomee-patch:" + zip.toURI());
+        try (FileSystem patched = provider.newFileSystem(uri, env)) {
+            final Path readme = provider.getPath(URI.create(uri + "!/README.txt"));
+            assertEquals("/README.txt", readme.toString());
+            assertEquals("no javax in here", new String(Files.readAllBytes(readme)));
+            assertEquals(readme, provider.getPath(readme.toUri()));
+
+            // Nothing fits in a cache of one byte
+            Files.readAllBytes(readme);
+            assertEquals(2, ((PatchedFileSystem) patched).getTransformed());
+        }
+
+        try {
+            provider.getFileSystem(uri);
+            throw new AssertionError("Still registered");
+        } catch (final FileSystemNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void missing() throws Exception {
+        try (FileSystem patched = PatchedFileSystemProvider.open(distribution().toPath(), new Transformation())) {
+            Files.readAllBytes(patched.getPath("/README.txt/nothing"));
+        }
+    }
+
+    @Test
+    public void paths() throws Exception {
+        try (FileSystem patched = PatchedFileSystemProvider.open(distribution().toPath(), new Transformation())) {
+            final Path path = patched.getPath("/apps", "app.war", "WEB-INF/");
+            assertEquals("/apps/app.war/WEB-INF", path.toString());
+            assertEquals("WEB-INF", path.getFileName().toString());
+            assertEquals("/apps/app.war", path.getParent().toString());
+            assertEquals(3, path.getNameCount());
+            assertEquals("app.war/WEB-INF", path.subpath(1, 3).toString());
+            assertTrue(path.startsWith("/apps"));
+            assertTrue(path.endsWith("app.war/WEB-INF"));
+            assertEquals("/apps/app.war", path.resolve("../lib/..").normalize().toString());
+            assertEquals("../lib", path.relativize(patched.getPath("/apps/app.war/lib")).toString());
+            assertEquals("/apps/app.war/WEB-INF/lib", path.resolve("lib").toString());
+        }
+    }
+
+    private static List<String> list(final Path dir) throws Exception {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static File distribution() throws Exception {
+        final byte[] faces = IO.readBytes(Archive.archive()
+                .add("org/example/Faces.class", returning("org/example/Faces", "javax.faces.FacesServlet"))
+                .add("META-INF/FACES.SF", "signature")
+                .toJar());
+
+        final byte[] war = IO.readBytes(Archive.archive()
+                .add("WEB-INF/classes/ejb.properties", "factory=javax.ejb.EJBHome")
+                .add("WEB-INF/lib/faces.jar", faces)
+                .toJar());
+
+        return Archive.archive()
+                .add("README.txt", "no javax in here")
+                .add("apps/app.war", war)
+                .toJar();
+    }
+}
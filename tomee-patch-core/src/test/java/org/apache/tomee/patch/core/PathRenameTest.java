@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PathRenameTest {
+
+    @Test
+    public void rename() {
+        final PathRename.Trie trie = PathRename.compile(Arrays.asList(
+                new PathRename("META-INF/services/javax.", "META-INF/services/jakarta."),
+                new PathRename("resources/javax.faces", "resources/jakarta.faces"),
+                new PathRename("resources/javax.faces/jsf.js", "resources/jakarta.faces/faces.js")));
+
+        assertEquals("META-INF/services/jakarta.servlet.ServletContainerInitializer",
+                trie.rename("META-INF/services/javax.servlet.ServletContainerInitializer"));
+
+        // matched at the start of any segment
+        assertEquals("META-INF/resources/jakarta.faces/ajax.js", trie.rename("META-INF/resources/javax.faces/ajax.js"));
+
+        // longest rule wins
+        assertEquals("META-INF/resources/jakarta.faces/faces.js", trie.rename("META-INF/resources/javax.faces/jsf.js"));
+
+        // not at a segment boundary
+        final String path = "META-INF/myresources/javax.faces/ajax.js";
+        assertSame(path, trie.rename(path));
+
+        final String other = "org/example/Red.class";
+        assertSame(other, trie.rename(other));
+    }
+
+    @Test
+    public void empty() {
+        final PathRename.Trie trie = PathRename.compile(null);
+        final String path = "META-INF/services/javax.servlet.ServletContainerInitializer";
+        assertSame(path, trie.rename(path));
+    }
+
+    @Test
+    public void transform() throws Exception {
+        final File jar = Archive.archive()
+                .add("META-INF/resources/javax.faces/jsf.js", "var jsf = {};")
+                .add("index.html", "hello")
+                .toJar();
+
+        final Transformation transformation = Transformation.builder()
+                .pathRenames(Arrays.asList(new PathRename("resources/javax.faces", "resources/jakarta.faces")))
+                .build();
+
+        final List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(IO.read(transformation.transformArchive(jar)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+
+        names.sort(String::compareTo);
+        assertEquals(Arrays.asList("META-INF/resources/jakarta.faces/jsf.js", "index.html"), names);
+    }
+}
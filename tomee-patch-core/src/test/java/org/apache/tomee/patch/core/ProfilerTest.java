@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilerTest {
+
+    @Test
+    public void breakdown() throws Exception {
+        final File inner = Archive.archive()
+                .add("META-INF/ejb.properties", "factory=javax.ejb.EJBHome")
+                .add("index.txt", "red,green,blue")
+                .toJar();
+
+        final File zip = Archive.archive()
+                .add("README.txt", "hi")
+                .add("lib/colors.jar", inner)
+                .toJar();
+
+        final Profiler profiler = new Profiler();
+        final Transformation transformation = Transformation.builder()
+                .profiler(profiler)
+                .build();
+        transformation.transformArchive(zip);
+
+        final List<Profiler.JarProfile> jars = profiler.getJars();
+        assertEquals(2, jars.size());
+
+        final Profiler.JarProfile outer = jars.get(0);
+        assertEquals(zip.getName(), outer.getPath());
+        assertEquals(1, outer.getDepth());
+
+        final Profiler.JarProfile nested = jars.get(1);
+        assertEquals(zip.getName() + "/lib/colors.jar", nested.getPath());
+        assertEquals(2, nested.getDepth());
+
+        // Only the properties file is rewritten
+        assertEquals(1, nested.getChanged());
+        assertEquals(1, nested.getUnchanged());
+
+        // The README is untouched and the nested jar is rewritten
+        assertEquals(1, outer.getChanged());
+        assertEquals(1, outer.getUnchanged());
+
+        assertTrue(profiler.getLargestEntries().size() > 0);
+        assertEquals(zip.getName() + "!/lib/colors.jar", profiler.getLargestEntries().get(0).getPath());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.apache.tomee.patch.core.Bytecode.clazz;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReproducibleOutputTest {
+
+    private static final long TIMESTAMP = 1_704_067_200_000L;
+
+    /**
+     * Archives with the same content, dated and moded differently, give the same bytes
+     */
+    @Test
+    public void sameBytes() throws Exception {
+        final File patches = patches();
+        final File resources = resources();
+
+        final File first = zip(1_500_000_000_000L, 0664, 0775);
+        final File second = zip(1_600_000_000_000L, 0644, 0755);
+
+        final byte[] a = IO.readBytes(transformation(patches, resources, TIMESTAMP).transformArchive(first));
+        final byte[] b = IO.readBytes(transformation(patches, resources, TIMESTAMP).transformArchive(second));
+
+        assertArrayEquals(a, b);
+    }
+
+    @Test
+    public void normalized() throws Exception {
+        final File patched = transformation(patches(), resources(), TIMESTAMP)
+                .transformArchive(zip(1_500_000_000_000L, 0664, 0775));
+
+        final long local = TIMESTAMP - TimeZone.getDefault().getOffset(TIMESTAMP);
+
+        final List<String> names = new ArrayList<>();
+        try (ZipFile zip = ZipFile.builder().setFile(patched).get()) {
+            final Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+            while (entries.hasMoreElements()) {
+                final ZipArchiveEntry entry = entries.nextElement();
+                names.add(entry.getName());
+
+                assertEquals(entry.getName(), local, entry.getTime());
+                assertEquals(entry.getName(), 0, entry.getExtraFields().length);
+
+                final int mode = entry.getUnixMode();
+                if (entry.isDirectory()) {
+                    assertEquals(entry.getName(), UnixStat.DIR_FLAG | 0755, mode);
+                } else {
+                    assertEquals(entry.getName(), UnixStat.FILE_FLAG | 0644, mode);
+                }
+            }
+        }
+
+        // Patches and additions are added last, sorted
+        assertEquals(Arrays.asList(
+                "bin/",
+                "bin/catalina.sh",
+                "conf/system.properties",
+                "lib/app.jar",
+                "org/example/Red$A.class",
+                "org/example/Red$M.class",
+                "org/example/Red$Z.class",
+                "org/example/Red.class",
+                "a.txt",
+                "m.txt",
+                "z.txt"), names);
+    }
+
+    /**
+     * Without an output timestamp the times of the original entries are
+     * kept, and patches and additions are added without a unix mode
+     */
+    @Test
+    public void originalTimes() throws Exception {
+        final File patched = transformation(patches(), resources(), null)
+                .transformArchive(zip(1_500_000_000_000L, 0664, 0775));
+
+        try (ZipFile zip = ZipFile.builder().setFile(patched).get()) {
+            assertEquals(1_500_000_000_000L, zip.getEntry("conf/system.properties").getTime());
+            assertEquals(0, zip.getEntry("org/example/Red$A.class").getUnixMode());
+            assertEquals(0, zip.getEntry("a.txt").getUnixMode());
+        }
+    }
+
+    private static Transformation transformation(final File patches, final File resources, final Long timestamp) throws IOException {
+        final Additions additions = new Additions();
+        additions.getResources().put("tomee.zip", ".*\\.txt");
+
+        return Transformation.builder()
+                .classes(Batch.classes(Collections.singletonList(patches)))
+                .patchResources(resources)
+                .additions(additions)
+                .outputTimestamp(timestamp)
+                .build();
+    }
+
+    private static File patches() throws IOException {
+        final File dir = Files.tmpdir();
+        // Created out of order
+        for (final String name : Arrays.asList("Red$Z", "Red", "Red$M", "Red$A")) {
+            final File file = new File(dir, "org/example/" + name + ".class");
+            Files.mkdirs(file.getParentFile());
+            IO.copy(clazz("org/example/" + name), file);
+        }
+        return dir;
+    }
+
+    private static File resources() throws IOException {
+        final File dir = Files.tmpdir();
+        for (final String name : Arrays.asList("z.txt", "a.txt", "m.txt")) {
+            IO.copy(name.getBytes(), new File(dir, name));
+        }
+        return dir;
+    }
+
+    private static File zip(final long time, final int fileMode, final int dirMode) throws IOException {
+        final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(jar)) {
+            add(out, "META-INF/ejb.properties", "factory=javax.ejb.EJBHome".getBytes(), time, fileMode);
+        }
+
+        final File file = new File(Files.tmpdir(), "tomee.zip");
+        try (OutputStream os = IO.write(file); ZipArchiveOutputStream out = new ZipArchiveOutputStream(os)) {
+            final ZipArchiveEntry bin = new ZipArchiveEntry("bin/");
+            bin.setTime(time);
+            bin.setUnixMode(UnixStat.DIR_FLAG | dirMode);
+            out.putArchiveEntry(bin);
+            out.closeArchiveEntry();
+
+            add(out, "bin/catalina.sh", "#!/bin/sh".getBytes(), time, dirMode);
+            add(out, "conf/system.properties", "javax.persistence.provider=x".getBytes(), time, fileMode);
+            add(out, "lib/app.jar", jar.toByteArray(), time, fileMode);
+            add(out, "org/example/Red.class", clazz("org/example/Red"), time, fileMode);
+        }
+        return file;
+    }
+
+    private static void add(final ZipArchiveOutputStream out, final String name, final byte[] bytes, final long time, final int mode) throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(time);
+        entry.setUnixMode(UnixStat.FILE_FLAG | mode);
+        out.putArchiveEntry(entry);
+        out.write(bytes);
+        out.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StringRewriterTest {
+
+    @Test
+    public void rewrite() {
+        final StringRewriter rewriter = new StringRewriter()
+                .replace("javax.faces", "jakarta.faces")
+                .replace("javax.persistence.", "jakarta.persistence.")
+                .prefix("javax.xml.ws.", "jakarta.xml.ws.");
+
+        assertEquals("jakarta.faces.FacesServlet", rewriter.rewrite("javax.faces.FacesServlet"));
+        assertEquals("jakarta.persistence.Id jakarta.faces.A", rewriter.rewrite("javax.persistence.Id javax.faces.A"));
+        assertEquals("jakarta.xml.ws.Service", rewriter.rewrite("javax.xml.ws.Service"));
+
+        // prefix rules only apply at the start
+        final String notPrefix = "see javax.xml.ws.Service";
+        assertSame(notPrefix, rewriter.rewrite(notPrefix));
+    }
+
+    @Test
+    public void memoized() {
+        final StringRewriter rewriter = new StringRewriter()
+                .replace("javax.faces", "jakarta.faces")
+                .replace("javax_faces", "jakarta_faces");
+
+        final String unrelated = "java.lang.String";
+        assertSame(unrelated, rewriter.rewrite(unrelated));
+        assertEquals(1, rewriter.getFiltered());
+        assertEquals(0, rewriter.getMisses());
+
+        final String first = rewriter.rewrite("javax.faces.webapp");
+        final String second = rewriter.rewrite(new String("javax.faces.webapp"));
+        assertEquals("jakarta.faces.webapp", first);
+        assertSame(first, second);
+
+        // contains the needle, but no rule matches
+        final String javax = "javax.servlet.Servlet";
+        assertSame(javax, rewriter.rewrite(javax));
+        assertSame(javax, rewriter.rewrite(javax));
+
+        assertEquals(2, rewriter.getMisses());
+        assertEquals(2, rewriter.getHits());
+        assertEquals(0.5, rewriter.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void bounded() {
+        final StringRewriter rewriter = new StringRewriter(10)
+                .replace("javax.faces", "jakarta.faces");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("jakarta.faces.C" + i, rewriter.rewrite("javax.faces.C" + i));
+        }
+
+        assertTrue(rewriter.size() <= 10);
+    }
+
+    @Test
+    public void needle() {
+        assertEquals("javax.", StringRewriter.common("javax.faces", "org.apache.webbeans.proxy.mapping.javax.enterprise"));
+        assertEquals("javax", StringRewriter.common("javax_faces", "Ljavax/persistence"));
+        assertEquals("", StringRewriter.common("abc", "xyz"));
+    }
+}
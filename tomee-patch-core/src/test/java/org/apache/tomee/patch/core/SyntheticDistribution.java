@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.ModuleVisitor;
+import org.objectweb.asm.Opcodes;
+import org.tomitribe.util.Archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Builds fake TomEE-like distributions for end-to-end benchmarks and tests.
+ *
+ * The zip holds a war with the configured number of jars in WEB-INF/lib.
+ * Each jar has generated classes, a share of which carry javax constants
+ * or javax annotations, along with XML and properties resources, binary
+ * files and, for some jars, a module descriptor or signature files.
+ *
+ * The same settings and seed always produce the same entries with the
+ * same content.
+ */
+public class SyntheticDistribution {
+
+    private static final String[] PACKAGES = {
+            "javax/servlet",
+            "javax/ejb",
+            "javax/persistence",
+            "javax/enterprise/inject",
+            "javax/ws/rs",
+            "javax/xml/bind",
+            "javax/validation",
+            "javax/transaction",
+    };
+
+    private static final String[] ANNOTATIONS = {
+            "Ljavax/ejb/Stateless;",
+            "Ljavax/inject/Inject;",
+            "Ljavax/ws/rs/Path;",
+            "Ljavax/persistence/Entity;",
+            "Ljavax/enterprise/context/ApplicationScoped;",
+    };
+
+    private int jars = 10;
+    private int classes = 50;
+    private double javaxConstants = 0.5;
+    private double annotations = 0.3;
+    private double moduleDescriptors = 0.2;
+    private double signedJars = 0.1;
+    private int resources = 4;
+    private int binaries = 2;
+    private int binarySize = 16 * 1024;
+    private long seed = 42;
+
+    public static SyntheticDistribution distribution() {
+        return new SyntheticDistribution();
+    }
+
+    public SyntheticDistribution jars(final int jars) {
+        this.jars = jars;
+        return this;
+    }
+
+    public SyntheticDistribution classes(final int classes) {
+        this.classes = classes;
+        return this;
+    }
+
+    /**
+     * Share of classes, from 0 to 1, holding javax string constants and signatures
+     */
+    public SyntheticDistribution javaxConstants(final double javaxConstants) {
+        this.javaxConstants = javaxConstants;
+        return this;
+    }
+
+    /**
+     * Share of classes, from 0 to 1, annotated with javax annotations
+     */
+    public SyntheticDistribution annotations(final double annotations) {
+        this.annotations = annotations;
+        return this;
+    }
+
+    /**
+     * Share of jars, from 0 to 1, with a module-info.class
+     */
+    public SyntheticDistribution moduleDescriptors(final double moduleDescriptors) {
+        this.moduleDescriptors = moduleDescriptors;
+        return this;
+    }
+
+    /**
+     * Share of jars, from 0 to 1, with signature files
+     */
+    public SyntheticDistribution signedJars(final double signedJars) {
+        this.signedJars = signedJars;
+        return this;
+    }
+
+    /**
+     * Number of XML and of properties files per jar
+     */
+    public SyntheticDistribution resources(final int resources) {
+        this.resources = resources;
+        return this;
+    }
+
+    public SyntheticDistribution binaries(final int binaries, final int size) {
+        this.binaries = binaries;
+        this.binarySize = size;
+        return this;
+    }
+
+    public SyntheticDistribution seed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public File toZip() throws IOException {
+        final Random random = new Random(seed);
+
+        final Archive war = Archive.archive()
+                .add("WEB-INF/web.xml", xml(random, 20))
+                .add("WEB-INF/beans.xml", xml(random, 2));
+
+        for (int i = 0; i < jars; i++) {
+            war.add("WEB-INF/lib/library-" + i + ".jar", jar(random, i));
+        }
+
+        final Archive distribution = Archive.archive()
+                .add("apache-tomee/bin/catalina.sh", "#!/bin/sh\nexec java -Djavax.net.ssl.trustStore=conf/cacerts \"$@\"\n")
+                .add("apache-tomee/conf/system.properties", properties(random, 40))
+                .add("apache-tomee/conf/server.xml", xml(random, 10))
+                .add("apache-tomee/webapps/tomee.war", war.toJar());
+
+        for (int i = 0; i < binaries; i++) {
+            distribution.add("apache-tomee/lib/native-" + i + ".so", binary(random));
+        }
+
+        return distribution.toJar();
+    }
+
+    private File jar(final Random random, final int index) throws IOException {
+        final String packge = "org/example/library" + index;
+        final Archive jar = Archive.archive()
+                .add("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\nCreated-By: synthetic\n");
+
+        for (int i = 0; i < classes; i++) {
+            final String name = packge + "/Class" + i;
+            jar.add(name + ".class", clazz(random, name));
+        }
+
+        for (int i = 0; i < resources; i++) {
+            jar.add("META-INF/descriptor-" + i + ".xml", xml(random, 5));
+            jar.add(packge.replace('/', '.') + "-" + i + ".properties", properties(random, 20));
+        }
+
+        for (int i = 0; i < binaries; i++) {
+            jar.add(packge + "/data-" + i + ".bin", binary(random));
+        }
+
+        if (random.nextDouble() < moduleDescriptors) {
+            jar.add("module-info.class", module(packge));
+        }
+
+        if (random.nextDouble() < signedJars) {
+            jar.add("META-INF/SIGNER.SF", "Signature-Version: 1.0\nSHA-256-Digest-Manifest: " + random.nextLong() + "\n");
+            jar.add("META-INF/SIGNER.RSA", binary(random));
+        }
+
+        return jar.toJar();
+    }
+
+    private byte[] clazz(final Random random, final String name) {
+        final boolean javax = random.nextDouble() < javaxConstants;
+        final boolean annotated = random.nextDouble() < annotations;
+        final String packge = PACKAGES[random.nextInt(PACKAGES.length)];
+
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+
+        if (annotated) {
+            cw.visitAnnotation(ANNOTATIONS[random.nextInt(ANNOTATIONS.length)], true).visitEnd();
+        }
+
+        if (javax) {
+            final FieldVisitor fv = cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                    "NAME", "Ljava/lang/String;", null, packge.replace('/', '.') + ".Name");
+            fv.visitEnd();
+
+            cw.visitField(Opcodes.ACC_PRIVATE, "delegate", "L" + packge + "/Delegate;", null, null).visitEnd();
+        }
+
+        {
+            final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(1, 1);
+            mv.visitEnd();
+        }
+
+        final int methods = 2 + random.nextInt(6);
+        for (int i = 0; i < methods; i++) {
+            final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitLdcInsn(javax ? packge.replace('/', '.') + ".property" + i : "org.example.property" + i);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;", false);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(2, 2);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] module(final String packge) {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V9, Opcodes.ACC_MODULE, "module-info", null, null, null);
+
+        final ModuleVisitor mv = cw.visitModule(packge.replace('/', '.'), 0, null);
+        mv.visitRequire("java.base", Opcodes.ACC_MANDATED, null);
+        mv.visitRequire("java.xml.bind", 0, null);
+        mv.visitPackage(packge);
+        mv.visitExport(packge, 0);
+        mv.visitUse("javax/xml/bind/JAXBContextFactory");
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static String xml(final Random random, final int elements) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<configuration>\n");
+        for (int i = 0; i < elements; i++) {
+            final String packge = PACKAGES[random.nextInt(PACKAGES.length)].replace('/', '.');
+            sb.append("  <entry name=\"entry").append(i).append("\" type=\"").append(packge).append(".Type").append(i).append("\">\n")
+                    .append("    <value>").append(random.nextInt()).append("</value>\n")
+                    .append("  </entry>\n");
+        }
+        sb.append("</configuration>\n");
+        return sb.toString();
+    }
+
+    private static String properties(final Random random, final int lines) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (random.nextBoolean()) {
+                sb.append("key").append(i).append('=').append(PACKAGES[random.nextInt(PACKAGES.length)].replace('/', '.')).append(".Value\n");
+            } else {
+                sb.append("key").append(i).append("=org.example.Value").append(random.nextInt(1000)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private byte[] binary(final Random random) {
+        final byte[] bytes = new byte[binarySize];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
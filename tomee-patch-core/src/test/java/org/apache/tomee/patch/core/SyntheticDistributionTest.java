@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticDistributionTest {
+
+    @Test
+    public void sameSeedSameContent() throws Exception {
+        final SyntheticDistribution distribution = SyntheticDistribution.distribution()
+                .jars(3)
+                .classes(10);
+
+        assertEquals(contents(distribution.toZip()), contents(distribution.toZip()));
+    }
+
+    @Test
+    public void transform() throws Exception {
+        final File zip = SyntheticDistribution.distribution()
+                .jars(3)
+                .classes(10)
+                .javaxConstants(1)
+                .signedJars(1)
+                .toZip();
+
+        final Map<String, String> before = contents(zip);
+        final Map<String, String> after = contents(Transformation.transform(zip));
+
+        assertTrue(before.keySet().stream().anyMatch(name -> name.endsWith("META-INF/SIGNER.SF")));
+        assertFalse(after.keySet().stream().anyMatch(name -> name.endsWith("META-INF/SIGNER.SF")));
+
+        assertTrue(before.values().stream().anyMatch(content -> content.contains("javax.servlet")));
+
+        assertEquals(count(before, ".class"), count(after, ".class"));
+
+        for (final Map.Entry<String, String> entry : after.entrySet()) {
+            if (!entry.getKey().endsWith(".xml") && !entry.getKey().endsWith(".properties")) continue;
+            assertFalse(entry.getKey(), entry.getValue().contains("javax.servlet"));
+        }
+    }
+
+    private static long count(final Map<String, String> contents, final String suffix) {
+        return contents.keySet().stream()
+                .filter(name -> name.endsWith(suffix))
+                .count();
+    }
+
+    /**
+     * Flattens the archive and its nested archives into path and content
+     */
+    private static Map<String, String> contents(final File zip) throws IOException {
+        final Map<String, String> contents = new TreeMap<>();
+        try (InputStream in = IO.read(zip)) {
+            contents("", in, contents);
+        }
+        return contents;
+    }
+
+    private static void contents(final String prefix, final InputStream in, final Map<String, String> contents) throws IOException {
+        final ZipInputStream zin = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zin.getNextEntry()) != null) {
+            if (entry.isDirectory()) continue;
+
+            final byte[] bytes = IO.readBytes(zin);
+            final String path = prefix + entry.getName();
+
+            if (path.endsWith(".jar") || path.endsWith(".war")) {
+                contents(path + "!/", new ByteArrayInputStream(bytes), contents);
+            } else {
+                contents.put(path, new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+}
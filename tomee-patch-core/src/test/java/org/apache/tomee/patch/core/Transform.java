@@ -21,12 +21,19 @@ import org.tomitribe.jkta.usage.Jar;
 import org.tomitribe.jkta.usage.JarUsage;
 import org.tomitribe.jkta.usage.Usage;
 import org.tomitribe.util.Archive;
+import org.tomitribe.util.IO;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class Transform {
     private Transform() {
@@ -74,5 +81,33 @@ public class Transform {
                 throw new IllegalStateException(e);
             }
         }
+
+        /**
+         * The files of a zip by name, directories left out
+         */
+        public static Map<String, byte[]> entries(final InputStream zip) throws IOException {
+            final Map<String, byte[]> entries = new TreeMap<>();
+            try (ZipInputStream in = new ZipInputStream(zip)) {
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) entries.put(entry.getName(), IO.readBytes(in));
+                }
+            }
+            return entries;
+        }
+
+        public static Map<String, byte[]> entries(final File zip) throws IOException {
+            return entries(IO.read(zip));
+        }
+
+        public static Map<String, byte[]> entries(final byte[] zip) throws IOException {
+            return entries(new ByteArrayInputStream(zip));
+        }
+
+        public static byte[] entry(final File zip, final String name) throws IOException {
+            final byte[] bytes = entries(zip).get(name);
+            if (bytes == null) throw new AssertionError("No entry " + name + " in " + zip);
+            return bytes;
+        }
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.core;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransformationStreamsTest {
+
+    @Test
+    public void streams() throws Exception {
+        final File jar = archive();
+        final byte[] expected = IO.readBytes(transformation().transformArchive(jar));
+
+        final AtomicBoolean closed = new AtomicBoolean();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        transformation().transform(new ByteArrayInputStream(IO.readBytes(jar)), new FilterOutputStream(bytes) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        });
+
+        assertFalse(closed.get());
+        assertArrayEquals(expected, bytes.toByteArray());
+    }
+
+    @Test
+    public void byteBuffer() throws Exception {
+        final File jar = archive();
+        final byte[] expected = IO.readBytes(transformation().transformArchive(jar));
+        final byte[] original = IO.readBytes(jar);
+
+        final ByteBuffer heap = ByteBuffer.wrap(original);
+        assertArrayEquals(expected, bytes(transformation().transform(heap)));
+        assertEquals(0, heap.position());
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(original.length);
+        direct.put(original).flip();
+        assertArrayEquals(expected, bytes(transformation().transform(direct)));
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void channels() throws Exception {
+        final File jar = archive();
+        final byte[] expected = IO.readBytes(transformation().transformArchive(jar));
+
+        final Path output = File.createTempFile("transformed", ".jar").toPath();
+        try (FileChannel in = FileChannel.open(jar.toPath());
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            transformation().transform(in, out);
+            assertTrue(in.isOpen());
+            assertTrue(out.isOpen());
+        }
+
+        assertArrayEquals(expected, IO.readBytes(output.toFile()));
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final File jar = archive();
+        final byte[] expected = IO.readBytes(transformation().transformArchive(jar));
+        final ByteBuffer original = ByteBuffer.wrap(IO.readBytes(jar));
+
+        final Transformation transformation = transformation();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<ByteBuffer>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> transformation.transform(original)));
+            }
+            for (final Future<ByteBuffer> result : results) {
+                assertArrayEquals(expected, bytes(result.get()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A shared Transformation counts the patches of each call in the
+     * AppliedPatches the call was given, nested archives included
+     */
+    @Test
+    public void appliedPerCall() throws Exception {
+        final File patches = Files.tmpdir();
+        final File patch = new File(patches, "org/example/Red.class");
+        Files.mkdirs(patch.getParentFile());
+        IO.copy(Bytecode.clazz("org/example/Red"), patch);
+
+        final File inner = Archive.archive()
+                .add("org/example/Red.class", Bytecode.clazz("org/example/Red", "java/lang/Object"))
+                .toJar();
+        final File red = Archive.archive()
+                .add("lib/colors.jar", inner)
+                .toJar();
+        final File blue = Archive.archive()
+                .add("org/other/Blue.class", Bytecode.clazz("org/other/Blue"))
+                .toJar();
+
+        final List<Clazz> classes = Batch.classes(Collections.singletonList(patches));
+        final Transformation transformation = Transformation.builder()
+                .classes(classes)
+                .build();
+
+        final AppliedPatches redPatches = new AppliedPatches();
+        final AppliedPatches bluePatches = new AppliedPatches();
+        transformation.transformArchive(red, redPatches);
+        transformation.transformArchive(blue, bluePatches);
+
+        assertEquals(1, redPatches.getApplied(classes.get(0)));
+        assertFalse(bluePatches.isApplied(classes.get(0)));
+
+        transformation.complete(redPatches);
+        try {
+            transformation.complete(bluePatches);
+            fail("Red was not applied to blue");
+        } catch (final UnappliedPatchesException e) {
+            assertEquals(classes, e.getUnappliedPatches());
+        }
+    }
+
+    private static Transformation transformation() {
+        return new Transformation(Collections.emptyList(), new File("does not exist"), null, null,
+                null, null, new NullLog(), false);
+    }
+
+    private static File archive() throws Exception {
+        final File war = Archive.archive()
+                .add("WEB-INF/web.xml", "<web-app/>")
+                .add("META-INF/ejb.properties", "factory=javax.ejb.EJBHome")
+                .toJar();
+
+        return Archive.archive()
+                .add("META-INF/services/javax.ws.rs.ext.Providers", "org.example.Provider")
+                .add("app.war", IO.readBytes(war))
+                .add("README.txt", "no javax in here")
+                .toJar();
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
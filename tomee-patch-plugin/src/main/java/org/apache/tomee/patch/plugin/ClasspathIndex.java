@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of which jar provides which package and class, used to compile
+ * the patch sources against only the jars they actually need.
+ *
+ * The patch sources are scanned for their package, imports, qualified
+ * names and capitalized identifiers.  Every class that resolves through
+ * the index contributes its jar, and the jars of its superclasses,
+ * interfaces and member signatures are added as well, since javac needs
+ * those to complete the class.
+ *
+ * This is a heuristic.  Callers are expected to retry with the full
+ * classpath when compilation against the reduced one fails on a class or
+ * package it cannot find, see {@link #isUnresolved}.
+ */
+public class ClasspathIndex {
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+(static\\s+)?([\\w.]+?)(\\.\\*)?\\s*;", Pattern.MULTILINE);
+    private static final Pattern QUALIFIED = Pattern.compile("\\b([a-z_][\\w]*(?:\\.[a-z_][\\w]*)+)\\.([A-Z][\\w]*)");
+    private static final Pattern TYPE = Pattern.compile("\\b[A-Z][\\w]*");
+
+    /**
+     * The javac errors of a class or package missing from the classpath
+     */
+    private static final Pattern UNRESOLVED = Pattern.compile(
+            "cannot find symbol|package [\\w.]+ does not exist|cannot access [\\w.$]+|class file for [\\w.$]+ not found");
+
+    /**
+     * Jar contents are remembered for the life of the JVM so every module
+     * of a build indexes a distribution only once
+     */
+    private static final Map<String, Set<String>> JARS = new ConcurrentHashMap<>();
+
+    private final Map<String, List<File>> packages = new HashMap<>();
+    private final Map<String, File> classes = new HashMap<>();
+
+    private ClasspathIndex() {
+    }
+
+    public static ClasspathIndex of(final List<File> jars) throws IOException {
+        final Map<File, Set<String>> contents;
+        try {
+            contents = jars.parallelStream()
+                    .distinct()
+                    .collect(Collectors.toMap(jar -> jar, ClasspathIndex::classes));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final ClasspathIndex index = new ClasspathIndex();
+
+        // Iterate in classpath order so the first jar wins, as it would for javac
+        for (final File jar : jars) {
+            for (final String clazz : contents.get(jar)) {
+                index.classes.putIfAbsent(clazz, jar);
+
+                final List<File> providers = index.packages.computeIfAbsent(packageOf(clazz), k -> new ArrayList<>());
+                if (!providers.contains(jar)) providers.add(jar);
+            }
+        }
+
+        return index;
+    }
+
+    private static Set<String> classes(final File jar) {
+        final String key = jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified();
+        return JARS.computeIfAbsent(key, k -> {
+            final Set<String> classes = new HashSet<>();
+            try (ZipFile zipFile = new ZipFile(jar)) {
+                for (final ZipEntry entry : Collections.list(zipFile.entries())) {
+                    final String name = entry.getName();
+                    if (!name.endsWith(".class")) continue;
+                    if (name.startsWith("META-INF/")) continue;
+                    classes.add(name.substring(0, name.length() - ".class".length()));
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Cannot index " + jar.getAbsolutePath(), e);
+            }
+            return classes;
+        });
+    }
+
+    /**
+     * Whether any of the errors could come from a jar left out of the
+     * classpath.  Other errors would fail against the full classpath just
+     * the same, so they are not worth a second compile.
+     */
+    public static boolean isUnresolved(final List<CompilerMessage> messages) {
+        return messages.stream()
+                .filter(message -> message.getKind() == CompilerMessage.Kind.ERROR)
+                .anyMatch(message -> UNRESOLVED.matcher(String.valueOf(message.getMessage())).find());
+    }
+
+    /**
+     * Select the jars, in their original classpath order, needed to
+     * compile the sources in the specified directory
+     */
+    public List<File> select(final File sourceDirectory, final List<File> classpath) throws IOException {
+        final Set<String> referenced = new LinkedHashSet<>();
+        final Set<File> jars = new HashSet<>();
+
+        for (final File source : sources(sourceDirectory)) {
+            references(IO.slurp(source), referenced, jars);
+        }
+
+        closure(referenced, jars);
+
+        return classpath.stream()
+                .filter(jars::contains)
+                .collect(Collectors.toList());
+    }
+
+    private void references(final String content, final Set<String> referenced, final Set<File> jars) {
+        final Set<String> searched = new LinkedHashSet<>();
+
+        final Matcher packageMatcher = PACKAGE.matcher(content);
+        if (packageMatcher.find()) {
+            final String packge = packageMatcher.group(1).replace('.', '/');
+            searched.add(packge);
+            // The jar holding the class being patched
+            jars.addAll(packages.getOrDefault(packge, Collections.emptyList()));
+        }
+
+        final Matcher importMatcher = IMPORT.matcher(content);
+        while (importMatcher.find()) {
+            final boolean isStatic = importMatcher.group(1) != null;
+            final String name = importMatcher.group(2);
+            final boolean wildcard = importMatcher.group(3) != null;
+
+            if (wildcard && !isStatic) {
+                final String packge = name.replace('.', '/');
+                if (packages.containsKey(packge)) {
+                    searched.add(packge);
+                    continue;
+                }
+            }
+
+            final String clazz = isStatic && !wildcard ? name.substring(0, name.lastIndexOf('.')) : name;
+            reference(clazz, referenced);
+        }
+
+        final Matcher qualified = QUALIFIED.matcher(content);
+        while (qualified.find()) {
+            reference(qualified.group(1) + "." + qualified.group(2), referenced);
+        }
+
+        // Simple names resolved against the own package and wildcard imports
+        final Set<String> types = new HashSet<>();
+        final Matcher type = TYPE.matcher(content);
+        while (type.find()) {
+            types.add(type.group());
+        }
+
+        for (final String packge : searched) {
+            for (final String simpleName : types) {
+                final String clazz = packge + "/" + simpleName;
+                if (classes.containsKey(clazz)) referenced.add(clazz);
+            }
+        }
+    }
+
+    /**
+     * Resolve a dotted name that may refer to a nested class
+     */
+    private void reference(final String dotted, final Set<String> referenced) {
+        String name = dotted.replace('.', '/');
+        while (true) {
+            if (classes.containsKey(name)) {
+                referenced.add(name);
+                return;
+            }
+            final int i = name.lastIndexOf('/');
+            if (i < 0) return;
+            name = name.substring(0, i) + "$" + name.substring(i + 1);
+        }
+    }
+
+    private void closure(final Set<String> referenced, final Set<File> jars) throws IOException {
+        final Map<File, ZipFile> open = new HashMap<>();
+        try {
+            final Set<String> seen = new HashSet<>();
+            final Deque<String> hierarchy = new ArrayDeque<>();
+
+            // Directly referenced classes also contribute the types in their signatures
+            for (final String clazz : referenced) {
+                if (!seen.add(clazz)) continue;
+                hierarchy.add(clazz);
+
+                for (final String type : read(clazz, open, true)) {
+                    if (seen.add(type)) hierarchy.add(type);
+                }
+            }
+
+            // For everything else, only the supertypes are followed
+            while (!hierarchy.isEmpty()) {
+                final String clazz = hierarchy.poll();
+                final File jar = classes.get(clazz);
+                if (jar == null) continue;
+                jars.add(jar);
+
+                for (final String type : read(clazz, open, false)) {
+                    if (seen.add(type)) hierarchy.add(type);
+                }
+            }
+        } finally {
+            for (final ZipFile zipFile : open.values()) {
+                zipFile.close();
+            }
+        }
+    }
+
+    private List<String> read(final String clazz, final Map<File, ZipFile> open, final boolean members) throws IOException {
+        final File jar = classes.get(clazz);
+        if (jar == null) return Collections.emptyList();
+
+        ZipFile zipFile = open.get(jar);
+        if (zipFile == null) {
+            zipFile = new ZipFile(jar);
+            open.put(jar, zipFile);
+        }
+
+        final ZipEntry entry = zipFile.getEntry(clazz + ".class");
+        if (entry == null) return Collections.emptyList();
+
+        final List<String> types = new ArrayList<>();
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            new ClassReader(in).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public void visit(final int version, final int access, final String name, final String signature,
+                                  final String superName, final String[] interfaces) {
+                    if (superName != null) types.add(superName);
+                    if (interfaces != null) Collections.addAll(types, interfaces);
+                }
+
+                @Override
+                public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                               final String signature, final Object value) {
+                    if (members) type(Type.getType(descriptor), types);
+                    return null;
+                }
+
+                @Override
+                public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                                 final String signature, final String[] exceptions) {
+                    if (members) {
+                        final Type method = Type.getMethodType(descriptor);
+                        type(method.getReturnType(), types);
+                        for (final Type argument : method.getArgumentTypes()) {
+                            type(argument, types);
+                        }
+                        if (exceptions != null) Collections.addAll(types, exceptions);
+                    }
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+        return types;
+    }
+
+    private static void type(Type type, final List<String> types) {
+        if (type.getSort() == Type.ARRAY) type = type.getElementType();
+        if (type.getSort() == Type.OBJECT) types.add(type.getInternalName());
+    }
+
+    private static String packageOf(final String clazz) {
+        final int i = clazz.lastIndexOf('/');
+        return i < 0 ? "" : clazz.substring(0, i);
+    }
+
+    private static List<File> sources(final File directory) {
+        final List<File> sources = new ArrayList<>();
+        final File[] files = directory.listFiles();
+        if (files == null) return sources;
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                sources.addAll(sources(file));
+            } else if (file.getName().endsWith(".java")) {
+                sources.add(file);
+            }
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.tomee.patch.core.Hashes;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.tomitribe.util.IO;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles the patch sources with the javax.tools API inside the Maven JVM.
+ *
+ * Only sources whose content changed since the previous build, plus the
+ * sources that reference them directly or through other sources, are
+ * recompiled.  The previously compiled
+ * classes in the output directory are placed first on the classpath so
+ * the untouched sources do not need to be recompiled.  Any change to the
+ * classpath or compiler settings triggers a full rebuild.
+ *
+ * File managers are pooled per Maven session so the jar indexes javac
+ * builds for the classpath are reused by every module in the reactor.
+ */
+public class InProcessCompiler {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+    private static final Map<Object, ConcurrentLinkedQueue<StandardJavaFileManager>> FILE_MANAGERS = new ConcurrentHashMap<>();
+
+    private final JavaCompiler compiler;
+    private final Object session;
+    private final Log log;
+    private final File stateFile;
+
+    private String source;
+    private String target;
+    private String release;
+    private String encoding;
+
+    public InProcessCompiler(final Object session, final File stateFile, final Log log) {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        this.session = session;
+        this.stateFile = stateFile;
+        this.log = log;
+    }
+
+    /**
+     * The in-process compiler is only available when Maven runs on a JDK
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    public InProcessCompiler source(final String source) {
+        this.source = source;
+        return this;
+    }
+
+    public InProcessCompiler target(final String target) {
+        this.target = target;
+        return this;
+    }
+
+    public InProcessCompiler release(final String release) {
+        this.release = release;
+        return this;
+    }
+
+    public InProcessCompiler encoding(final String encoding) {
+        this.encoding = encoding;
+        return this;
+    }
+
+    public CompilerResult compile(final File sourceDirectory, final File outputDirectory, final List<File> classpath) throws IOException {
+        return compile(sourceDirectory, outputDirectory, classpath, classpath);
+    }
+
+    /**
+     * @param classpath the classpath that decides whether a full rebuild is needed
+     * @param compileClasspath the subset of that classpath actually handed to javac
+     */
+    public CompilerResult compile(final File sourceDirectory, final File outputDirectory, final List<File> classpath,
+                                  final List<File> compileClasspath) throws IOException {
+        final List<String> options = options();
+
+        final Map<String, File> sources = sources(sourceDirectory);
+        final Map<String, String> hashes = new TreeMap<>();
+        for (final Map.Entry<String, File> entry : sources.entrySet()) {
+            hashes.put(entry.getKey(), Hashes.cachedSha256(entry.getValue()));
+        }
+
+        final String classpathHash = Hashes.sha256(classpath);
+        final String optionsHash = Hashes.sha256(String.join(" ", options));
+
+        final State previous = State.load(stateFile);
+        final boolean full = previous == null
+                || !classpathHash.equals(previous.classpath)
+                || !optionsHash.equals(previous.options);
+
+        final Set<String> changed = new LinkedHashSet<>();
+        final Set<String> removed = new HashSet<>();
+
+        if (full) {
+            changed.addAll(sources.keySet());
+            if (previous != null) removed.addAll(previous.outputs.keySet());
+        } else {
+            for (final Map.Entry<String, String> entry : hashes.entrySet()) {
+                if (!entry.getValue().equals(previous.sources.get(entry.getKey()))) {
+                    changed.add(entry.getKey());
+                }
+            }
+            for (final String path : previous.sources.keySet()) {
+                if (!sources.containsKey(path)) removed.add(path);
+            }
+            changed.addAll(dependents(sources, changed, removed));
+        }
+
+        final State state = new State(classpathHash, optionsHash);
+        state.sources.putAll(hashes);
+        if (!full) {
+            previous.outputs.forEach((path, classes) -> {
+                if (!changed.contains(path) && !removed.contains(path)) {
+                    state.outputs.put(path, classes);
+                }
+            });
+        }
+
+        // Remove the classes of any source we are about to recompile or that no longer exists
+        final Set<String> stale = new HashSet<>(removed);
+        stale.addAll(changed);
+        if (previous != null) {
+            for (final String path : stale) {
+                for (final String clazz : previous.outputs.getOrDefault(path, Collections.emptyList())) {
+                    final File file = new File(outputDirectory, clazz);
+                    if (file.exists() && !file.delete()) {
+                        log.warn("Could not delete stale class " + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        if (changed.isEmpty()) {
+            log.info("Patch classes are up to date");
+            state.store(stateFile);
+            return new CompilerResult(true, new ArrayList<>());
+        }
+
+        if (full) {
+            log.info(String.format("Compiling %s patch sources", changed.size()));
+        } else {
+            log.info(String.format("Compiling %s changed patch sources of %s", changed.size(), sources.size()));
+        }
+
+        final List<File> path = new ArrayList<>();
+        if (!full) path.add(outputDirectory);
+        path.addAll(compileClasspath);
+
+        outputDirectory.mkdirs();
+
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final StandardJavaFileManager fileManager = borrow();
+        final boolean success;
+        try {
+            fileManager.setLocation(StandardLocation.CLASS_PATH, path);
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDirectory));
+            fileManager.setLocation(StandardLocation.SOURCE_PATH, Collections.emptyList());
+
+            final List<File> files = changed.stream()
+                    .map(sources::get)
+                    .collect(Collectors.toList());
+
+            final Map<String, List<String>> outputs = new HashMap<>();
+            final JavaFileManager tracking = new TrackingFileManager(fileManager, sourceDirectory, outputDirectory, outputs);
+
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, tracking, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(files));
+
+            success = task.call();
+
+            if (success) {
+                state.outputs.putAll(outputs);
+            }
+        } finally {
+            giveBack(fileManager);
+        }
+
+        if (success) {
+            state.store(stateFile);
+        } else if (stateFile.exists() && !stateFile.delete()) {
+            log.warn("Could not delete " + stateFile.getAbsolutePath());
+        }
+
+        final List<CompilerMessage> messages = diagnostics.getDiagnostics().stream()
+                .map(InProcessCompiler::message)
+                .collect(Collectors.toList());
+
+        return new CompilerResult(success, messages);
+    }
+
+    private List<String> options() {
+        final List<String> options = new ArrayList<>();
+        options.add("-g");
+        options.add("-nowarn");
+        options.add("-Xlint:-options");
+        options.add("-implicit:none");
+        options.add("-proc:none");
+
+        if (release != null && !release.isEmpty()) {
+            options.add("--release");
+            options.add(release);
+        } else {
+            if (source != null) {
+                options.add("-source");
+                options.add(source);
+            }
+            if (target != null) {
+                options.add("-target");
+                options.add(target);
+            }
+        }
+
+        if (encoding != null) {
+            options.add("-encoding");
+            options.add(encoding);
+        }
+        return options;
+    }
+
+    /**
+     * Any source that mentions the simple name of a changed or removed
+     * source is considered to depend on it and is recompiled as well, and
+     * so on for the sources that mention those.  Compiled classes do not
+     * reference the constants they inline, so the sources are the only
+     * place a chain of inlined constants can be followed.
+     */
+    private Set<String> dependents(final Map<String, File> sources, final Set<String> changed, final Set<String> removed) throws IOException {
+        final Deque<String> names = new ArrayDeque<>();
+        for (final String path : changed) names.add(simpleName(path));
+        for (final String path : removed) names.add(simpleName(path));
+
+        final Set<String> seen = new HashSet<>(names);
+        final Map<String, Set<String>> identifiers = new HashMap<>();
+        final Set<String> dependents = new HashSet<>();
+
+        while (!names.isEmpty()) {
+            final String name = names.poll();
+
+            for (final Map.Entry<String, File> entry : sources.entrySet()) {
+                final String path = entry.getKey();
+                if (changed.contains(path) || dependents.contains(path)) continue;
+
+                Set<String> mentioned = identifiers.get(path);
+                if (mentioned == null) {
+                    mentioned = identifiers(entry.getValue());
+                    identifiers.put(path, mentioned);
+                }
+
+                if (mentioned.contains(name)) {
+                    dependents.add(path);
+                    if (seen.add(simpleName(path))) names.add(simpleName(path));
+                }
+            }
+        }
+        return dependents;
+    }
+
+    private static Set<String> identifiers(final File source) throws IOException {
+        final Set<String> identifiers = new HashSet<>();
+        final Matcher matcher = IDENTIFIER.matcher(IO.slurp(source));
+        while (matcher.find()) identifiers.add(matcher.group());
+        return identifiers;
+    }
+
+    private static String simpleName(final String path) {
+        final String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.replaceAll("\\.java$", "");
+    }
+
+    private static Map<String, File> sources(final File directory) {
+        final Map<String, File> sources = new TreeMap<>();
+        collect(directory, directory, sources);
+        return sources;
+    }
+
+    private static void collect(final File root, final File dir, final Map<String, File> sources) {
+        final File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                collect(root, file, sources);
+            } else if (file.getName().endsWith(".java")) {
+                sources.put(relative(root, file), file);
+            }
+        }
+    }
+
+    private static String relative(final File root, final File file) {
+        return file.getAbsolutePath()
+                .substring(root.getAbsolutePath().length() + 1)
+                .replace(File.separatorChar, '/');
+    }
+
+    private StandardJavaFileManager borrow() {
+        final ConcurrentLinkedQueue<StandardJavaFileManager> pool = pool();
+        final StandardJavaFileManager fileManager = pool.poll();
+        if (fileManager != null) return fileManager;
+
+        final Charset charset = encoding != null ? Charset.forName(encoding) : null;
+        return compiler.getStandardFileManager(null, Locale.getDefault(), charset);
+    }
+
+    private void giveBack(final StandardJavaFileManager fileManager) {
+        pool().offer(fileManager);
+    }
+
+    /**
+     * File managers are only reused within the same Maven session.  When
+     * a new session starts, the managers of any previous one are closed.
+     */
+    private ConcurrentLinkedQueue<StandardJavaFileManager> pool() {
+        synchronized (FILE_MANAGERS) {
+            for (final Object key : new ArrayList<>(FILE_MANAGERS.keySet())) {
+                if (key == session) continue;
+                for (final StandardJavaFileManager fileManager : FILE_MANAGERS.remove(key)) {
+                    try {
+                        fileManager.close();
+                    } catch (final IOException e) {
+                        log.debug("Could not close file manager", e);
+                    }
+                }
+            }
+            return FILE_MANAGERS.computeIfAbsent(session, s -> new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    private static CompilerMessage message(final Diagnostic<? extends JavaFileObject> diagnostic) {
+        final CompilerMessage.Kind kind;
+        switch (diagnostic.getKind()) {
+            case ERROR:
+                kind = CompilerMessage.Kind.ERROR;
+                break;
+            case WARNING:
+                kind = CompilerMessage.Kind.WARNING;
+                break;
+            case MANDATORY_WARNING:
+                kind = CompilerMessage.Kind.MANDATORY_WARNING;
+                break;
+            case NOTE:
+                kind = CompilerMessage.Kind.NOTE;
+                break;
+            default:
+                kind = CompilerMessage.Kind.OTHER;
+        }
+
+        final String file = diagnostic.getSource() != null ? diagnostic.getSource().getName() : null;
+        final int line = (int) diagnostic.getLineNumber();
+        final int column = (int) diagnostic.getColumnNumber();
+        return new CompilerMessage(file, kind, line, column, line, column, diagnostic.getMessage(Locale.getDefault()));
+    }
+
+    /**
+     * Records which class files each source produced so they can be
+     * removed when the source changes or disappears.
+     */
+    private static class TrackingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final File sourceDirectory;
+        private final File outputDirectory;
+        private final Map<String, List<String>> outputs;
+
+        TrackingFileManager(final StandardJavaFileManager fileManager, final File sourceDirectory,
+                            final File outputDirectory, final Map<String, List<String>> outputs) {
+            super(fileManager);
+            this.sourceDirectory = sourceDirectory;
+            this.outputDirectory = outputDirectory;
+            this.outputs = outputs;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(final Location location, final String className,
+                                                   final JavaFileObject.Kind kind, final FileObject sibling) throws IOException {
+            final JavaFileObject output = super.getJavaFileForOutput(location, className, kind, sibling);
+
+            if (sibling != null && kind == JavaFileObject.Kind.CLASS) {
+                final File source = new File(sibling.toUri());
+                final File clazz = new File(output.toUri());
+                outputs.computeIfAbsent(relative(sourceDirectory, source), k -> new ArrayList<>())
+                        .add(relative(outputDirectory, clazz));
+            }
+
+            return output;
+        }
+    }
+
+    private static class State {
+        private final String classpath;
+        private final String options;
+        private final Map<String, String> sources = new TreeMap<>();
+        private final Map<String, List<String>> outputs = new TreeMap<>();
+
+        State(final String classpath, final String options) {
+            this.classpath = classpath;
+            this.options = options;
+        }
+
+        static State load(final File file) throws IOException {
+            if (!file.exists()) return null;
+
+            final Properties properties = new Properties();
+            try (InputStream in = IO.read(file)) {
+                properties.load(in);
+            }
+
+            final State state = new State(properties.getProperty("classpath"), properties.getProperty("options"));
+            for (final String key : properties.stringPropertyNames()) {
+                if (key.startsWith("source.")) {
+                    state.sources.put(key.substring("source.".length()), properties.getProperty(key));
+                } else if (key.startsWith("output.")) {
+                    final String value = properties.getProperty(key);
+                    final List<String> classes = new ArrayList<>();
+                    for (final String clazz : value.split(",")) {
+                        if (!clazz.isEmpty()) classes.add(clazz);
+                    }
+                    state.outputs.put(key.substring("output.".length()), classes);
+                }
+            }
+            return state;
+        }
+
+        void store(final File file) throws IOException {
+            final Properties properties = new Properties();
+            properties.setProperty("classpath", classpath);
+            properties.setProperty("options", options);
+            sources.forEach((path, hash) -> properties.setProperty("source." + path, hash));
+            outputs.forEach((path, classes) -> properties.setProperty("output." + path, String.join(",", classes)));
+
+            try (OutputStream out = IO.write(file)) {
+                properties.store(out, "Patch compilation state");
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts only the jar entries of an archive, which is all the patch
+ * compiler needs for its classpath.  JSPs, docs, native libraries and
+ * the rest of a distribution are never written to disk.
+ *
+ * Entries are extracted in parallel and a jar that is already present
+ * with the same size and timestamp is left alone, so repeated builds
+ * write nothing at all.
+ */
+public class JarExtractor {
+
+    private JarExtractor() {
+    }
+
+    public static List<File> extract(final File archive, final File destination) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+
+            final List<ZipEntry> entries = Collections.list(zipFile.entries()).stream()
+                    .filter(entry -> !entry.isDirectory())
+                    .filter(entry -> entry.getName().endsWith(".jar"))
+                    .collect(Collectors.toList());
+
+            return entries.parallelStream()
+                    .map(entry -> extract(zipFile, entry, destination))
+                    .collect(Collectors.toList());
+
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static File extract(final ZipFile zipFile, final ZipEntry entry, final File destination) {
+        final File file = new File(destination, entry.getName());
+
+        if (!file.getAbsolutePath().startsWith(destination.getAbsolutePath() + File.separator)) {
+            throw new UncheckedIOException(new IOException("Entry is outside of the target dir: " + entry.getName()));
+        }
+
+        final long time = entry.getTime();
+        if (file.isFile() && file.length() == entry.getSize() && time != -1 && file.lastModified() == time) {
+            return file;
+        }
+
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (time != -1 && !file.setLastModified(time)) {
+                throw new IOException("Cannot set last modified time of " + file.getAbsolutePath());
+            }
+            return file;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot extract " + entry.getName() + " from " + zipFile.getName(), e);
+        }
+    }
+}
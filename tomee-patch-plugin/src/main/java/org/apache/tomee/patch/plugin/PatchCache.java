@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.tomee.patch.core.Hashes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiled patch classes shared by every module that compiles the same
+ * patch sources against the same jars with the same compiler settings.
+ *
+ * Each entry is a directory named after the hash of those inputs and holds
+ * the compiled classes plus the incremental compile state that produced
+ * them.  Entries are written to a temporary directory and renamed into
+ * place, so concurrent modules never see a partial entry.
+ */
+public class PatchCache {
+
+    private static final String STATE = "patch-compile.properties";
+
+    private final File directory;
+    private final Log log;
+
+    public PatchCache(final File directory, final Log log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    public String key(final File sources, final List<File> classpath, final String... settings) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+
+        for (final Map.Entry<String, File> entry : files(sources).entrySet()) {
+            if (!entry.getKey().endsWith(".java")) continue;
+            sb.append("source ").append(entry.getKey()).append('=').append(Hashes.cachedSha256(entry.getValue())).append('\n');
+        }
+
+        sb.append("classpath ").append(Hashes.sha256(classpath)).append('\n');
+
+        for (final String setting : settings) {
+            sb.append("setting ").append(setting).append('\n');
+        }
+
+        return Hashes.sha256(sb.toString());
+    }
+
+    /**
+     * Replaces the classes in the build directory with the cached ones
+     *
+     * @return false if there is no cache entry for this key
+     */
+    public boolean restore(final String key, final File buildDirectory, final File stateFile) throws IOException {
+        final File entry = new File(directory, key);
+        if (!entry.isDirectory()) return false;
+
+        for (final File clazz : files(buildDirectory).values()) {
+            if (clazz.getName().endsWith(".class")) Files.delete(clazz.toPath());
+        }
+
+        for (final Map.Entry<String, File> file : files(entry).entrySet()) {
+            if (file.getKey().equals(STATE)) continue;
+
+            final File target = new File(buildDirectory, file.getKey());
+            Files.createDirectories(target.getParentFile().toPath());
+            Files.copy(file.getValue().toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final File state = new File(entry, STATE);
+        if (state.exists()) {
+            Files.copy(state.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(stateFile.toPath());
+        }
+
+        log.info("Loaded patch classes from cache " + entry.getAbsolutePath());
+        return true;
+    }
+
+    public void store(final String key, final File buildDirectory, final File stateFile) throws IOException {
+        final File entry = new File(directory, key);
+        if (entry.isDirectory()) return;
+
+        Files.createDirectories(directory.toPath());
+        final File tmp = new File(directory, key + "." + UUID.randomUUID() + ".tmp");
+
+        try {
+            for (final Map.Entry<String, File> file : files(buildDirectory).entrySet()) {
+                if (!file.getKey().endsWith(".class")) continue;
+
+                final File target = new File(tmp, file.getKey());
+                Files.createDirectories(target.getParentFile().toPath());
+                Files.copy(file.getValue().toPath(), target.toPath());
+            }
+
+            Files.createDirectories(tmp.toPath());
+            if (stateFile.exists()) {
+                Files.copy(stateFile.toPath(), new File(tmp, STATE).toPath());
+            }
+
+            try {
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), entry.toPath());
+            }
+            log.debug("Stored patch classes in cache " + entry.getAbsolutePath());
+        } catch (final FileSystemException e) {
+            // Another module stored the same entry first.  Renaming onto a
+            // non-empty directory is not always reported as such, on Linux
+            // it is a plain FileSystemException
+            if (!entry.isDirectory()) throw e;
+        } finally {
+            delete(tmp.toPath());
+        }
+    }
+
+    private static Map<String, File> files(final File root) throws IOException {
+        final Map<String, File> files = new TreeMap<>();
+        if (!root.isDirectory()) return files;
+
+        final Path base = root.toPath();
+        try (Stream<Path> stream = Files.walk(base)) {
+            stream.filter(Files::isRegularFile)
+                    .forEach(path -> files.put(base.relativize(path).toString().replace(File.separatorChar, '/'), path.toFile()));
+        }
+        return files;
+    }
+
+    private static void delete(final Path path) throws IOException {
+        if (!Files.exists(path)) return;
+
+        final List<Path> paths;
+        try (Stream<Path> stream = Files.walk(path)) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toCollection(ArrayList::new));
+        }
+        for (final Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+}
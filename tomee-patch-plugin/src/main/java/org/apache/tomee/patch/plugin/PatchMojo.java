@@ -49,9 +49,16 @@ import org.apache.maven.shared.transfer.dependencies.resolve.DependencyResolverE
 import org.apache.maven.toolchain.Toolchain;
 import org.apache.maven.toolchain.ToolchainManager;
 import org.apache.tomee.patch.core.Additions;
+import org.apache.tomee.patch.core.AppliedPatches;
 import org.apache.tomee.patch.core.Clazz;
 import org.apache.tomee.patch.core.FileMode;
 import org.apache.tomee.patch.core.Is;
+import org.apache.tomee.patch.core.Layer;
+import org.apache.tomee.patch.core.LayeredTar;
+import org.apache.tomee.patch.core.PatchClient;
+import org.apache.tomee.patch.core.PatchConfig;
+import org.apache.tomee.patch.core.PathRename;
+import org.apache.tomee.patch.core.Profiler;
 import org.apache.tomee.patch.core.Replacements;
 import org.apache.tomee.patch.core.Skips;
 import org.apache.tomee.patch.core.Transformation;
@@ -69,7 +76,6 @@ import org.tomitribe.swizzle.stream.StreamBuilder;
 import org.tomitribe.util.Files;
 import org.tomitribe.util.IO;
 import org.tomitribe.util.Mvn;
-import org.tomitribe.util.Zips;
 
 import java.io.File;
 import java.io.IOException;
@@ -80,16 +86,17 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 @Mojo(name = "run", requiresDependencyResolution = ResolutionScope.RUNTIME_PLUS_SYSTEM, defaultPhase = LifecyclePhase.PACKAGE, requiresProject = true, threadSafe = true)
 public class PatchMojo extends AbstractMojo {
@@ -151,10 +158,10 @@ public class PatchMojo extends AbstractMojo {
     private MavenSession session;
 
     @Parameter(defaultValue = "${project.basedir}/src/patch/java", required = true)
-    private List<File> patchSources;
+    List<File> patchSources;
 
     @Parameter(defaultValue = "${project.basedir}/src/patch/resources", required = true)
-    private List<File> patchResources;
+    List<File> patchResources;
 
     @Parameter
     private List<String> sourceExcludes = new ArrayList<>();
@@ -187,13 +194,16 @@ public class PatchMojo extends AbstractMojo {
     private Skips skips;
 
     @Parameter
-    private List<FileMode> fileModes;
+    List<FileMode> fileModes;
 
     @Parameter
-    private Additions add;
+    private List<PathRename> pathRenames;
+
+    @Parameter
+    Additions add;
 
     @Parameter(defaultValue = "false")
-    private Boolean createTarGz;
+    Boolean createTarGz;
 
     @Parameter(defaultValue = "false")
     private Boolean skipTransform;
@@ -207,6 +217,23 @@ public class PatchMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     private Boolean attach;
 
+    /**
+     * Path rules that split each patched zip into one reproducible tar.gz per
+     * layer, for container images, written to a {@code <name>-layers} directory
+     * next to the zip.  Entries no rule matches go to the "default" layer.
+     */
+    @Parameter
+    List<Layer> layers;
+
+    /**
+     * Date every entry of the patched archives at this time, in seconds since
+     * the epoch or as an ISO-8601 date, and normalize their modes and metadata,
+     * so the same inputs give byte for byte the same archives.  Follows
+     * {@code project.build.outputTimestamp}, as other reproducible build plugins do.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
     /**
      * Sets the executable of the compiler to use when fork is {@code true}.
      */
@@ -229,7 +256,7 @@ public class PatchMojo extends AbstractMojo {
      * The target directory of the compiler if fork is true.
      */
     @Parameter(defaultValue = "${project.build.directory}/patch-classes", required = true, readonly = true)
-    private File buildDirectory;
+    File buildDirectory;
 
     /**
      * The directory where we will extract the zips being patched, so we can compile the
@@ -242,7 +269,7 @@ public class PatchMojo extends AbstractMojo {
     private File patchSourceDirectory;
 
     @Parameter(defaultValue = "${project.build.directory}/patch-resources", required = true)
-    private File patchResourceDirectory;
+    File patchResourceDirectory;
 
     @Parameter(defaultValue = "${project.build.directory}/patch-sourcejars", required = true, readonly = true)
     private File patchSourceJarsDirectory;
@@ -282,6 +309,98 @@ public class PatchMojo extends AbstractMojo {
     @Parameter(property = "maven.compiler.release")
     protected String release;
 
+    /**
+     * Compile the patch sources in a separate javac process instead of with the
+     * in-process javax.tools compiler.  A toolchain or an explicit {@code executable}
+     * always forks.
+     */
+    @Parameter(property = "maven.compiler.fork", defaultValue = "false")
+    private boolean fork;
+
+    /**
+     * Where the in-process compiler records the source hashes and class files of
+     * the previous build so only changed sources are recompiled.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/patch-compile.properties", required = true, readonly = true)
+    private File patchCompileStateFile;
+
+    /**
+     * Reuse the compiled patch classes of any module in this build, or a previous
+     * one, that compiled the same patch sources against the same jars.
+     */
+    @Parameter(property = "patch.cache", defaultValue = "true")
+    private boolean usePatchCache;
+
+    /**
+     * Where compiled patch classes are shared between modules.  Entries are keyed by
+     * a hash of the patch sources, classpath jars and compiler settings.
+     */
+    @Parameter(property = "patch.cacheDirectory", defaultValue = "${session.executionRootDirectory}/target/patch-cache", required = true)
+    private File patchCacheDirectory;
+
+    /**
+     * Compile the patch sources against only the jars that provide the packages and
+     * classes they reference, plus the jars of those classes' supertypes.  When that
+     * fails on a class or package javac cannot find, compilation is retried with every
+     * jar on the classpath.
+     */
+    @Parameter(property = "patch.minimizeClasspath", defaultValue = "true")
+    private boolean minimizeClasspath;
+
+    /**
+     * Log a per-phase timing table and write it as JSON to {@code patchReportFile}.
+     * Off by default, turn it on with {@code -Dpatch.report} when tuning a build.
+     */
+    @Parameter(property = "patch.report", defaultValue = "false")
+    private boolean patchReport;
+
+    @Parameter(property = "patch.reportFile", defaultValue = "${project.build.directory}/patch-report.json", required = true)
+    private File patchReportFile;
+
+    /**
+     * Log where the transformation spends its time: inflate, class rewriting, resource
+     * rewriting and deflate per archive, the slowest archives and the largest entries.
+     */
+    @Parameter(property = "patch.profile", defaultValue = "false")
+    private boolean profile;
+
+    /**
+     * Move the Java EE packages from javax to jakarta in class descriptors, signatures,
+     * module descriptors, class file names and META-INF/services file names.  With this
+     * on, select the original javax archive and no Eclipse Transformer pass is needed.
+     */
+    @Parameter(property = "patch.remapPackages", defaultValue = "false")
+    private boolean remapPackages;
+
+    /**
+     * Send the archives to a patch daemon on this machine, started with
+     * {@code java -jar tomee-patch-core-*-cli.jar daemon}.  When no daemon
+     * answers on daemonPort the archives are transformed in this JVM.
+     */
+    @Parameter(property = "patch.daemon", defaultValue = "false")
+    private boolean daemon;
+
+    @Parameter(property = "patch.daemonPort", defaultValue = "7787")
+    private int daemonPort;
+
+    /**
+     * Write the patched .zip archives as directory trees under this directory,
+     * named after the zip without its extension, instead of patching the zip.
+     * Modes and fileModes are applied as POSIX permissions and nested archives
+     * are still written as archives.  The zip artifacts are left as they are
+     * and no tar.gz is created from them.
+     */
+    @Parameter(property = "patch.explodeDirectory")
+    File explodeDirectory;
+
+    /**
+     * Exploded distributions, such as {@code ${project.build.directory}/apache-tomee-plus-9.0.0},
+     * transformed in place after the selected archives, as if each were the outer archive.
+     * Files that need no change are left untouched.
+     */
+    @Parameter
+    List<File> directories;
+
     /**
      * The compiler id of the compiler to use. See this
      * <a href="non-javac-compilers.html">guide</a> for more information.
@@ -289,39 +408,99 @@ public class PatchMojo extends AbstractMojo {
     @Parameter(property = "maven.compiler.compilerId", defaultValue = "javac")
     private String compilerId;
 
+    /**
+     * The jars extracted by the last execute, the compile classpath of {@link WatchMojo}
+     */
+    List<File> extractedJars = Collections.emptyList();
+
     /**
      * Main execution point of the plugin. This looks at the attached artifacts, and runs the transformer on them.
      *
      * @throws MojoExecutionException Thrown if there is an error during plugin execution
      */
     public void execute() throws MojoExecutionException, CompilationFailureException {
+        final PatchReport report = new PatchReport();
         try {
             Files.mkdir(patchClasspathDirectory);
 
             // Select the zip files and jars we'll be potentially patching
-            final List<Artifact> artifacts = getPatchArtifacts();
+            final List<Artifact> artifacts;
+            try (PatchReport.Phase phase = report.start("select artifacts")) {
+                artifacts = getPatchArtifacts();
+                phase.entries(artifacts.size());
+            }
 
-            prepareResources();
+            report.time("prepare resources", this::prepareResources);
 
             // Extract any zips and return a list of jars
-            final List<File> jars = prepareJars(artifacts);
+            final List<File> jars;
+            try (PatchReport.Phase phase = report.start("extract jars")) {
+                jars = prepareJars(artifacts);
+                extractedJars = jars;
+                phase.bytes(length(artifacts.stream().map(Artifact::getFile)), length(jars.stream()))
+                        .entries(jars.size());
+            }
 
-            compile(jars);
+            final List<Clazz> clazzes;
+            try (PatchReport.Phase phase = report.start("compile")) {
+                compile(jars);
+                clazzes = classes();
+                phase.entries(clazzes.size());
+            }
+
+            final PatchConfig config = PatchConfig.of(replace, skips, add, fileModes, pathRenames,
+                                                      patchResourceDirectory, remapPackages, skipTransform);
+            config.setOutputTimestamp(PatchConfig.outputTimestamp(outputTimestamp));
+            final Transformation transformation = config.transformationBuilder(clazzes, new MavenLog(getLog()))
+                    .profiler(profile ? new Profiler() : null)
+                    .build();
+            final AppliedPatches appliedPatches = new AppliedPatches();
 
-            final List<Clazz> clazzes = classes();
+            final PatchClient client = daemon ? new PatchClient(daemonPort) : null;
+            final boolean remote = client != null && client.isAvailable();
+            if (daemon && !remote) getLog().info("No patch daemon on port " + daemonPort + ", transforming in process");
 
-            final Transformation transformation = new Transformation(clazzes, patchResourceDirectory, replace, skips,
-                                                                     fileModes, add, new MavenLog(getLog()), skipTransform);
             for (final Artifact artifact : artifacts) {
                 final File file = artifact.getFile();
                 getLog().debug("Patching " + file.getAbsolutePath());
-                final File patched = transformation.transformArchive(file);
-                IO.copy(patched, file);
+
+                if (explodeDirectory != null && file.getName().endsWith(".zip")) {
+                    try (PatchReport.Phase phase = report.start("explode", file.getName())) {
+                        final String name = file.getName();
+                        final File directory = new File(explodeDirectory, name.substring(0, name.length() - ".zip".length()));
+                        Files.remove(directory);
+                        phase.entries(transformation.explodeArchive(file, directory, appliedPatches));
+                    }
+                    continue;
+                }
+
+                try (PatchReport.Phase phase = report.start("transform", file.getName())) {
+                    final long length = file.length();
+                    if (remote) {
+                        final Set<String> applied = new HashSet<>(client.transform(config, Collections.singletonList(buildDirectory),
+                                file, file, new MavenLog(getLog())));
+                        clazzes.stream()
+                                .filter(clazz -> applied.contains(clazz.getName()))
+                                .forEach(appliedPatches::applied);
+                    } else {
+                        final File patched = transformation.transformArchive(file, appliedPatches);
+                        IO.copy(patched, file);
+                    }
+                    phase.bytes(length, file.length()).entries(entries(file));
+                }
+
+                if (layers != null && !layers.isEmpty() && file.getName().endsWith(".zip")) {
+                    try (PatchReport.Phase phase = report.start("layers", file.getName())) {
+                        final List<LayeredTar.Output> outputs = LayeredTar.toLayers(file, layers, fileModes, new MavenLog(getLog()));
+                        phase.bytes(file.length(), outputs.stream().mapToLong(LayeredTar.Output::getSize).sum());
+                    }
+                }
 
                 if (createTarGz && file.getName().endsWith(".zip")) {
                     final File tarGz;
-                    try {
+                    try (PatchReport.Phase phase = report.start("tar.gz", file.getName())) {
                         tarGz = ZipToTar.toTarGz(file, fileModes, new MavenLog(getLog()));
+                        phase.bytes(file.length(), tarGz.length());
                     } catch (Exception e) {
                         getLog().error("Failed to create tar.gz from " + file.getAbsolutePath(), e);
                         continue;
@@ -337,11 +516,45 @@ public class PatchMojo extends AbstractMojo {
                 }
             }
 
-            updateSourceJar();
+            if (directories != null) {
+                for (final File directory : directories) {
+                    try (PatchReport.Phase phase = report.start("transform directory", directory.getName())) {
+                        phase.entries(transformation.transformDirectory(directory, directory, appliedPatches));
+                    }
+                }
+            }
+
+            if (profile) transformation.getProfiler().report(new MavenLog(getLog()));
 
-            transformation.complete();
+            report.time("patch source jars", this::updateSourceJar);
+            report.time("complete", () -> transformation.complete(appliedPatches));
         } catch (IOException | MojoFailureException e) {
             throw new MojoExecutionException("Error occurred during execution", e);
+        } finally {
+            report(report);
+        }
+    }
+
+    private void report(final PatchReport report) {
+        if (!patchReport) return;
+
+        report.log(getLog());
+        try {
+            report.write(patchReportFile);
+        } catch (IOException e) {
+            getLog().warn("Cannot write " + patchReportFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static long length(final Stream<File> files) {
+        return files.filter(Objects::nonNull)
+                .mapToLong(File::length)
+                .sum();
+    }
+
+    private static long entries(final File file) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            return zipFile.size();
         }
     }
 
@@ -356,34 +569,26 @@ public class PatchMojo extends AbstractMojo {
 
         Files.mkdir(patchSourceJarsDirectory);
 
-        for (final File sourceJar : sourceJars) {
-            final File extractedZip = new File(patchClasspathDirectory, sourceJar.getName() + ".extracted");
-            Files.mkdir(extractedZip);
-            Zips.unzip(sourceJar, extractedZip);
-
-            copySource(patchSourceDirectory, extractedZip);
+        final SourceJarPatcher patcher = new SourceJarPatcher(patchSourceDirectory, PatchConfig.outputTimestamp(outputTimestamp));
 
-            getLog().info("Patching " + sourceJar.getName());
-
-            final File patchedSourceJar = new File(patchClasspathDirectory, sourceJar.getName() + ".patched");
-
-            try (final ZipOutputStream zipOutputStream = new ZipOutputStream(IO.write(patchedSourceJar))) {
-                final List<File> files = Dir.from(extractedZip).files().collect(Collectors.toList());
-
-                final int beginIndex = extractedZip.getAbsolutePath().length() + 1;
+        try {
+            sourceJars.parallelStream().forEach(sourceJar -> {
+                getLog().info("Patching " + sourceJar.getName());
 
-                for (File file : files) {
-                    final String relativeFileName = file.getAbsolutePath().substring(beginIndex);
-                    zipOutputStream.putNextEntry(new ZipEntry(relativeFileName));
-                    zipOutputStream.write(IO.readBytes(file));
+                final File patchedSourceJar = new File(patchSourceJarsDirectory, sourceJar.getName() + ".patched");
+                try {
+                    patcher.patch(sourceJar, patchedSourceJar);
+                    IO.copy(patchedSourceJar, sourceJar);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot patch " + sourceJar.getAbsolutePath(), e);
                 }
-            }
-
-            IO.copy(patchedSourceJar, sourceJar);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    private void prepareResources() throws MojoExecutionException {
+    void prepareResources() throws MojoExecutionException {
         final File defaultPatchResources = new File(basedir, "src/patch/resources");
 
         Files.mkdir(patchResourceDirectory);
@@ -407,10 +612,7 @@ public class PatchMojo extends AbstractMojo {
                 throw new MojoExecutionException(message);
             }
         }
-        patchResources.stream()
-                .filter(Objects::nonNull)
-                .filter(File::exists)
-                .forEach(file -> copy(file, file, patchResourceDirectory));
+        stage(patchResources, patchResourceDirectory);
     }
 
     private List<Clazz> classes() {
@@ -421,18 +623,11 @@ public class PatchMojo extends AbstractMojo {
     }
 
     /**
-     * Any zip files contained in the Artifact set should be extracted
+     * The jars inside any zip files contained in the Artifact set should be extracted
      * Any jar files contained in the Artifact set will be returned as-is
      */
     private List<File> prepareJars(final List<Artifact> artifacts) throws IOException {
 
-        // Extract all zip, war, ear, rar files.  Do not extract jar files.
-        for (final Artifact artifact : artifacts) {
-            if (isZip(artifact.getFile()) && !isJar(artifact.getFile())) {
-                Zips.unzip(artifact.getFile(), patchClasspathDirectory);
-            }
-        }
-
         // Collect a list of jars
         final List<File> jars = new ArrayList<>();
 
@@ -443,12 +638,12 @@ public class PatchMojo extends AbstractMojo {
                 .filter(this::isJar)
                 .forEach(jars::add);
 
-        // Add any extracted files that are jars
-        Dir.from(patchClasspathDirectory)
-                .files()
-                .filter(File::isFile)
-                .filter(this::isJar)
-                .forEach(jars::add);
+        // Extract the jars inside all zip, war, ear, rar files.  Do not extract jar files.
+        for (final Artifact artifact : artifacts) {
+            if (isZip(artifact.getFile()) && !isJar(artifact.getFile())) {
+                jars.addAll(JarExtractor.extract(artifact.getFile(), patchClasspathDirectory));
+            }
+        }
 
         return jars;
     }
@@ -461,7 +656,7 @@ public class PatchMojo extends AbstractMojo {
         return new Is.Zip().accept(file);
     }
 
-    private List<Artifact> getPatchArtifacts() {
+    List<Artifact> getPatchArtifacts() {
         final Predicate<String> match = Pattern.compile(select).asPredicate();
         final Artifact[] available = getSourceArtifacts();
 
@@ -481,19 +676,11 @@ public class PatchMojo extends AbstractMojo {
         return selected;
     }
 
-    private void compile(final List<File> jars) throws MojoExecutionException, MojoFailureException {
+    void compile(final List<File> jars) throws MojoExecutionException, MojoFailureException {
         final List<File> files = resolve(dependencies);
 
         getLog().debug("Using compiler '" + compilerId + "'.");
 
-        final Compiler compiler;
-
-        try {
-            compiler = compilerManager.getCompiler(compilerId);
-        } catch (NoSuchCompilerException e) {
-            throw new MojoExecutionException("No such compiler '" + e.getCompilerId() + "'.");
-        }
-
         final Toolchain tc = getToolchain();
         if (tc != null) {
             getLog().info("Toolchain in maven-compiler-plugin: " + tc);
@@ -523,50 +710,36 @@ public class PatchMojo extends AbstractMojo {
                 throw new MojoExecutionException(message);
             }
         }
-        patchSources.stream()
-                .filter(Objects::nonNull)
-                .filter(File::exists)
-                .forEach(file -> copy(file, file, patchSourceDirectory));
+        stage(patchSources, patchSourceDirectory);
 
+        final List<File> classpath = new ArrayList<>(jars);
+        classpath.addAll(files);
 
-        final CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
-        compilerConfiguration.setOutputLocation(buildDirectory.getAbsolutePath());
-        compilerConfiguration.setOptimize(false);
-        compilerConfiguration.setDebug(true);
-        compilerConfiguration.setParameters(false);
-        compilerConfiguration.setVerbose(false);
-        compilerConfiguration.setShowWarnings(false);
-        compilerConfiguration.setFailOnWarning(false);
-        compilerConfiguration.setShowDeprecation(false);
-        compilerConfiguration.setReleaseVersion(release);
-        compilerConfiguration.setSourceVersion(source);
-        compilerConfiguration.setTargetVersion(target);
-        compilerConfiguration.setProc(null);
-        compilerConfiguration.setSourceLocations(Collections.singletonList(patchSourceDirectory.getAbsolutePath()));
-        compilerConfiguration.setAnnotationProcessors(null);
-        compilerConfiguration.setSourceEncoding(encoding);
-        compilerConfiguration.setFork(true);
-        compilerConfiguration.setExecutable(executable);
-        compilerConfiguration.setWorkingDirectory(basedir);
-        compilerConfiguration.setCompilerVersion(compilerVersion);
-        compilerConfiguration.setBuildDirectory(buildDirectory);
-        compilerConfiguration.setOutputFileName(null);
+        final PatchCache cache = usePatchCache ? new PatchCache(patchCacheDirectory, getLog()) : null;
+        final String cacheKey;
+        try {
+            cacheKey = cache != null ? cache.key(patchSourceDirectory, classpath, compilerId, source, target, release, encoding, compiler()) : null;
+            if (cache != null && cache.restore(cacheKey, buildDirectory, patchCompileStateFile)) return;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot read patch cache " + patchCacheDirectory.getAbsolutePath(), e);
+        }
 
-        // Add each jar as a classpath entry
-        jars.stream()
-                .map(File::getAbsolutePath)
-                .forEach(compilerConfiguration::addClasspathEntry);
+        List<File> compileClasspath = classpath;
+        if (minimizeClasspath && !classpath.isEmpty()) {
+            try {
+                compileClasspath = ClasspathIndex.of(classpath).select(patchSourceDirectory, classpath);
+                getLog().info(String.format("Compiling against %s of %s classpath jars", compileClasspath.size(), classpath.size()));
+            } catch (IOException e) {
+                getLog().warn("Cannot minimize the patch classpath, using all jars", e);
+            }
+        }
 
-        files.stream()
-                .map(File::getAbsolutePath)
-                .forEach(compilerConfiguration::addClasspathEntry);
+        CompilerResult compilerResult = compile(classpath, compileClasspath);
 
-        // Now we can compile!
-        final CompilerResult compilerResult;
-        try {
-            compilerResult = compiler.performCompile(compilerConfiguration);
-        } catch (Exception e) {
-            throw new MojoExecutionException("Fatal error compiling", e);
+        if (!compilerResult.isSuccess() && compileClasspath.size() != classpath.size()
+                && ClasspathIndex.isUnresolved(compilerResult.getCompilerMessages())) {
+            getLog().info("Compilation against the minimized classpath could not resolve a class, retrying with all classpath jars");
+            compilerResult = compile(classpath, classpath);
         }
 
         List<CompilerMessage> warnings = new ArrayList<>();
@@ -637,6 +810,106 @@ public class PatchMojo extends AbstractMojo {
                 }
             }
         }
+
+        if (cache != null) {
+            try {
+                cache.store(cacheKey, buildDirectory, patchCompileStateFile);
+            } catch (IOException e) {
+                getLog().warn("Cannot store patch classes in cache " + patchCacheDirectory.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private CompilerResult compile(final List<File> classpath, final List<File> compileClasspath) throws MojoExecutionException {
+        if (isForked()) {
+            return forkedCompile(compileClasspath);
+        }
+
+        try {
+            return new InProcessCompiler(session, patchCompileStateFile, getLog())
+                    .source(source)
+                    .target(target)
+                    .release(release)
+                    .encoding(encoding)
+                    .compile(patchSourceDirectory, buildDirectory, classpath, compileClasspath);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Fatal error compiling", e);
+        }
+    }
+
+    /**
+     * Toolchains, explicit executables and non-javac compilers can only
+     * be honored by forking a compiler process through plexus-compiler.
+     */
+    private boolean isForked() {
+        if (fork) return true;
+        if (executable != null) return true;
+        if (!"javac".equals(compilerId)) return true;
+        return !InProcessCompiler.isAvailable();
+    }
+
+    /**
+     * The compiler that will produce the classes, so the classes of a
+     * forked compile and of an in-process compile never replace each other
+     * in the patch cache
+     */
+    private String compiler() {
+        if (!isForked()) {
+            return "in-process " + System.getProperty("java.vendor") + " " + System.getProperty("java.version");
+        }
+
+        final File tool = executable != null ? new File(executable) : null;
+        return "forked " + executable + " " + (tool != null ? tool.lastModified() : 0) + " " + compilerVersion;
+    }
+
+    private CompilerResult forkedCompile(final List<File> classpath) throws MojoExecutionException {
+        final Compiler compiler;
+
+        try {
+            compiler = compilerManager.getCompiler(compilerId);
+        } catch (NoSuchCompilerException e) {
+            throw new MojoExecutionException("No such compiler '" + e.getCompilerId() + "'.");
+        }
+
+        final CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
+        compilerConfiguration.setOutputLocation(buildDirectory.getAbsolutePath());
+        compilerConfiguration.setOptimize(false);
+        compilerConfiguration.setDebug(true);
+        compilerConfiguration.setParameters(false);
+        compilerConfiguration.setVerbose(false);
+        compilerConfiguration.setShowWarnings(false);
+        compilerConfiguration.setFailOnWarning(false);
+        compilerConfiguration.setShowDeprecation(false);
+        compilerConfiguration.setReleaseVersion(release);
+        compilerConfiguration.setSourceVersion(source);
+        compilerConfiguration.setTargetVersion(target);
+        compilerConfiguration.setProc(null);
+        compilerConfiguration.setSourceLocations(Collections.singletonList(patchSourceDirectory.getAbsolutePath()));
+        compilerConfiguration.setAnnotationProcessors(null);
+        compilerConfiguration.setSourceEncoding(encoding);
+        compilerConfiguration.setFork(true);
+        compilerConfiguration.setExecutable(executable);
+        compilerConfiguration.setWorkingDirectory(basedir);
+        compilerConfiguration.setCompilerVersion(compilerVersion);
+        compilerConfiguration.setBuildDirectory(buildDirectory);
+        compilerConfiguration.setOutputFileName(null);
+
+        // Add each jar as a classpath entry
+        classpath.stream()
+                .map(File::getAbsolutePath)
+                .forEach(compilerConfiguration::addClasspathEntry);
+
+        // A forked build does not track what it compiled
+        if (patchCompileStateFile.exists() && !patchCompileStateFile.delete()) {
+            getLog().warn("Could not delete " + patchCompileStateFile.getAbsolutePath());
+        }
+
+        // Now we can compile!
+        try {
+            return compiler.performCompile(compilerConfiguration);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Fatal error compiling", e);
+        }
     }
 
     private List<File> resolve(final List<String> dependencies) throws MojoFailureException, MojoExecutionException {
@@ -656,53 +929,17 @@ public class PatchMojo extends AbstractMojo {
         }
     }
 
-    private void copy(final File root, final File src, final File dest) {
-        copy:
-        for (final File file : src.listFiles()) {
-
-            final String path = file.getAbsolutePath().substring(root.getAbsolutePath().length() + 1);
-
-            for (final String exclude : sourceExcludes) {
-                if (path.replace(File.separatorChar, '/').matches(exclude)) {
-                    getLog().debug("Exclude source file: " + file.getAbsolutePath());
-                    continue copy;
-                }
-            }
-
-            if (file.isDirectory()) {
-                final File dir = new File(dest, file.getName());
-                Files.mkdir(dir);
-                copy(root, file, dir);
-            } else if (file.isFile()) {
-                try (InputStream in = IO.read(file)) {
-                    if (!skipTransform && transformSources) {
-                        IO.copy(updateImports(in), new File(dest, file.getName()));
-                    } else {
-                        IO.copy(in, new File(dest, file.getName()));
-                    }
-                } catch (IOException e) {
-                    throw new UncheckedIOException("Cannot copy file " + file.getAbsolutePath(), e);
-                }
-            }
-        }
-    }
-
-    private void copySource(final File src, final File dest) {
-        for (final File file : src.listFiles()) {
-
-            if (file.isDirectory()) {
+    private void stage(final List<File> directories, final File dest) throws MojoExecutionException {
+        final Staging staging = new Staging(sourceExcludes, !skipTransform && transformSources ? this::updateImports : null, getLog());
 
-                final File dir = new File(dest, file.getName());
-                Files.mkdir(dir);
-                copySource(file, dir);
+        final List<File> sources = directories.stream()
+                .filter(directory -> directory != null && directory.exists())
+                .collect(Collectors.toList());
 
-            } else if (file.isFile()) {
-                try (InputStream in = IO.read(file)) {
-                    IO.copy(in, new File(dest, file.getName()));
-                } catch (IOException e) {
-                    throw new UncheckedIOException("Cannot copy file " + file.getAbsolutePath(), e);
-                }
-            }
+        try {
+            staging.stage(sources, dest);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Cannot copy " + sources + " to " + dest.getAbsolutePath(), e);
         }
     }
 
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Wall time, process CPU time and volume of each phase of a patch run.
+ *
+ * The CPU time is that of the whole JVM during the phase, so it includes
+ * the garbage collector, the JIT and anything else Maven runs meanwhile.
+ * Process utilization is that time divided by the wall time available to
+ * all processors, so 100% means every core was busy for the whole phase.
+ * Both are -1 when the JVM does not report process CPU time.
+ */
+public class PatchReport {
+
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<>());
+    private final long started = System.nanoTime();
+
+    public Phase start(final String name) {
+        return start(name, null);
+    }
+
+    public Phase start(final String name, final String subject) {
+        final Phase phase = new Phase(name, subject);
+        phases.add(phase);
+        return phase;
+    }
+
+    public interface Task<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Runs a task as a phase of its own
+     */
+    public <E extends Exception> void time(final String name, final Task<E> task) throws E {
+        final Phase phase = start(name);
+        try {
+            task.run();
+        } finally {
+            phase.close();
+        }
+    }
+
+    public List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    public void log(final Log log) {
+        final String format = "%-22s %-40s %10s %11s %9s %10s %10s %8s";
+        log.info("Patch report");
+        log.info(String.format(format, "Phase", "Subject", "Wall ms", "Proc CPU ms", "Proc util", "Bytes in", "Bytes out", "Entries"));
+
+        for (final Phase phase : getPhases()) {
+            log.info(String.format(format,
+                    phase.name,
+                    phase.subject == null ? "" : abbreviate(phase.subject, 40),
+                    phase.wallMillis(),
+                    phase.cpuNanos < 0 ? "" : String.valueOf(phase.cpuNanos / 1_000_000),
+                    phase.utilization() < 0 ? "" : String.format(Locale.ROOT, "%.0f%%", phase.utilization() * 100),
+                    phase.bytesIn < 0 ? "" : String.valueOf(phase.bytesIn),
+                    phase.bytesOut < 0 ? "" : String.valueOf(phase.bytesOut),
+                    phase.entries < 0 ? "" : String.valueOf(phase.entries)));
+        }
+
+        log.info(String.format("Total %s ms on %s processors", (System.nanoTime() - started) / 1_000_000, processors));
+    }
+
+    public void write(final File file) throws IOException {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"processors\": ").append(processors).append(",\n");
+        json.append("  \"totalMillis\": ").append((System.nanoTime() - started) / 1_000_000).append(",\n");
+        json.append("  \"phases\": [");
+
+        final List<Phase> list = getPhases();
+        for (int i = 0; i < list.size(); i++) {
+            final Phase phase = list.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {");
+            json.append("\"name\": ").append(quote(phase.name));
+            json.append(", \"subject\": ").append(phase.subject == null ? "null" : quote(phase.subject));
+            json.append(", \"wallMillis\": ").append(phase.wallMillis());
+            json.append(", \"processCpuMillis\": ").append(phase.cpuNanos < 0 ? -1 : phase.cpuNanos / 1_000_000);
+            json.append(", \"processUtilization\": ").append(String.format(Locale.ROOT, "%.3f", phase.utilization()));
+            json.append(", \"bytesIn\": ").append(phase.bytesIn);
+            json.append(", \"bytesOut\": ").append(phase.bytesOut);
+            json.append(", \"entries\": ").append(phase.entries);
+            json.append("}");
+        }
+
+        json.append(list.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String abbreviate(final String s, final int max) {
+        return s.length() <= max ? s : "..." + s.substring(s.length() - max + 3);
+    }
+
+    private static String quote(final String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (final char c : s.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static long processCpuTime() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    public class Phase implements AutoCloseable {
+        private final String name;
+        private final String subject;
+        private final long start = System.nanoTime();
+        private final long cpuStart = processCpuTime();
+
+        private long wallNanos = -1;
+        private long cpuNanos = -1;
+        private long bytesIn = -1;
+        private long bytesOut = -1;
+        private long entries = -1;
+
+        private Phase(final String name, final String subject) {
+            this.name = name;
+            this.subject = subject;
+        }
+
+        public Phase bytes(final long in, final long out) {
+            this.bytesIn = in;
+            this.bytesOut = out;
+            return this;
+        }
+
+        public Phase entries(final long entries) {
+            this.entries = entries;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public long wallMillis() {
+            return (wallNanos < 0 ? System.nanoTime() - start : wallNanos) / 1_000_000;
+        }
+
+        public double utilization() {
+            if (cpuNanos < 0 || wallNanos <= 0) return -1;
+            return cpuNanos / ((double) wallNanos * processors);
+        }
+
+        /**
+         * Stops the clock, only the first call counts
+         */
+        @Override
+        public void close() {
+            if (wallNanos >= 0) return;
+            wallNanos = System.nanoTime() - start;
+
+            final long cpuEnd = processCpuTime();
+            if (cpuStart >= 0 && cpuEnd >= 0) cpuNanos = cpuEnd - cpuStart;
+        }
+    }
+}
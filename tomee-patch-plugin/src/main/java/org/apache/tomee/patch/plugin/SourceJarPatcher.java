@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.tomee.patch.core.Transformation;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges the patch sources into an attached sources jar in a single pass.
+ *
+ * Entries with a patched counterpart are replaced, patch sources the jar
+ * did not have are appended and every other entry is copied still
+ * compressed, so the jar is never extracted and untouched entries are
+ * never inflated or deflated again.
+ *
+ * With an output timestamp, patched and added entries are dated at that
+ * time instead of the time of their patch source, so the jar is as
+ * reproducible as the one it was made from.
+ */
+public class SourceJarPatcher {
+
+    private final Map<String, File> patches;
+    private final Long outputTimestamp;
+
+    public SourceJarPatcher(final File patchSourceDirectory) {
+        this(patchSourceDirectory, null);
+    }
+
+    /**
+     * @param outputTimestamp the time in milliseconds of patched and added
+     *                        entries, null to use the time of their file
+     */
+    public SourceJarPatcher(final File patchSourceDirectory, final Long outputTimestamp) {
+        this.patches = Collections.unmodifiableMap(files(patchSourceDirectory));
+        this.outputTimestamp = outputTimestamp;
+    }
+
+    public void patch(final File sourceJar, final File patchedSourceJar) throws IOException {
+        final Map<String, File> remaining = new TreeMap<>(patches);
+
+        try (ZipFile zipFile = ZipFile.builder().setFile(sourceJar).get();
+             ZipArchiveOutputStream zout = new ZipArchiveOutputStream(patchedSourceJar)) {
+
+            for (final ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+                final File patch = remaining.remove(entry.getName());
+
+                if (patch == null) {
+                    try (InputStream raw = zipFile.getRawInputStream(entry)) {
+                        zout.addRawArchiveEntry(entry, raw);
+                    }
+                    continue;
+                }
+
+                write(zout, entry.getName(), patch);
+            }
+
+            for (final Map.Entry<String, File> patch : remaining.entrySet()) {
+                write(zout, patch.getKey(), patch.getValue());
+            }
+
+            zout.finish();
+        }
+    }
+
+    private void write(final ZipArchiveOutputStream zout, final String name, final File file) throws IOException {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        if (outputTimestamp != null) {
+            Transformation.reproducible(entry, outputTimestamp);
+        } else {
+            entry.setTime(file.lastModified());
+        }
+
+        zout.putArchiveEntry(entry);
+        try (InputStream in = IO.read(file)) {
+            IO.copy(in, zout);
+        } finally {
+            zout.closeArchiveEntry();
+        }
+    }
+
+    private static Map<String, File> files(final File directory) {
+        final Map<String, File> files = new TreeMap<>();
+        collect(directory, directory, files);
+        return files;
+    }
+
+    private static void collect(final File root, final File dir, final Map<String, File> files) {
+        final File[] children = dir.listFiles();
+        if (children == null) return;
+
+        for (final File file : children) {
+            if (file.isDirectory()) {
+                collect(root, file, files);
+            } else if (file.isFile()) {
+                final String path = file.getAbsolutePath()
+                        .substring(root.getAbsolutePath().length() + 1)
+                        .replace(File.separatorChar, '/');
+                files.put(path, file);
+            }
+        }
+    }
+}
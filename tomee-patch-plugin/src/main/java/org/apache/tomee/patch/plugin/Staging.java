@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.Log;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Copies patch sources or resources into the build directory.
+ *
+ * The exclude patterns are compiled once, the tree is walked with NIO
+ * and the files are copied in parallel.  A file whose destination already
+ * has the same content is not written again, so an unchanged tree leaves
+ * the staged copy, and its timestamps, untouched.  The files staged are
+ * listed next to the destination, so a file staged by an earlier run that
+ * the sources no longer have is deleted, along with the directories this
+ * leaves empty.  Files other steps wrote into the destination are kept.
+ */
+public class Staging {
+
+    private final List<Pattern> excludes;
+    private final Function<InputStream, InputStream> transform;
+    private final Log log;
+
+    /**
+     * @param transform optional filter applied to the content of every file, may be null
+     */
+    public Staging(final List<String> excludes, final Function<InputStream, InputStream> transform, final Log log) {
+        this.excludes = excludes.stream()
+                .map(Pattern::compile)
+                .collect(Collectors.toList());
+        this.transform = transform;
+        this.log = log;
+    }
+
+    public void stage(final File source, final File destination) throws IOException {
+        stage(Collections.singletonList(source), destination);
+    }
+
+    /**
+     * Stages several trees into one destination, a file of a later tree
+     * wins over the file of the same path in an earlier one
+     */
+    public void stage(final List<File> sources, final File destination) throws IOException {
+        final Path target = destination.toPath();
+        final Map<String, Path> files = new LinkedHashMap<>();
+        final Set<String> directories = new HashSet<>();
+
+        for (final File source : sources) {
+            final Path root = source.toPath();
+
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                    if (dir.equals(root)) return FileVisitResult.CONTINUE;
+
+                    if (isExcluded(root, dir)) return FileVisitResult.SKIP_SUBTREE;
+
+                    final String path = path(root, dir);
+                    directories.add(path);
+                    Files.createDirectories(target.resolve(path));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && !isExcluded(root, file)) files.put(path(root, file), file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        try {
+            files.entrySet().parallelStream().forEach(file -> copy(file.getValue(), target.resolve(file.getKey())));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final File manifest = manifest(destination);
+        prune(target, staged(manifest), files.keySet(), directories);
+
+        Files.createDirectories(target);
+        Files.write(manifest.toPath(), new TreeSet<>(files.keySet()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The list of the files staged into the destination, kept beside it
+     * so it is never staged, compiled or added itself
+     */
+    private static File manifest(final File destination) {
+        return new File(destination.getParentFile(), destination.getName() + ".staged");
+    }
+
+    private static Set<String> staged(final File manifest) throws IOException {
+        if (!manifest.isFile()) return Collections.emptySet();
+        return new HashSet<>(Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private void prune(final Path target, final Set<String> staged, final Set<String> files, final Set<String> directories) throws IOException {
+        for (final String path : staged) {
+            if (path.isEmpty() || files.contains(path)) continue;
+
+            final Path file = target.resolve(path).normalize();
+            if (!file.startsWith(target)) continue;
+
+            if (Files.deleteIfExists(file)) {
+                log.debug("Delete staged file no longer in the sources: " + file.toAbsolutePath());
+            }
+
+            // Directories only the deleted files were in
+            for (Path dir = file.getParent(); dir != null && !dir.equals(target); dir = dir.getParent()) {
+                if (directories.contains(path(target, dir)) || !isEmpty(dir)) break;
+                Files.delete(dir);
+            }
+        }
+    }
+
+    private static boolean isEmpty(final Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return false;
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            return !children.iterator().hasNext();
+        }
+    }
+
+    private static String path(final Path root, final Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private boolean isExcluded(final Path root, final Path file) {
+        if (excludes.isEmpty()) return false;
+
+        final String path = path(root, file);
+        for (final Pattern exclude : excludes) {
+            if (exclude.matcher(path).matches()) {
+                log.debug("Exclude source file: " + file.toAbsolutePath());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void copy(final Path file, final Path destination) {
+        try {
+            if (transform == null) {
+                if (isSame(file, destination)) return;
+                Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+
+            final byte[] bytes;
+            try (InputStream in = transform.apply(IO.read(file.toFile()))) {
+                bytes = IO.readBytes(in);
+            }
+
+            if (Files.isRegularFile(destination) && Files.size(destination) == bytes.length
+                    && Arrays.equals(bytes, Files.readAllBytes(destination))) {
+                return;
+            }
+            Files.write(destination, bytes);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot copy file " + file.toAbsolutePath(), e);
+        }
+    }
+
+    private static boolean isSame(final Path file, final Path destination) throws IOException {
+        if (!Files.isRegularFile(destination)) return false;
+        if (Files.size(file) != Files.size(destination)) return false;
+        return Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(destination));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.tomee.patch.core.Additions;
+import org.apache.tomee.patch.core.ArchiveUpdate;
+import org.apache.tomee.patch.core.DirectoryWatcher;
+import org.apache.tomee.patch.core.LayeredTar;
+import org.apache.tomee.patch.core.ZipToTar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Patches the archives like the run goal, then watches the patch sources
+ * and resources.  On every change only the changed sources are recompiled
+ * and only the changed classes and resources are written into the
+ * patched archives, all other entries are copied raw.  Inner classes and
+ * added resources whose sources were deleted are removed from the
+ * archives.  The tar.gz and layers of an updated zip are written again.
+ *
+ *   mvn tomee-patch:watch
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.RUNTIME_PLUS_SYSTEM, requiresProject = true)
+public class WatchMojo extends PatchMojo {
+
+    /**
+     * Milliseconds without further changes before an update starts
+     */
+    @Parameter(property = "patch.watchQuietPeriod", defaultValue = "300")
+    private long watchQuietPeriod;
+
+    @Override
+    public void execute() throws MojoExecutionException, CompilationFailureException {
+        if (explodeDirectory != null) {
+            // Updates go into the zips, which are left untransformed when exploded
+            throw new MojoExecutionException("The watch goal updates the patched zips and cannot be used with explodeDirectory");
+        }
+        if (directories != null && !directories.isEmpty()) {
+            throw new MojoExecutionException("The watch goal updates the patched zips and cannot be used with directories");
+        }
+
+        super.execute();
+
+        final List<File> archives = getPatchArtifacts().stream()
+                .map(Artifact::getFile)
+                .collect(Collectors.toList());
+
+        final List<File> roots = new ArrayList<>(patchSources);
+        roots.addAll(patchResources);
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(roots)) {
+            getLog().info("Watching " + roots + " for changes");
+            while (true) {
+                watcher.await(watchQuietPeriod);
+                update(archives);
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Watch failed", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void update(final List<File> archives) throws MojoExecutionException, IOException {
+        final long start = System.nanoTime();
+
+        final Map<File, Long> classesBefore = snapshot(buildDirectory);
+        final Map<File, Long> resourcesBefore = snapshot(patchResourceDirectory);
+
+        prepareResources();
+        try {
+            compile(extractedJars);
+        } catch (final MojoFailureException e) {
+            getLog().error(e.getMessage());
+            getLog().error("Compilation failed, waiting for the next change");
+            return;
+        }
+
+        final ArchiveUpdate update = new ArchiveUpdate(new MavenLog(getLog()))
+                .classes(buildDirectory, changed(classesBefore, snapshot(buildDirectory)))
+                .resources(patchResourceDirectory, changed(resourcesBefore, snapshot(patchResourceDirectory)),
+                        add == null ? new Additions() : add);
+
+        if (update.isEmpty()) {
+            getLog().info("No patch classes or resources changed");
+            return;
+        }
+
+        int updated = 0;
+        for (final File archive : archives) {
+            final int count = update.apply(archive);
+            updated += count;
+
+            if (count > 0 && createTarGz && archive.getName().endsWith(".zip")) {
+                try {
+                    ZipToTar.toTarGz(archive, fileModes, new MavenLog(getLog()));
+                } catch (final Exception e) {
+                    getLog().error("Failed to create tar.gz from " + archive.getAbsolutePath(), e);
+                }
+            }
+
+            if (count > 0 && layers != null && !layers.isEmpty() && archive.getName().endsWith(".zip")) {
+                try {
+                    LayeredTar.toLayers(archive, layers, fileModes, new MavenLog(getLog()));
+                } catch (final IOException e) {
+                    getLog().error("Failed to create layers from " + archive.getAbsolutePath(), e);
+                }
+            }
+        }
+
+        getLog().info(String.format("Updated %s entries in %s ms", updated, (System.nanoTime() - start) / 1_000_000));
+    }
+
+    private static Map<File, Long> snapshot(final File directory) throws IOException {
+        final Map<File, Long> files = new HashMap<>();
+        if (!directory.isDirectory()) return files;
+
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .forEach(file -> files.put(file, file.lastModified()));
+        }
+        return files;
+    }
+
+    /**
+     * Files added, modified or deleted
+     */
+    private static List<File> changed(final Map<File, Long> before, final Map<File, Long> after) {
+        final List<File> changed = after.entrySet().stream()
+                .filter(entry -> !Objects.equals(before.get(entry.getKey()), entry.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        before.keySet().stream()
+                .filter(file -> !after.containsKey(file))
+                .forEach(changed::add);
+        return changed;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClasspathIndexTest {
+
+    /**
+     * javac needs every supertype of a referenced class, even those in
+     * jars the sources never name
+     */
+    @Test
+    public void transitiveSupertype() throws Exception {
+        final File child = jar("org/lib/Child", clazz("org/lib/Child", "org/base/Middle"));
+        final File middle = jar("org/base/Middle", clazz("org/base/Middle", "org/root/Base"));
+        final File base = jar("org/root/Base", clazz("org/root/Base", "java/lang/Object"));
+        final File unrelated = jar("org/other/Unrelated", clazz("org/other/Unrelated", "java/lang/Object"));
+        final List<File> classpath = Arrays.asList(unrelated, base, middle, child);
+
+        final File sources = source("org/example/Red",
+                "package org.example;\n" +
+                        "import org.lib.Child;\n" +
+                        "public class Red extends Child { }\n");
+
+        assertEquals(Arrays.asList(base, middle, child), ClasspathIndex.of(classpath).select(sources, classpath));
+    }
+
+    @Test
+    public void staticImport() throws Exception {
+        final File constants = jar("org/lib/Constants", clazz("org/lib/Constants", "java/lang/Object"));
+        final File unrelated = jar("org/other/Unrelated", clazz("org/other/Unrelated", "java/lang/Object"));
+        final List<File> classpath = Arrays.asList(unrelated, constants);
+
+        final File sources = source("org/example/Red",
+                "package org.example;\n" +
+                        "import static org.lib.Constants.NAME;\n" +
+                        "public class Red { String name() { return NAME; } }\n");
+
+        assertEquals(Collections.singletonList(constants), ClasspathIndex.of(classpath).select(sources, classpath));
+    }
+
+    @Test
+    public void unresolved() {
+        assertTrue(ClasspathIndex.isUnresolved(Collections.singletonList(error("cannot find symbol\n  symbol: class Child"))));
+        assertTrue(ClasspathIndex.isUnresolved(Collections.singletonList(error("package org.lib does not exist"))));
+        assertTrue(ClasspathIndex.isUnresolved(Collections.singletonList(error("cannot access org.base.Middle"))));
+
+        assertFalse(ClasspathIndex.isUnresolved(Collections.singletonList(error("incompatible types: int cannot be converted to String"))));
+        assertFalse(ClasspathIndex.isUnresolved(Collections.singletonList(
+                new CompilerMessage("Red.java", CompilerMessage.Kind.WARNING, 1, 1, 1, 1, "cannot find symbol"))));
+    }
+
+    private static CompilerMessage error(final String message) {
+        return new CompilerMessage("Red.java", CompilerMessage.Kind.ERROR, 1, 1, 1, 1, message);
+    }
+
+    private static byte[] clazz(final String name, final String superName) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static File jar(final String name, final byte[] bytes) throws Exception {
+        return Archive.archive().add(name + ".class", bytes).toJar();
+    }
+
+    private static File source(final String name, final String content) throws Exception {
+        final File sources = Files.tmpdir();
+        final File file = new File(sources, name + ".java");
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+        return sources;
+    }
+}
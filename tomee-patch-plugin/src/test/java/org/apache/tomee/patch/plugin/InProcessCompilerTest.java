@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InProcessCompilerTest {
+
+    private static final long OLD = 946_684_800_000L;
+
+    private File sources;
+    private File classes;
+    private InProcessCompiler compiler;
+
+    @Before
+    public void setUp() {
+        final File dir = Files.tmpdir();
+        sources = Files.mkdirs(new File(dir, "sources"));
+        classes = new File(dir, "classes");
+        compiler = new InProcessCompiler(new Object(), new File(dir, "state.properties"), new SystemStreamLog())
+                .release("8");
+    }
+
+    @Test
+    public void incremental() throws Exception {
+        source("org/example/Red", "package org.example; public class Red { public String name() { return \"red\"; } }");
+        source("org/example/Blue", "package org.example; public class Blue { public String name() { return \"blue\"; } }");
+        compile();
+        age();
+
+        source("org/example/Red", "package org.example; public class Red { public String name() { return \"crimson\"; } }");
+        compile();
+
+        assertTrue(clazz("org/example/Red").lastModified() > OLD);
+        assertEquals(OLD, clazz("org/example/Blue").lastModified());
+    }
+
+    @Test
+    public void deleted() throws Exception {
+        source("org/example/Red", "package org.example; public class Red { class Inner { } }");
+        source("org/example/Blue", "package org.example; public class Blue { }");
+        compile();
+        assertTrue(clazz("org/example/Red$Inner").exists());
+
+        assertTrue(new File(sources, "org/example/Red.java").delete());
+        compile();
+
+        assertFalse(clazz("org/example/Red").exists());
+        assertFalse(clazz("org/example/Red$Inner").exists());
+        assertTrue(clazz("org/example/Blue").exists());
+    }
+
+    @Test
+    public void dependents() throws Exception {
+        source("org/example/Red", "package org.example; public class Red { public static final int VALUE = 1; }");
+        source("org/example/Green", "package org.example; public class Green { public static final int VALUE = Red.VALUE + 1; }");
+        source("org/example/Blue", "package org.example; public class Blue { public static int value() { return Green.VALUE; } }");
+        source("org/example/White", "package org.example; public class White { }");
+        compile();
+        assertEquals(2, value());
+        age();
+
+        source("org/example/Red", "package org.example; public class Red { public static final int VALUE = 10; }");
+        compile();
+
+        // Blue inlines Green.VALUE, which inlines Red.VALUE
+        assertEquals(11, value());
+        assertEquals(OLD, clazz("org/example/White").lastModified());
+    }
+
+    private void compile() throws Exception {
+        final CompilerResult result = compiler.compile(sources, classes, Collections.emptyList());
+        assertTrue(String.valueOf(result.getCompilerMessages()), result.isSuccess());
+    }
+
+    private void source(final String name, final String content) throws Exception {
+        final File file = new File(sources, name + ".java");
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+    }
+
+    private File clazz(final String name) {
+        return new File(classes, name + ".class");
+    }
+
+    private void age() {
+        for (final File file : Files.collect(classes, ".*\\.class")) {
+            assertTrue(file.setLastModified(OLD));
+        }
+    }
+
+    private int value() throws Exception {
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, null)) {
+            return (Integer) loader.loadClass("org.example.Blue").getMethod("value").invoke(null);
+        }
+    }
+}
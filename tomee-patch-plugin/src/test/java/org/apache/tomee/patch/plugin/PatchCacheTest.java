@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PatchCacheTest {
+
+    @Test
+    public void key() throws Exception {
+        final File sources = Files.tmpdir();
+        write(new File(sources, "org/example/Red.java"), "class Red {}");
+        final PatchCache cache = new PatchCache(Files.tmpdir(), new SystemStreamLog());
+        final List<File> classpath = Collections.emptyList();
+
+        final String key = cache.key(sources, classpath, "javac", "1.8", "in-process 17");
+        assertEquals(key, cache.key(sources, classpath, "javac", "1.8", "in-process 17"));
+        assertNotEquals(key, cache.key(sources, classpath, "javac", "1.8", "forked /opt/jdk11/bin/javac 11"));
+
+        write(new File(sources, "org/example/Red.java"), "class Red { }");
+        assertNotEquals(key, cache.key(sources, classpath, "javac", "1.8", "in-process 17"));
+    }
+
+    @Test
+    public void storeAndRestore() throws Exception {
+        final PatchCache cache = new PatchCache(Files.tmpdir(), new SystemStreamLog());
+
+        final File first = Files.tmpdir();
+        write(new File(first, "org/example/Red.class"), "red");
+        write(new File(first, "org/example/Red.java"), "not cached");
+        final File firstState = new File(first, "state.properties");
+        write(firstState, "source.Red.java=abc");
+
+        assertFalse(cache.restore("key", Files.tmpdir(), new File(Files.tmpdir(), "state.properties")));
+        cache.store("key", first, firstState);
+
+        final File second = Files.tmpdir();
+        write(new File(second, "org/example/Stale.class"), "stale");
+        final File secondState = new File(second, "state.properties");
+        assertTrue(cache.restore("key", second, secondState));
+
+        assertEquals("red", IO.slurp(new File(second, "org/example/Red.class")));
+        assertFalse(new File(second, "org/example/Stale.class").exists());
+        assertFalse(new File(second, "org/example/Red.java").exists());
+        assertEquals("source.Red.java=abc", IO.slurp(secondState));
+    }
+
+    /**
+     * Modules of a parallel build store the same entry at the same time,
+     * which must not fail any of them nor leave a partial entry
+     */
+    @Test
+    public void concurrentStore() throws Exception {
+        final File directory = Files.tmpdir();
+        final PatchCache cache = new PatchCache(directory, new SystemStreamLog());
+        final int threads = 8;
+
+        final List<File> builds = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final File build = Files.tmpdir();
+            for (int j = 0; j < 20; j++) {
+                write(new File(build, "org/example/Class" + j + ".class"), "class " + j);
+            }
+            builds.add(build);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final File build : builds) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    cache.store("key", build, new File(build, "missing.properties"));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final String[] entries = directory.list();
+        assertArrayEquals(new String[]{"key"}, entries);
+
+        final File restored = Files.tmpdir();
+        assertTrue(cache.restore("key", restored, new File(restored, "state.properties")));
+        for (int j = 0; j < 20; j++) {
+            assertEquals("class " + j, IO.slurp(new File(restored, "org/example/Class" + j + ".class")));
+        }
+    }
+
+    private static void write(final File file, final String content) throws Exception {
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PatchReportTest {
+
+    @Test
+    public void json() throws Exception {
+        final String windows = "C:\\Users\\dev\\.m2\\repository\\tomee.zip";
+        final String quoted = "/tmp/\"quoted\" dir/tomee.zip";
+        final String control = "line\none\ttab\u0001";
+
+        final PatchReport report = new PatchReport();
+        report.start("transform", windows).bytes(10, 20).entries(3).close();
+        report.start("tar.gz", quoted).close();
+        report.start("sources", control).close();
+        report.time("complete", () -> { });
+
+        final File file = new File(Files.tmpdir(), "report/patch-report.json");
+        report.write(file);
+
+        final JsonObject json;
+        try (JsonReader reader = Json.createReader(IO.read(file))) {
+            json = reader.readObject();
+        }
+
+        assertEquals(Runtime.getRuntime().availableProcessors(), json.getInt("processors"));
+        assertTrue(json.getJsonNumber("totalMillis").longValue() >= 0);
+
+        final JsonArray phases = json.getJsonArray("phases");
+        assertEquals(4, phases.size());
+
+        final JsonObject transform = phases.getJsonObject(0);
+        assertEquals("transform", transform.getString("name"));
+        assertEquals(windows, transform.getString("subject"));
+        assertEquals(10, transform.getInt("bytesIn"));
+        assertEquals(20, transform.getInt("bytesOut"));
+        assertEquals(3, transform.getInt("entries"));
+
+        assertEquals(quoted, phases.getJsonObject(1).getString("subject"));
+        assertEquals(-1, phases.getJsonObject(1).getInt("bytesIn"));
+        assertEquals(control, phases.getJsonObject(2).getString("subject"));
+
+        assertEquals("complete", phases.getJsonObject(3).getString("name"));
+        assertTrue(phases.getJsonObject(3).isNull("subject"));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        final File file = new File(Files.tmpdir(), "patch-report.json");
+        new PatchReport().write(file);
+
+        try (JsonReader reader = Json.createReader(IO.read(file))) {
+            assertEquals(0, reader.readObject().getJsonArray("phases").size());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.junit.Test;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SourceJarPatcherTest {
+
+    @Test
+    public void patch() throws Exception {
+        final File sourceJar = Archive.archive()
+                .add("org/example/Red.java", "class Red { /* original */ }")
+                .add("org/example/Blue.java", "class Blue { }")
+                .toJar();
+
+        final File patches = Files.tmpdir();
+        write(new File(patches, "org/example/Red.java"), "class Red { /* patched */ }");
+        write(new File(patches, "org/example/Green.java"), "class Green { }");
+
+        final File patched = new File(Files.tmpdir(), "sources.jar");
+        new SourceJarPatcher(patches).patch(sourceJar, patched);
+
+        final Map<String, String> entries = entries(patched);
+        assertEquals("class Red { /* patched */ }", entries.get("org/example/Red.java"));
+        assertEquals("class Blue { }", entries.get("org/example/Blue.java"));
+        assertEquals("class Green { }", entries.get("org/example/Green.java"));
+        assertEquals(3, entries.size());
+    }
+
+    /**
+     * Patch sources saved at different times give the same jar when an
+     * output timestamp is set
+     */
+    @Test
+    public void reproducible() throws Exception {
+        final File sourceJar = Archive.archive()
+                .add("org/example/Red.java", "class Red { /* original */ }")
+                .toJar();
+        final long timestamp = 1_704_067_200_000L;
+
+        final byte[][] jars = new byte[2][];
+        for (int i = 0; i < jars.length; i++) {
+            final File patches = Files.tmpdir();
+            final File red = new File(patches, "org/example/Red.java");
+            final File green = new File(patches, "org/example/Green.java");
+            write(red, "class Red { /* patched */ }");
+            write(green, "class Green { }");
+            assertTrue(red.setLastModified(1_600_000_000_000L + i * 3_600_000L));
+            assertTrue(green.setLastModified(1_650_000_000_000L + i * 3_600_000L));
+
+            final File patched = new File(Files.tmpdir(), "sources.jar");
+            new SourceJarPatcher(patches, timestamp).patch(sourceJar, patched);
+            jars[i] = IO.readBytes(patched);
+        }
+
+        assertArrayEquals(jars[0], jars[1]);
+    }
+
+    private static Map<String, String> entries(final File jar) throws Exception {
+        final Map<String, String> entries = new TreeMap<>();
+        try (ZipInputStream in = new ZipInputStream(IO.read(jar))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(IO.readBytes(in)));
+            }
+        }
+        return entries;
+    }
+
+    private static void write(final File file, final String content) throws Exception {
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomee.patch.plugin;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StagingTest {
+
+    @Test
+    public void stage() throws Exception {
+        final File first = Files.tmpdir();
+        final File second = Files.tmpdir();
+        write(new File(first, "org/example/Red.java"), "first red");
+        write(new File(first, "org/example/Blue.java"), "blue");
+        write(new File(first, "org/example/Blue.java~"), "backup");
+        write(new File(second, "org/example/Red.java"), "second red");
+
+        final File destination = new File(Files.tmpdir(), "staged");
+        staging().stage(Arrays.asList(first, second), destination);
+
+        assertEquals("second red", IO.slurp(new File(destination, "org/example/Red.java")));
+        assertEquals("blue", IO.slurp(new File(destination, "org/example/Blue.java")));
+        assertFalse(new File(destination, "org/example/Blue.java~").exists());
+    }
+
+    @Test
+    public void deleted() throws Exception {
+        final File source = Files.tmpdir();
+        final File red = new File(source, "org/example/Red.java");
+        final File green = new File(source, "org/example/green/Green.java");
+        write(red, "red");
+        write(green, "green");
+
+        final File destination = new File(Files.tmpdir(), "staged");
+        staging().stage(Collections.singletonList(source), destination);
+        assertTrue(new File(destination, "org/example/green/Green.java").exists());
+
+        assertTrue(green.delete());
+        assertTrue(green.getParentFile().delete());
+        staging().stage(Collections.singletonList(source), destination);
+
+        assertFalse(new File(destination, "org/example/green/Green.java").exists());
+        assertFalse(new File(destination, "org/example/green").exists());
+        assertTrue(new File(destination, "org/example/Red.java").exists());
+    }
+
+    /**
+     * Only the files staged earlier are deleted, not those other steps
+     * wrote into the same directory
+     */
+    @Test
+    public void keepsOtherFiles() throws Exception {
+        final File source = Files.tmpdir();
+        final File red = new File(source, "org/example/Red.java");
+        write(red, "red");
+
+        final File destination = new File(Files.tmpdir(), "staged");
+        final File generated = new File(destination, "org/example/Generated.java");
+        final File other = new File(destination, "org/other/Other.java");
+        write(generated, "generated");
+        write(other, "other");
+
+        staging().stage(Collections.singletonList(source), destination);
+        assertTrue(red.delete());
+        staging().stage(Collections.singletonList(source), destination);
+
+        assertFalse(new File(destination, "org/example/Red.java").exists());
+        assertEquals("generated", IO.slurp(generated));
+        assertEquals("other", IO.slurp(other));
+    }
+
+    private static Staging staging() {
+        return new Staging(Collections.singletonList(".*~"), null, new SystemStreamLog());
+    }
+
+    private static void write(final File file, final String content) throws Exception {
+        Files.mkdirs(file.getParentFile());
+        IO.copy(content.getBytes(), file);
+    }
+}